@@ -1,16 +1,31 @@
 package org.bridgedb.file.orthoxml;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -29,9 +44,23 @@ import org.bridgedb.impl.InternalUtils;
 import sbc.orthoxml.Database;
 import sbc.orthoxml.Gene;
 import sbc.orthoxml.Group;
-import sbc.orthoxml.Species;
 import sbc.orthoxml.io.OrthoXMLReader;
 
+/**
+ * IDMapper for OrthoXML files. All genes and proteins in an ortholog group map to each other.
+ * <p>
+ * The groups are kept in a compact index: each Xref refers to the number of its group,
+ * and the members of all groups are packed in a single array. The OrthoXML file
+ * is read one group at a time.
+ * <p>
+ * Because parsing a large OrthoXML file is slow, the index can be saved with
+ * {@link #save(File)} and loaded again with {@link #IDMapperOrthoXml(File)}.
+ * The driver does this automatically with the cache option:
+ * <code>idmapper-orthoxml:cache=/path/to/index@http://example.com/orthologs.xml</code>.
+ * The index records the modification time and length of the OrthoXML file it was made from,
+ * and the driver parses the file again when those have changed. If they can't be determined,
+ * for example because the file can't be reached, the index is used as it is.
+ */
 public class IDMapperOrthoXml implements IDMapper
 {
 	static
@@ -39,27 +68,181 @@ public class IDMapperOrthoXml implements IDMapper
 		BridgeDb.register ("idmapper-orthoxml", new Driver());
 	}
 	
-	/** Knows how to instantiate IDMapperText. */
+	/** Knows how to instantiate IDMapperOrthoXml. */
 	private static final class Driver implements org.bridgedb.Driver
 	{
+		private static final String CACHE_OPTION = "cache=";
+
 		@Override
 		public IDMapper connect(String locationString) throws IDMapperException
 		{
-			Reader reader;
+			File cache = null;
+			if (locationString.startsWith(CACHE_OPTION))
+			{
+				int idx = locationString.indexOf('@');
+				if (idx < 0) throw new IDMapperException("Wrong link format!");
+				cache = new File(locationString.substring(CACHE_OPTION.length(), idx));
+				locationString = locationString.substring(idx + 1);
+			}
+
+			URL url;
 			try
 			{
-				reader = getReader (new URL(locationString));
+				url = new URL(locationString);
 			}
 			catch (MalformedURLException e)
 			{
 				throw new IDMapperException(e);
 			}
-			return new IDMapperOrthoXml(reader);
+
+			SourceStamp stamp = SourceStamp.of(url);
+			if (cache != null && cache.exists())
+			{
+				if (stamp == null || stamp.equals(SourceStamp.read(cache)))
+				{
+					return new IDMapperOrthoXml(cache);
+				}
+			}
+
+			IDMapperOrthoXml result = new IDMapperOrthoXml(getReader(url));
+			if (cache != null)
+			{
+				if (stamp != null) result.source = stamp;
+				result.save(cache);
+			}
+			return result;
 		}
 	}
-	
-	private Map<Xref, Set<Xref>> allIds = new HashMap <Xref, Set<Xref>>();
-	private Set<DataSource> dataSources = new HashSet<DataSource>();
+
+	/** "BDBO" */
+	private static final int MAGIC = 0x4244424F;
+	private static final int VERSION = 2;
+
+	/** Identifies the version of an OrthoXML file that an index was made from. */
+	private static final class SourceStamp
+	{
+		/** stamp of an index that was not made from a URL */
+		static final SourceStamp NONE = new SourceStamp("", 0, -1);
+
+		private final String url;
+		private final long modified;
+		private final long length;
+
+		SourceStamp(String url, long modified, long length)
+		{
+			this.url = url;
+			this.modified = modified;
+			this.length = length;
+		}
+
+		/**
+		 * Look up the modification time and length of a local file, or ask a web server for them.
+		 * @param url location of the OrthoXML file
+		 * @return stamp of the current version of the file, 
+		 * 	or null if the file can't be reached or the protocol is not supported.
+		 */
+		static SourceStamp of(URL url)
+		{
+			try
+			{
+				if ("file".equals(url.getProtocol()))
+				{
+					File file = new File(url.toURI());
+					if (!file.exists()) return null;
+					return new SourceStamp(url.toString(), file.lastModified(), file.length());
+				}
+				if (!url.getProtocol().startsWith("http")) return null;
+				HttpURLConnection con = (HttpURLConnection)url.openConnection();
+				try
+				{
+					con.setRequestMethod("HEAD");
+					if (con.getResponseCode() != HttpURLConnection.HTTP_OK) return null;
+					return new SourceStamp(url.toString(), con.getLastModified(), con.getContentLength());
+				}
+				finally
+				{
+					con.disconnect();
+				}
+			}
+			catch (IOException e)
+			{
+				return null;
+			}
+			catch (URISyntaxException e)
+			{
+				return null;
+			}
+			catch (IllegalArgumentException e)
+			{
+				// file URL with an authority or a query
+				return null;
+			}
+		}
+
+		/**
+		 * @param index an index file
+		 * @return the stamp in the index, or null if it is not a readable index of the current version.
+		 */
+		static SourceStamp read(File index)
+		{
+			try
+			{
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+				try
+				{
+					if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+					return read(in);
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+			catch (IOException e)
+			{
+				return null;
+			}
+		}
+
+		static SourceStamp read(DataInput in) throws IOException
+		{
+			return new SourceStamp(in.readUTF(), in.readLong(), in.readLong());
+		}
+
+		void write(DataOutput out) throws IOException
+		{
+			out.writeUTF(url);
+			out.writeLong(modified);
+			out.writeLong(length);
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof SourceStamp)) return false;
+			SourceStamp other = (SourceStamp)obj;
+			return url.equals(other.url) && modified == other.modified && length == other.length;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return url.hashCode() ^ (int)modified ^ (int)length;
+		}
+	}
+
+	/** the OrthoXML file this index was made from */
+	private SourceStamp source = SourceStamp.NONE;
+
+	/** group number of each Xref. If an Xref occurs in several groups, the last one counts */
+	private final Map<Xref, Integer> groupOf = new HashMap<Xref, Integer>();
+	/** members of all groups, group g is in members[groupStart[g]] to members[groupStart[g+1]] */
+	private Xref[] members = new Xref[1024];
+	private int[] groupStart = new int[] { 0 };
+	private int groupCount = 0;
+
+	private final Set<DataSource> dataSources = new HashSet<DataSource>();
+	private final IDMapperCapabilities capabilities = new Capabilities();
 	
     private static Reader getReader(URL url) throws IDMapperException {
         try {
@@ -84,37 +267,81 @@ public class IDMapperOrthoXml implements IDMapper
 		//open the orthoXML for reading
 		OrthoXMLReader reader = new OrthoXMLReader(in);
 		
-		// get species from reader
-		for (Species species : reader.getSpecies())
-		{
-			System.out.printf(species.getName() + "\t");
-			System.out.printf(species.getNcbiTaxId() + "\t");
-		}
-		System.out.printf("#");
-		//read the group iteratively
+		//read the group iteratively. Only the identifiers are kept, not the parsed groups.
 		Group group;
+		Map<String, DataSource> databases = new HashMap<String, DataSource>();
+		Set<Xref> groupRefs = new LinkedHashSet<Xref>();
 		
 		while ((group = reader.next()) != null)
 		{		
-			Set<Xref> groupRefs = new HashSet<Xref>();
+			groupRefs.clear();
 			
 			for(Gene gene : group.getNestedGenes())
 			{
 				Database database = gene.getDatabase();
 				
-				DataSource ds = aliases.get(database.getName());
-				if (ds == null) ds = DataSource.getByFullName(database.getName());
+				DataSource ds = databases.get(database.getName());
+				if (ds == null)
+				{
+					ds = aliases.get(database.getName());
+					if (ds == null) ds = InternalUtils.findOrRegisterDataSource(null, database.getName());
+					databases.put (database.getName(), ds);
+				}
 				
 				dataSources.add(ds);
-				groupRefs.add (new Xref(gene.getGeneIdentifier(), ds));
-				groupRefs.add (new Xref(gene.getProteinIdentifier(), ds));		
+				if (gene.getGeneIdentifier() != null)
+					groupRefs.add (new Xref(gene.getGeneIdentifier(), ds));
+				if (gene.getProteinIdentifier() != null)
+					groupRefs.add (new Xref(gene.getProteinIdentifier(), ds));		
 			}
 			
-			for (Xref ref : groupRefs)
-			{
-				allIds.put (ref, groupRefs);
-			}			
+			addGroup (groupRefs);
 		}
+		trim();
+	}
+
+	/** Add a group to the index */
+	private void addGroup(Collection<Xref> refs)
+	{
+		if (refs.isEmpty()) return;
+		int start = groupStart[groupCount];
+		int end = start + refs.size();
+		if (end > members.length)
+		{
+			members = Arrays.copyOf(members, Math.max(end, members.length * 2));
+		}
+		if (groupCount + 2 > groupStart.length)
+		{
+			groupStart = Arrays.copyOf(groupStart, Math.max(16, groupStart.length * 2));
+		}
+
+		Integer g = groupCount;
+		int pos = start;
+		for (Xref ref : refs)
+		{
+			// use the instance that is already known, so that it's shared between groups
+			Integer previous = groupOf.put (ref, g);
+			members[pos++] = previous == null ? ref : find (ref, previous);
+		}
+		groupCount++;
+		groupStart[groupCount] = end;
+	}
+
+	/** @return the member of group g equal to ref */
+	private Xref find(Xref ref, int g)
+	{
+		for (int i = groupStart[g]; i < groupStart[g + 1]; i++)
+		{
+			if (members[i].equals(ref)) return members[i];
+		}
+		return ref;
+	}
+
+	/** Release the unused room at the end of the arrays */
+	private void trim()
+	{
+		members = Arrays.copyOf(members, groupStart[groupCount]);
+		groupStart = Arrays.copyOf(groupStart, groupCount + 1);
 	}
 	
 	public IDMapperOrthoXml(Reader reader) throws IDMapperException
@@ -135,6 +362,118 @@ public class IDMapperOrthoXml implements IDMapper
 		{
 			throw new IDMapperException(e);
 		}
+		finally
+		{
+			try
+			{
+				reader.close();
+			}
+			catch (IOException e)
+			{
+				// ignore, everything has been read
+			}
+		}
+	}
+
+	/**
+	 * Load an index that was saved with {@link #save(File)}.
+	 * @param index the index file
+	 * @throws IDMapperException if the index could not be read
+	 */
+	public IDMapperOrthoXml(File index) throws IDMapperException
+	{
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+			try
+			{
+				if (in.readInt() != MAGIC) throw new IDMapperException("Not an OrthoXML index: " + index);
+				int version = in.readInt();
+				if (version != VERSION) throw new IDMapperException("Unsupported index version " + version + " in " + index);
+				source = SourceStamp.read(in);
+
+				int nds = in.readInt();
+				DataSource[] dss = new DataSource[nds];
+				for (int i = 0; i < nds; i++)
+				{
+					String sysCode = in.readUTF();
+					String fullName = in.readUTF();
+					dss[i] = InternalUtils.findOrRegisterDataSource(sysCode, fullName);
+					dataSources.add(dss[i]);
+				}
+
+				int ngroups = in.readInt();
+				List<Xref> refs = new ArrayList<Xref>();
+				for (int g = 0; g < ngroups; g++)
+				{
+					refs.clear();
+					int size = in.readInt();
+					for (int i = 0; i < size; i++)
+					{
+						DataSource ds = dss[in.readInt()];
+						refs.add (new Xref(in.readUTF(), ds));
+					}
+					addGroup (refs);
+				}
+				trim();
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IDMapperException(e);
+		}
+	}
+
+	/**
+	 * Save the index, so that it can be loaded again with {@link #IDMapperOrthoXml(File)}
+	 * without parsing the OrthoXML file.
+	 * @param index file to write to, will be overwritten
+	 * @throws IDMapperException if the file could not be written
+	 */
+	public void save(File index) throws IDMapperException
+	{
+		List<DataSource> dss = new ArrayList<DataSource>(dataSources);
+		Map<DataSource, Integer> dsIndex = new HashMap<DataSource, Integer>();
+		for (DataSource ds : dss) dsIndex.put (ds, dsIndex.size());
+
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index)));
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				source.write(out);
+				out.writeInt(dss.size());
+				for (DataSource ds : dss)
+				{
+					out.writeUTF(ds.getSystemCode() == null ? "" : ds.getSystemCode());
+					out.writeUTF(ds.getFullName() == null ? "" : ds.getFullName());
+				}
+				out.writeInt(groupCount);
+				for (int g = 0; g < groupCount; g++)
+				{
+					out.writeInt(groupStart[g + 1] - groupStart[g]);
+					for (int i = groupStart[g]; i < groupStart[g + 1]; i++)
+					{
+						out.writeInt(dsIndex.get(members[i].getDataSource()));
+						out.writeUTF(members[i].getId());
+					}
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IDMapperException(e);
+		}
 	}
 	
 	@Override
@@ -149,25 +488,21 @@ public class IDMapperOrthoXml implements IDMapper
 	@Override
 	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException
 	{
-		
 		Set<Xref> result = new HashSet<Xref>();
-		if (tgtDataSources.length == 0)
+		Integer g = groupOf.get(ref);
+		if (g == null) return result;
+
+		Set<DataSource> filter = null;
+		if (tgtDataSources.length > 0)
 		{
-			Set<Xref> toAdd = allIds.get(ref);
-			if (toAdd != null) result.addAll (toAdd);
+			filter = new HashSet<DataSource>();
+			for (DataSource ds : tgtDataSources) filter.add(ds);
 		}
-		else
+		for (int i = groupStart[g]; i < groupStart[g + 1]; i++)
 		{
-			Set<DataSource> filter = new HashSet<DataSource>();
-			for (DataSource ds : tgtDataSources) filter.add(ds);
-			if (allIds.containsKey(ref))
-			{
-				for (Xref dest : allIds.get(ref))
-				{
-					if (filter.contains(dest.getDataSource()))
-						result.add(dest);
-				}
-			}
+			Xref dest = members[i];
+			if (filter == null || filter.contains(dest.getDataSource()))
+				result.add(dest);
 		}
 		return result;
 	}
@@ -175,7 +510,7 @@ public class IDMapperOrthoXml implements IDMapper
 	@Override
 	public boolean xrefExists(Xref xref) throws IDMapperException
 	{
-		return allIds.containsKey(xref);
+		return groupOf.containsKey(xref);
 	}
 
 	@Override
@@ -187,7 +522,7 @@ public class IDMapperOrthoXml implements IDMapper
 	@Override
 	public IDMapperCapabilities getCapabilities()
 	{
-		return new Capabilities();
+		return capabilities;
 	}
 
 	private class Capabilities implements IDMapperCapabilities
@@ -201,13 +536,13 @@ public class IDMapperOrthoXml implements IDMapper
 		@Override
 		public Set<DataSource> getSupportedSrcDataSources() throws IDMapperException
 		{
-			return dataSources;
+			return Collections.unmodifiableSet(dataSources);
 		}
 
 		@Override
 		public Set<DataSource> getSupportedTgtDataSources() throws IDMapperException
 		{
-			return dataSources;
+			return Collections.unmodifiableSet(dataSources);
 		}
 
 		@Override
@@ -219,15 +554,14 @@ public class IDMapperOrthoXml implements IDMapper
 		@Override
 		public String getProperty(String key)
 		{
-			// TODO Auto-generated method stub
+			if ("groups".equals(key)) return "" + groupCount;
 			return null;
 		}
 
 		@Override
 		public Set<String> getKeys()
 		{
-			// TODO Auto-generated method stub
-			return Collections.emptySet();
+			return Collections.singleton("groups");
 		}
 	}
 
@@ -2,11 +2,18 @@ package org.bridgedb.rdb.construct;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
+import org.bridgedb.AttributeMapper;
 import org.bridgedb.IDMapperException;
 import org.bridgedb.Xref;
+import org.bridgedb.rdb.SimpleGdbImplCommon;
 
 public class GdbConstructImpl3 implements GdbConstruct
 {
@@ -38,6 +45,7 @@ public class GdbConstructImpl3 implements GdbConstruct
 	 */
 	final public void finalize() throws IDMapperException
 	{
+		createSummaryTables();
 		dbConnector.compact(con);
 		createGdbIndices();
 		dbConnector.closeConnection(con, DBConnector.PROP_FINALIZE);
@@ -195,6 +203,222 @@ public class GdbConstructImpl3 implements GdbConstruct
 		}
 	}
 
+	/**
+	 * Write summary tables, so that SimpleGdb doesn't have to scan the link and attribute
+	 * tables when connecting:
+	 * <ul>
+	 * <li>summaryds: each DataSource, with its number of datanodes and the number of links 
+	 * 	that have it on the right side.
+	 * <li>summarypair: the number of links for each combination of left and right DataSource.
+	 * <li>summaryattr: each attribute name, with the number of attribute values.
+	 * </ul>
+	 * Called by finalize(), after all data has been inserted.
+	 * @throws IDMapperException on failure
+	 */
+	private void createSummaryTables() throws IDMapperException
+	{
+		try
+		{
+			Statement sh = con.createStatement();
+			sh.execute(
+					"CREATE TABLE							" +
+					"		summaryds						" +
+					" (   code VARCHAR(50) PRIMARY KEY,		" +
+					"     datanodes INTEGER NOT NULL,		" +
+					"     links INTEGER NOT NULL			" +
+					" )										");
+			sh.execute(
+					"CREATE TABLE							" +
+					"		summarypair						" +
+					" (   codeLeft VARCHAR(50) NOT NULL,	" +
+					"     codeRight VARCHAR(50) NOT NULL,	" +
+					"     cnt INTEGER NOT NULL,				" +
+					"     PRIMARY KEY (codeLeft, codeRight)	" +
+					" )										");
+			sh.execute(
+					"CREATE TABLE							" +
+					"		summaryattr						" +
+					" (   attrname VARCHAR(50) PRIMARY KEY,	" +
+					"     cnt INTEGER NOT NULL				" +
+					" )										");
+			
+			// Derby has no full outer join, so merge the datanode and link counts here.
+			Map<String, int[]> counts = new TreeMap<String, int[]>();
+			ResultSet rs = sh.executeQuery("SELECT code, COUNT(*) FROM datanode WHERE code IS NOT NULL GROUP BY code");
+			while (rs.next()) counts.put (rs.getString(1), new int[] { rs.getInt(2), 0 });
+			rs.close();
+			rs = sh.executeQuery("SELECT codeRight, COUNT(*) FROM link GROUP BY codeRight");
+			while (rs.next())
+			{
+				int[] count = counts.get(rs.getString(1));
+				if (count == null)
+				{
+					count = new int[2];
+					counts.put (rs.getString(1), count);
+				}
+				count[1] = rs.getInt(2);
+			}
+			rs.close();
+			PreparedStatement pst = con.prepareStatement(
+					"INSERT INTO summaryds (code, datanodes, links) VALUES (?, ?, ?)");
+			for (Map.Entry<String, int[]> e : counts.entrySet())
+			{
+				pst.setString(1, e.getKey());
+				pst.setInt(2, e.getValue()[0]);
+				pst.setInt(3, e.getValue()[1]);
+				pst.executeUpdate();
+			}
+			
+			sh.execute(
+					"INSERT INTO summarypair (codeLeft, codeRight, cnt) " +
+					"SELECT codeLeft, codeRight, COUNT(*) FROM link GROUP BY codeLeft, codeRight");
+			sh.execute(
+					"INSERT INTO summaryattr (attrname, cnt) " +
+					"SELECT attrname, COUNT(*) FROM attribute WHERE attrname IS NOT NULL GROUP BY attrname");
+			con.commit();
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+	}
+
+	/** Number of rows that are inserted in the search index at a time. */
+	private static final int SEARCH_BATCH_SIZE = 1000;
+
+	/**
+	 * Create a trigram index for free search on identifiers and on the values of the given attributes.
+	 * <p>
+	 * For each identifier and attribute value, the index stores every distinct 
+	 * substring of {@link SimpleGdbImplCommon#GRAM_LENGTH} characters of its lower case form, 
+	 * together with the number of values that contain each substring.
+	 * SimpleGdb then answers free searches by looking up the rarest substring of the query,
+	 * instead of scanning the whole table with LIKE. Identifiers are stored under the 
+	 * attribute name {@link AttributeMapper#MATCH_ID}.
+	 * <p>
+	 * This is optional, databases without the index are searched with a full scan.
+	 * Call this after inserting all data, before finalize().
+	 * @param attrNames attributes to index, e.g. "Symbol"
+	 * @throws IDMapperException on failure
+	 */
+	public void createSearchIndex(String... attrNames) throws IDMapperException
+	{
+		try
+		{
+			Statement sh = con.createStatement();
+			sh.execute(
+					"CREATE TABLE							" +
+					"		searchindex						" +
+					" (   gram VARCHAR(" + SimpleGdbImplCommon.GRAM_LENGTH + ") NOT NULL, " +
+					"     attrname VARCHAR(50) NOT NULL,	" +
+					"     id VARCHAR(50),					" +
+					"     code VARCHAR(50),					" +
+					"	  attrvalue VARCHAR(255)			" +
+					" )										");
+			sh.execute(
+					"CREATE TABLE							" +
+					"		searchgram						" +
+					" (   gram VARCHAR(" + SimpleGdbImplCommon.GRAM_LENGTH + ") NOT NULL, " +
+					"     attrname VARCHAR(50) NOT NULL,	" +
+					"     cnt INTEGER NOT NULL,				" +
+					"     PRIMARY KEY (gram, attrname)		" +
+					" )										");
+			sh.execute(
+					"CREATE TABLE							" +
+					"		searchattr						" +
+					" (   attrname VARCHAR(50) PRIMARY KEY	" +
+					" )										");
+			
+			PreparedStatement pstIndex = con.prepareStatement(
+					"INSERT INTO searchindex (gram, attrname, id, code, attrvalue) VALUES (?, ?, ?, ?, ?)");
+			PreparedStatement pstAttr = con.prepareStatement(
+					"INSERT INTO searchattr (attrname) VALUES (?)");
+			
+			ResultSet rs = sh.executeQuery("SELECT id, code FROM datanode");
+			int pending = 0;
+			while (rs.next())
+			{
+				String id = rs.getString(1);
+				pending = addGrams(pstIndex, pending, AttributeMapper.MATCH_ID, id, rs.getString(2), id);
+			}
+			rs.close();
+			pstAttr.setString(1, AttributeMapper.MATCH_ID);
+			pstAttr.executeUpdate();
+			
+			PreparedStatement pstValues = con.prepareStatement(
+					"SELECT id, code, attrvalue FROM attribute WHERE attrname = ?");
+			for (String attrName : attrNames)
+			{
+				pstValues.setString(1, attrName);
+				rs = pstValues.executeQuery();
+				while (rs.next())
+				{
+					pending = addGrams(pstIndex, pending, attrName, rs.getString(1), rs.getString(2), rs.getString(3));
+				}
+				rs.close();
+				pstAttr.setString(1, attrName);
+				pstAttr.executeUpdate();
+			}
+			if (pending > 0) pstIndex.executeBatch();
+			
+			sh.execute(
+					"INSERT INTO searchgram (gram, attrname, cnt) " +
+					"SELECT gram, attrname, COUNT(*) FROM searchindex GROUP BY gram, attrname");
+			sh.execute(
+					"CREATE INDEX i_searchgram" +
+					" ON searchindex(gram, attrname)"
+			);
+			con.commit();
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+	}
+	
+	/**
+	 * Add the substrings of a value to the search index batch.
+	 * @param pst insert statement for the search index
+	 * @param pending number of rows in the current batch
+	 * @return number of rows in the current batch after adding.
+	 * @throws SQLException on failure
+	 */
+	private static int addGrams(PreparedStatement pst, int pending, String attrName, String id, String code, String value) 
+		throws SQLException
+	{
+		if (id == null || code == null || value == null) return pending;
+		for (String gram : grams(value))
+		{
+			pst.setString(1, gram);
+			pst.setString(2, attrName);
+			pst.setString(3, id);
+			pst.setString(4, code);
+			pst.setString(5, value);
+			pst.addBatch();
+			if (++pending == SEARCH_BATCH_SIZE)
+			{
+				pst.executeBatch();
+				pending = 0;
+			}
+		}
+		return pending;
+	}
+	
+	/**
+	 * @param value a string
+	 * @return the distinct substrings of length {@link SimpleGdbImplCommon#GRAM_LENGTH} of the lower case value. 
+	 */
+	static Set<String> grams(String value)
+	{
+		String lower = value.toLowerCase();
+		Set<String> result = new HashSet<String>();
+		for (int i = 0; i + SimpleGdbImplCommon.GRAM_LENGTH <= lower.length(); ++i)
+		{
+			result.add (lower.substring(i, i + SimpleGdbImplCommon.GRAM_LENGTH));
+		}
+		return result;
+	}
+
 	/**
 	 * Excecutes several SQL statements to create the tables and indexes in the database the given
 	 * connection is connected to
@@ -0,0 +1,180 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.construct.DBConnector;
+import org.bridgedb.rdb.construct.DataDerby;
+import org.bridgedb.rdb.construct.GdbConstructImpl3;
+import org.junit.Assert;
+import org.junit.Before;
+
+/**
+ * Builds small databases with GdbConstructImpl3, and checks that SimpleGdb 
+ * reads the tables that it writes.
+ */
+public class TestConstructedGdb {
+	
+	/** number of genes in the test databases */
+	private static final int GENES = 50;
+	
+	private static final DataSource DS_ENSEMBL = DataSource.getBySystemCode("En");
+	private static final DataSource DS_ENTREZ = DataSource.getBySystemCode("L");
+	private static final DataSource DS_AFFY = DataSource.getBySystemCode("X");
+	private static final DataSource DS_UNIPROT = DataSource.getBySystemCode("S");
+	
+	private static SimpleGdb plain = null;
+	private static SimpleGdb indexed = null;
+	
+	@Before public void setUp() throws Exception
+	{
+		if (plain == null)
+		{
+			Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+			plain = (SimpleGdb)BridgeDb.connect ("idmapper-pgdb:" + build("plain", false));
+			indexed = (SimpleGdb)BridgeDb.connect ("idmapper-pgdb:" + build("indexed", true));
+		}
+	}
+	
+	/**
+	 * Build a database with {@link #GENES} genes with Ensembl, Entrez and Affy identifiers, 
+	 * linked from the Ensembl identifier, each with a Symbol attribute. 
+	 * The first Entrez identifier is also linked to a Uniprot identifier.
+	 * @param name prefix of the file name of the database
+	 * @param searchIndex true to add a search index on identifiers and symbols 
+	 * @return path of the finalized database
+	 * @throws IDMapperException if the database could not be created
+	 * @throws IOException if the temporary file could not be created
+	 */
+	private static String build(String name, boolean searchIndex) throws IDMapperException, IOException
+	{
+		File dest = File.createTempFile(name, "." + DataDerby.DB_FILE_EXT_GDB);
+		dest.deleteOnExit();
+		GdbConstructImpl3 construct = new GdbConstructImpl3(dest.toString(), new DataDerby(), DBConnector.PROP_RECREATE);
+		construct.createGdbTables();
+		construct.preInsert();
+		for (int i = 0; i < GENES; ++i)
+		{
+			Xref ens = new Xref ("ENSG" + (1000 + i), DS_ENSEMBL);
+			Xref[] refs = { ens, new Xref ("" + (1000 + i), DS_ENTREZ), new Xref ((1000 + i) + "_at", DS_AFFY) };
+			for (Xref ref : refs)
+			{
+				construct.addGene(ref);
+				construct.addLink(ens, ref);
+			}
+			construct.addAttribute(ens, "Symbol", "GENE" + i);
+		}
+		Xref uniprot = new Xref ("P1000", DS_UNIPROT);
+		construct.addGene(uniprot);
+		construct.addLink(new Xref ("1000", DS_ENTREZ), uniprot);
+		construct.commit();
+		if (searchIndex) construct.createSearchIndex("Symbol");
+		construct.finalize();
+		return dest.toString();
+	}
+	
+	/**
+	 * Searches with the index written by GdbConstructImpl3.createSearchIndex 
+	 * must give the same results as a full scan.
+	 */
+	@org.junit.Test
+	public void testSearchIndex() throws IDMapperException
+	{
+		Assert.assertTrue (((SimpleGdbImplCommon)indexed).hasSearchIndex("Symbol"));
+		Assert.assertTrue (((SimpleGdbImplCommon)indexed).hasSearchIndex(AttributeMapper.MATCH_ID));
+		Assert.assertFalse (((SimpleGdbImplCommon)plain).hasSearchIndex("Symbol"));
+		String[] queries = { "ensg100", "ENSG1004", "_at", "00", "gene1", "GENE49", "nothing", "1%" };
+		for (String query : queries)
+		{
+			Assert.assertEquals (query, plain.freeSearch(query, 0), indexed.freeSearch(query, 0));
+			Assert.assertEquals (query, plain.freeAttributeSearchEx(query, "Symbol", 0), 
+					indexed.freeAttributeSearchEx(query, "Symbol", 0));
+			Assert.assertEquals (query, plain.freeAttributeSearch(query, "Symbol", 0), 
+					indexed.freeAttributeSearch(query, "Symbol", 0));
+		}
+		Assert.assertEquals (10, indexed.freeSearch("ensg100", 0).size());
+		Assert.assertEquals (3, indexed.freeSearch("ensg10", 3).size());
+	}
+	
+	/**
+	 * The summary tables written when finalizing must give the same answers
+	 * as counting the tables.
+	 */
+	@org.junit.Test
+	public void testSummaryTables() throws IDMapperException
+	{
+		Assert.assertTrue (((SimpleGdbImplCommon)plain).hasSummary());
+		
+		Set<DataSource> dss = new HashSet<DataSource>(Arrays.asList(DS_ENSEMBL, DS_ENTREZ, DS_AFFY));
+		Set<DataSource> all = new HashSet<DataSource>(dss);
+		all.add (DS_UNIPROT);
+		Assert.assertEquals (all, plain.getCapabilities().getSupportedSrcDataSources());
+		Assert.assertEquals (all, plain.getCapabilities().getSupportedTgtDataSources());
+		Assert.assertEquals (Collections.singleton("Symbol"), plain.getAttributeSet());
+		Assert.assertEquals (3 * GENES + 1, plain.getGeneCount());
+		for (DataSource ds : dss)
+		{
+			Assert.assertEquals (GENES, plain.getGeneCount(ds));
+			// all DataSources are linked from Ensembl
+			Assert.assertTrue (plain.getCapabilities().isMappingSupported(DS_ENTREZ, ds));
+		}
+		Assert.assertEquals (1, plain.getGeneCount(DS_UNIPROT));
+		Assert.assertEquals (0, plain.getGeneCount(DataSource.getBySystemCode("Sg")));
+		// Uniprot is only linked from Entrez, not from the same DataSource as Entrez
+		Assert.assertFalse (plain.getCapabilities().isMappingSupported(DS_ENTREZ, DS_UNIPROT));
+		Assert.assertTrue (plain.getCapabilities().isMappingSupported(DS_UNIPROT, DS_UNIPROT));
+	}
+	
+	/**
+	 * Snapshots and memory-mapped exports must answer isMappingSupported 
+	 * the same way as the summary tables.
+	 */
+	@org.junit.Test
+	public void testCopiedCapabilities() throws IDMapperException, IOException
+	{
+		File file = File.createTempFile("constructed", ".bridgemap");
+		file.deleteOnExit();
+		IDMapperMmap.export(plain, file);
+		IDMapperRdb[] copies = { 
+				new SimpleGdbSnapshot(plain), 
+				(IDMapperRdb)BridgeDb.connect ("idmapper-mmap:" + file) };
+		Set<DataSource> dss = plain.getCapabilities().getSupportedSrcDataSources();
+		for (IDMapperRdb copy : copies)
+		{
+			Assert.assertFalse (copy.getCapabilities().isMappingSupported(DS_ENTREZ, DS_UNIPROT));
+			for (DataSource src : dss)
+			{
+				for (DataSource tgt : dss)
+				{
+					Assert.assertEquals (src + " -> " + tgt, plain.getCapabilities().isMappingSupported(src, tgt), 
+							copy.getCapabilities().isMappingSupported(src, tgt));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,662 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.bridgedb.AbstractIDMapperCapabilities;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.impl.InternalUtils;
+import org.bridgedb.impl.MappedDictionary;
+
+/**
+ * IDMapper that serves a schema version 3 database from a read-only, memory-mapped file.
+ * <p>
+ * The file is created once with {@link #export(SimpleGdb, File)}. It is stored in columns:
+ * <ul>
+ * <li>a dictionary of identifiers, grouped by DataSource and sorted within each DataSource,
+ * 	so that the node number of an Xref is found with a binary search.
+ * <li>a bit for each node that is present in the datanode table.
+ * <li>link adjacency lists, for each left node the right nodes it links to, and the reverse. 
+ * <li>attribute columns: for each node a range of attribute name and value numbers, 
+ * 	with a dictionary of attribute values.
+ * </ul>
+ * Opening the file only maps it into memory, so connecting is fast, the heap use does not
+ * grow with the size of the database, and processes that open the same file share 
+ * the operating system page cache. Free searches scan the dictionaries.
+ * <p>
+ * Connection string: <code>idmapper-mmap:/path/to/Hs_Derby.bridgemap</code>.
+ * A file can be at most 2 GB.
+ */
+public final class IDMapperMmap extends IDMapperRdb
+{
+	/** "BDBM" */
+	private static final int MAGIC = 0x4244424D;
+	private static final int VERSION = 2;
+
+	private final File file;
+	private final DataSource[] dataSources;
+	private final MappedDictionary dictionary;
+	private final String[] attrNames;
+	/** pairs of DataSources that the exported database supports mapping between */
+	private final Map<DataSource, Set<DataSource>> mappable = new HashMap<DataSource, Set<DataSource>>();
+	private final IDMapperCapabilities caps;
+	
+	// positions of the sections of the file
+	private final int nodes;
+	private final int datanodePos;
+	private final int linkStartPos;
+	private final int linkRightPos;
+	private final int backStartPos;
+	private final int backLeftPos;
+	private final int valueStartPos;
+	private final int attrStartPos;
+	private final int attrNamePos;
+	private final int attrValuePos;
+	private final int valuePos;
+	
+	/** only accessed with absolute get methods, so that it can be shared between threads */
+	private volatile ByteBuffer buffer;
+	
+	/**
+	 * Open a file that was created with {@link #export(SimpleGdb, File)}.
+	 * @param file file to open
+	 * @throws IDMapperException if the file could not be read or is in the wrong format
+	 */
+	public IDMapperMmap(File file) throws IDMapperException
+	{
+		this.file = file;
+		Map<String, String> props = new HashMap<String, String>();
+		try
+		{
+			FileInputStream fis = new FileInputStream(file);
+			try
+			{
+				FileChannel channel = fis.getChannel();
+				if (channel.size() > Integer.MAX_VALUE) 
+					throw new IDMapperException("File is too large: " + file);
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			finally
+			{
+				fis.close();
+			}
+			
+			ByteBuffer header = buffer.duplicate();
+			if (header.remaining() < 8 || header.getInt() != MAGIC) 
+				throw new IDMapperException("Not a mapped database file: " + file);
+			int version = header.getInt();
+			if (version != VERSION)
+				throw new IDMapperException("Unsupported version " + version + " in " + file);
+			
+			int nprops = header.getInt();
+			for (int i = 0; i < nprops; ++i)
+			{
+				String key = MappedDictionary.readString(header);
+				props.put (key, MappedDictionary.readString(header));
+			}
+			
+			int nds = header.getInt();
+			dataSources = new DataSource[nds];
+			for (int i = 0; i < nds; ++i)
+			{
+				dataSources[i] = InternalUtils.findOrRegisterDataSource(MappedDictionary.readString(header), null);
+			}
+			
+			int nnames = header.getInt();
+			attrNames = new String[nnames];
+			for (int i = 0; i < nnames; ++i) attrNames[i] = MappedDictionary.readString(header);
+			
+			int npairs = header.getInt();
+			for (int i = 0; i < npairs; ++i)
+			{
+				DataSource src = dataSources[header.getInt()];
+				InternalUtils.multiMapPut(mappable, src, dataSources[header.getInt()]);
+			}
+			
+			nodes = header.getInt();
+			int nLinks = header.getInt();
+			int nValues = header.getInt();
+			int nAttr = header.getInt();
+			int dsStartPos = header.position();
+			int idStartPos = dsStartPos + 4 * (nds + 1);
+			datanodePos = idStartPos + 4 * (nodes + 1);
+			linkStartPos = datanodePos + 4 * ((nodes + 31) / 32);
+			linkRightPos = linkStartPos + 4 * (nodes + 1);
+			backStartPos = linkRightPos + 4 * nLinks;
+			backLeftPos = backStartPos + 4 * (nodes + 1);
+			valueStartPos = backLeftPos + 4 * nLinks;
+			attrStartPos = valueStartPos + 4 * (nValues + 1);
+			attrNamePos = attrStartPos + 4 * (nodes + 1);
+			attrValuePos = attrNamePos + 4 * nAttr;
+			int idPos = attrValuePos + 4 * nAttr;
+			dictionary = new MappedDictionary(dataSources, dsStartPos, idStartPos, idPos);
+			valuePos = idPos + dictionary.idLength(buffer, nodes);
+			if (valuePos + buffer.getInt(valueStartPos + 4 * nValues) > buffer.limit())
+				throw new IDMapperException("File is truncated: " + file);
+		}
+		catch (IOException ex)
+		{
+			throw new IDMapperException (ex);
+		}
+		catch (RuntimeException ex)
+		{
+			// BufferUnderflowException or IndexOutOfBoundsException on a corrupt file
+			throw new IDMapperException ("Could not read " + file, ex);
+		}
+		
+		// like SimpleGdb, only DataSources that occur on the right side of a link are supported
+		Set<DataSource> supported = new HashSet<DataSource>();
+		for (int ds = 0; ds < dataSources.length; ++ds)
+		{
+			int start = dictionary.start(buffer, ds);
+			int end = dictionary.end(buffer, ds);
+			if (buffer.getInt(backStartPos + 4 * end) > buffer.getInt(backStartPos + 4 * start)) 
+				supported.add (dataSources[ds]);
+		}
+		caps = new AbstractIDMapperCapabilities(Collections.unmodifiableSet(supported), true, props) 
+		{
+			/** the same answers as the exported database gave */
+			@Override
+			public boolean isMappingSupported(DataSource src, DataSource tgt) 
+			{
+				Set<DataSource> tgts = mappable.get(src);
+				return tgts != null && tgts.contains(tgt);
+			}
+		};
+	}
+	
+	/**
+	 * Write the contents of a schema version 3 database to a file that can be opened with IDMapperMmap.
+	 * @param gdb database to export
+	 * @param dest file to write to, will be overwritten
+	 * @throws IDMapperException if the database could not be read, has the wrong schema version,
+	 * 	or the file could not be written
+	 */
+	public static void export(SimpleGdb gdb, File dest) throws IDMapperException
+	{
+		if (!(gdb instanceof SimpleGdbImpl3)) 
+			throw new IDMapperException ("Only schema version 3 databases can be exported");
+		SimpleGdbSnapshot snapshot = new SimpleGdbSnapshot(gdb);
+		
+		int n = snapshot.codes.length;
+		int[] codes = new int[n];
+		byte[][] idBytes = new byte[n][];
+		for (int i = 0; i < n; ++i) 
+		{
+			codes[i] = snapshot.codes[i];
+			idBytes[i] = MappedDictionary.encode(snapshot.ids[i]);
+		}
+		
+		// sort the nodes by DataSource, then by the bytes of the id
+		Integer[] order = MappedDictionary.sort(codes, idBytes);
+		int[] renumber = new int[n];
+		for (int i = 0; i < n; ++i) renumber[order[i]] = i;
+		
+		// dictionary of attribute values. These are interned by the snapshot.
+		Map<String, Integer> valueIndex = new IdentityHashMap<String, Integer>();
+		List<byte[]> values = new ArrayList<byte[]>();
+		for (String value : snapshot.attrValue)
+		{
+			if (!valueIndex.containsKey(value))
+			{
+				valueIndex.put (value, values.size());
+				values.add (MappedDictionary.encode(value));
+			}
+		}
+		
+		long idLength = 0;
+		for (byte[] bytes : idBytes) idLength += bytes.length;
+		long valueLength = 0;
+		for (byte[] bytes : values) valueLength += bytes.length;
+		int nLinks = snapshot.linkRight.length;
+		int nAttr = snapshot.attrValue.length;
+		if (4L * (5L * n + 2L * nLinks + values.size() + 2L * nAttr) + idLength + valueLength > Integer.MAX_VALUE)
+			throw new IDMapperException ("Database is too large for a single file");
+		
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dest)));
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				
+				IDMapperCapabilities dbCaps = gdb.getCapabilities();
+				out.writeInt(dbCaps.getKeys().size());
+				for (String key : dbCaps.getKeys())
+				{
+					MappedDictionary.writeString(out, key);
+					String value = dbCaps.getProperty(key);
+					MappedDictionary.writeString(out, value == null ? "" : value);
+				}
+				
+				out.writeInt(snapshot.dataSources.length);
+				for (DataSource ds : snapshot.dataSources) MappedDictionary.writeString(out, ds.getSystemCode());
+				out.writeInt(snapshot.attrNames.length);
+				for (String name : snapshot.attrNames) MappedDictionary.writeString(out, name);
+				
+				// ask the database which mappings it supports, as it may know more than the file
+				List<DataSource> dss = Arrays.asList(snapshot.dataSources);
+				List<int[]> pairs = new ArrayList<int[]>();
+				for (DataSource src : dbCaps.getSupportedSrcDataSources())
+				{
+					for (DataSource tgt : dbCaps.getSupportedTgtDataSources())
+					{
+						int i = dss.indexOf(src);
+						int j = dss.indexOf(tgt);
+						if (i >= 0 && j >= 0 && dbCaps.isMappingSupported(src, tgt)) pairs.add (new int[] { i, j });
+					}
+				}
+				out.writeInt(pairs.size());
+				for (int[] pair : pairs)
+				{
+					out.writeInt(pair[0]);
+					out.writeInt(pair[1]);
+				}
+				
+				out.writeInt(n);
+				out.writeInt(nLinks);
+				out.writeInt(values.size());
+				out.writeInt(nAttr);
+				
+				MappedDictionary.writeDataSourceStarts(out, snapshot.dataSources.length, codes, order);
+				MappedDictionary.writeIdStarts(out, idBytes, order);
+				
+				for (int word = 0; word < (n + 31) / 32; ++word)
+				{
+					int bits = 0;
+					for (int bit = 0; bit < 32 && word * 32 + bit < n; ++bit)
+					{
+						if (snapshot.datanodes.get(order[word * 32 + bit])) bits |= 1 << bit;
+					}
+					out.writeInt(bits);
+				}
+				
+				writeAdjacency(out, order, renumber, snapshot.linkStart, snapshot.linkRight);
+				writeAdjacency(out, order, renumber, snapshot.backStart, snapshot.backLeft);
+				
+				int valueStart = 0;
+				for (byte[] bytes : values)
+				{
+					out.writeInt(valueStart);
+					valueStart += bytes.length;
+				}
+				out.writeInt(valueStart);
+				
+				int attrStart = 0;
+				for (int i = 0; i < n; ++i)
+				{
+					out.writeInt(attrStart);
+					attrStart += snapshot.attrStart[order[i] + 1] - snapshot.attrStart[order[i]];
+				}
+				out.writeInt(attrStart);
+				for (int i = 0; i < n; ++i)
+				{
+					for (int j = snapshot.attrStart[order[i]]; j < snapshot.attrStart[order[i] + 1]; ++j)
+						out.writeInt(snapshot.attrName[j]);
+				}
+				for (int i = 0; i < n; ++i)
+				{
+					for (int j = snapshot.attrStart[order[i]]; j < snapshot.attrStart[order[i] + 1]; ++j)
+						out.writeInt(valueIndex.get(snapshot.attrValue[j]));
+				}
+				
+				MappedDictionary.writeIds(out, idBytes, order);
+				for (byte[] bytes : values) out.write(bytes);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			throw new IDMapperException (ex);
+		}
+	}
+	
+	/**
+	 * Write adjacency lists in the new node order: n + 1 offsets, followed by the lists.
+	 * @param out stream to write to
+	 * @param order old node number for each new node number
+	 * @param renumber new node number for each old node number
+	 * @param start offsets of the lists, by old node number 
+	 * @param adjacent the lists, with old node numbers
+	 * @throws IOException if the file could not be written
+	 */
+	private static void writeAdjacency(DataOutputStream out, Integer[] order, int[] renumber, int[] start, int[] adjacent) 
+		throws IOException
+	{
+		int pos = 0;
+		for (int i = 0; i < order.length; ++i)
+		{
+			out.writeInt(pos);
+			pos += start[order[i] + 1] - start[order[i]];
+		}
+		out.writeInt(pos);
+		for (int i = 0; i < order.length; ++i)
+		{
+			for (int j = start[order[i]]; j < start[order[i] + 1]; ++j) out.writeInt(renumber[adjacent[j]]);
+		}
+	}
+	
+	/** @return the mapped file, or throws if this IDMapper was closed */
+	private ByteBuffer buffer() throws IDMapperException
+	{
+		ByteBuffer result = buffer;
+		if (result == null) throw new IDMapperException ("IDMapper is closed");
+		return result;
+	}
+	
+	/** @return attribute value with the given number */
+	private String valueOf(ByteBuffer buf, int value) throws IDMapperException
+	{
+		return MappedDictionary.decode(buf, valuePos + buf.getInt(valueStartPos + 4 * value), 
+				valuePos + buf.getInt(valueStartPos + 4 * (value + 1)));
+	}
+	
+	private boolean isDatanode(ByteBuffer buf, int node)
+	{
+		return (buf.getInt(datanodePos + 4 * (node / 32)) & (1 << (node % 32))) != 0;
+	}
+	
+	/** @return attribute name number, or -1 if there is no such attribute */
+	private int attrNameIndex(String attrType)
+	{
+		for (int i = 0; i < attrNames.length; ++i)
+		{
+			if (attrNames[i].equals(attrType)) return i;
+		}
+		return -1;
+	}
+	
+	/** {@inheritDoc} */
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException 
+	{
+		ByteBuffer buf = buffer();
+		Set<Xref> result = new HashSet<Xref>();
+		int node = dictionary.find(buf, ref);
+		if (node < 0) return result;
+		
+		boolean[] accept = null;
+		if (tgtDataSources.length > 0)
+		{
+			accept = new boolean[dataSources.length];
+			for (DataSource ds : tgtDataSources)
+			{
+				int i = dictionary.indexOf(ds);
+				if (i >= 0) accept[i] = true;
+			}
+		}
+		
+		int backEnd = buf.getInt(backStartPos + 4 * (node + 1));
+		for (int i = buf.getInt(backStartPos + 4 * node); i < backEnd; ++i)
+		{
+			int left = buf.getInt(backLeftPos + 4 * i);
+			int linkEnd = buf.getInt(linkStartPos + 4 * (left + 1));
+			for (int j = buf.getInt(linkStartPos + 4 * left); j < linkEnd; ++j)
+			{
+				int right = buf.getInt(linkRightPos + 4 * j);
+				int ds = dictionary.dataSourceOf(buf, right);
+				if (accept == null || accept[ds]) result.add (new Xref (dictionary.idOf(buf, right), dataSources[ds]));
+			}
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public boolean xrefExists(Xref xref) throws IDMapperException 
+	{
+		ByteBuffer buf = buffer();
+		int node = dictionary.find(buf, xref);
+		return node >= 0 && isDatanode(buf, node);
+	}
+
+	/** {@inheritDoc} */
+	public Set<String> getAttributes(Xref ref, String attrType) throws IDMapperException 
+	{
+		ByteBuffer buf = buffer();
+		Set<String> result = new HashSet<String>();
+		int node = dictionary.find(buf, ref);
+		int name = attrNameIndex(attrType);
+		if (node < 0 || name < 0) return result;
+		int end = buf.getInt(attrStartPos + 4 * (node + 1));
+		for (int i = buf.getInt(attrStartPos + 4 * node); i < end; ++i)
+		{
+			if (buf.getInt(attrNamePos + 4 * i) == name) 
+				result.add (valueOf(buf, buf.getInt(attrValuePos + 4 * i)));
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Map<String, Set<String>> getAttributes(Xref ref) throws IDMapperException 
+	{
+		ByteBuffer buf = buffer();
+		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+		int node = dictionary.find(buf, ref);
+		if (node < 0) return result;
+		int end = buf.getInt(attrStartPos + 4 * (node + 1));
+		for (int i = buf.getInt(attrStartPos + 4 * node); i < end; ++i)
+		{
+			InternalUtils.multiMapPut(result, attrNames[buf.getInt(attrNamePos + 4 * i)], 
+					valueOf(buf, buf.getInt(attrValuePos + 4 * i)));
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Set<String> getAttributeSet() throws IDMapperException 
+	{
+		return new HashSet<String>(Arrays.asList(attrNames));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Scans all identifiers.
+	 */
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException 
+	{
+		ByteBuffer buf = buffer();
+		Set<Xref> result = new HashSet<Xref>();
+		String query = text.toLowerCase();
+		for (int node = 0; node < nodes; ++node)
+		{
+			if (limit > 0 && result.size() >= limit) break;
+			if (!isDatanode(buf, node)) continue;
+			String id = dictionary.idOf(buf, node);
+			if (id.toLowerCase().contains(query)) 
+				result.add (new Xref (id, dataSources[dictionary.dataSourceOf(buf, node)]));
+		}
+		return result;
+	}
+
+	/** @return true */
+	public boolean isFreeAttributeSearchSupported() 
+	{
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Scans all attributes.
+	 */
+	public Map<Xref, String> freeAttributeSearch(String query, String attrType, int limit) throws IDMapperException 
+	{
+		Map<Xref, String> result = new HashMap<Xref, String>();
+		for (Map.Entry<Xref, Set<String>> e : freeAttributeSearchEx(query, attrType, limit).entrySet())
+		{
+			result.put (e.getKey(), e.getValue().iterator().next());
+		}
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Scans all attributes.
+	 */
+	public Map<Xref, Set<String>> freeAttributeSearchEx(String query, String attrType, int limit) throws IDMapperException 
+	{
+		ByteBuffer buf = buffer();
+		Map<Xref, Set<String>> result = new HashMap<Xref, Set<String>>();
+		int name = attrNameIndex(attrType);
+		if (name < 0) return result;
+		String text = query.toLowerCase();
+		for (int node = 0; node < nodes; ++node)
+		{
+			int end = buf.getInt(attrStartPos + 4 * (node + 1));
+			for (int i = buf.getInt(attrStartPos + 4 * node); i < end; ++i)
+			{
+				if (limit > 0 && result.size() >= limit) return result;
+				if (buf.getInt(attrNamePos + 4 * i) != name) continue;
+				String value = valueOf(buf, buf.getInt(attrValuePos + 4 * i));
+				if (value.toLowerCase().contains(text))
+				{
+					Xref ref = dictionary.xrefOf(buf, node);
+					InternalUtils.multiMapPut(result, ref, value);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Xrefs are read from the file while iterating.
+	 */
+	public Iterable<Xref> getIterator() throws IDMapperException 
+	{
+		return new NodeRange(0, nodes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Xrefs are read from the file while iterating.
+	 */
+	public Iterable<Xref> getIterator(DataSource ds) throws IDMapperException 
+	{
+		int i = dictionary.indexOf(ds);
+		if (i < 0) return Collections.emptyList();
+		ByteBuffer buf = buffer();
+		return new NodeRange(dictionary.start(buf, i), dictionary.end(buf, i));
+	}
+	
+	/** Iterates over the Xrefs of the datanodes in a range of nodes. */
+	private final class NodeRange implements Iterable<Xref>
+	{
+		private final int start;
+		private final int end;
+		
+		NodeRange(int start, int end)
+		{
+			this.start = start;
+			this.end = end;
+		}
+		
+		public Iterator<Xref> iterator()
+		{
+			return new Iterator<Xref>() 
+			{
+				private int next = skip(start);
+				
+				/** @return first datanode at or after node, or end */
+				private int skip(int node)
+				{
+					ByteBuffer buf = buffer;
+					if (buf == null) return end;
+					while (node < end && !isDatanode(buf, node)) node++;
+					return node;
+				}
+				
+				public boolean hasNext()
+				{
+					return next < end;
+				}
+				
+				public Xref next()
+				{
+					if (!hasNext()) throw new NoSuchElementException();
+					try
+					{
+						ByteBuffer buf = buffer();
+						Xref result = dictionary.xrefOf(buf, next);
+						next = skip(next + 1);
+						return result;
+					}
+					catch (IDMapperException ex)
+					{
+						throw new IllegalStateException(ex);
+					}
+				}
+				
+				public void remove()
+				{
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+
+	/** @return the capabilities, with the properties of the info table of the exported database */
+	public IDMapperCapabilities getCapabilities() 
+	{
+		return caps;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The mapped file is released when it is garbage collected.
+	 */
+	public void close() throws IDMapperException 
+	{
+		buffer = null;
+	}
+
+	/** {@inheritDoc} */
+	public boolean isConnected() 
+	{
+		return buffer != null;
+	}
+
+	/** @return the path of the mapped file */
+	@Override public String getDbName() 
+	{
+		return file.toString();
+	}
+}
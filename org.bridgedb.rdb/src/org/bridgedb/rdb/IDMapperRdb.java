@@ -43,6 +43,7 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 		BridgeDb.register ("idmapper-pgdb", new DriverPgdb());
 		BridgeDb.register ("idmapper-derbyclient", new DriverClient());
 		BridgeDb.register ("idmapper-jdbc", new DriverJdbc());
+		BridgeDb.register ("idmapper-mmap", new DriverMmap());
 	}
 	
 	private static final class DriverPgdb implements org.bridgedb.Driver
@@ -53,8 +54,11 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 		/** {@inheritDoc} */
 		public IDMapper connect(String location) throws IDMapperException 
 		{
-			String url = "jdbc:derby:jar:(" + location + ")database";
-			return SimpleGdbFactory.createInstance(location, url);
+			int poolSize = getPoolSize(location);
+			String base = removeArguments(location, POOL_ARGUMENT, SNAPSHOT_ARGUMENT);
+			String url = "jdbc:derby:jar:(" + base + ")database";
+			SimpleGdb gdb = SimpleGdbFactory.createInstance(base, url, poolSize);
+			return isSnapshot(location) ? new SimpleGdbSnapshot(gdb) : gdb;
 		}
 	}
 
@@ -66,8 +70,23 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 		/** {@inheritDoc} */
 		public IDMapper connect(String location) throws IDMapperException 
 		{
-			String url = "jdbc:" + location;
-			return SimpleGdbFactory.createInstance(location, url);
+			int poolSize = getPoolSize(location);
+			String base = removeArguments(location, POOL_ARGUMENT, SNAPSHOT_ARGUMENT);
+			String url = "jdbc:" + base;
+			SimpleGdb gdb = SimpleGdbFactory.createInstance(base, url, poolSize);
+			return isSnapshot(location) ? new SimpleGdbSnapshot(gdb) : gdb;
+		}
+	}
+
+	private static final class DriverMmap implements org.bridgedb.Driver
+	{
+		/** private constructor to prevent instantiation. */
+		private DriverMmap() { } 
+		
+		/** {@inheritDoc} */
+		public IDMapper connect(String location) throws IDMapperException 
+		{
+			return new IDMapperMmap(new File(location));
 		}
 	}
 
@@ -82,13 +101,15 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 			try
 			{
 	            Map<String, String> args = 
-	            	InternalUtils.parseLocation(location, "host", "port");
+	            	InternalUtils.parseLocation(location, "host", "port", POOL_ARGUMENT);
 
 	            if (!args.containsKey("BASE")) 
 	            	throw new IllegalArgumentException("Expected species name in connection string: " + location);
 
 	            String host = args.containsKey("host") ? args.get("host") : "wikipathways.org";
 	            String port = args.containsKey("port") ? args.get("port") : "1527";
+	            int poolSize = args.containsKey(POOL_ARGUMENT) ? 
+	            		parsePoolSize(args.get(POOL_ARGUMENT)) : SimpleGdb.DEFAULT_POOL_SIZE;
 	            
 				Class.forName("org.apache.derby.jdbc.ClientDriver");
 				Properties sysprop = System.getProperties();
@@ -96,7 +117,7 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 				sysprop.setProperty("derby.stream.error.file", File.createTempFile("derby",".log").toString());
 				
 				String url = "jdbc:derby://" + host + ":" + port + "/" + args.get("BASE");
-				return SimpleGdbFactory.createInstance(location, url);
+				return SimpleGdbFactory.createInstance(location, url, poolSize);
 			}
 			catch (IOException e)
 			{
@@ -109,6 +130,106 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 		}
 	}
 	
+	/** 
+	 * Optional connection string argument to set the number of pooled connections,
+	 * e.g. <code>idmapper-pgdb:/path/to/Hs_Derby.bridge?pool=8</code>.
+	 * Each pooled connection has its own prepared statements, so up to this many queries
+	 * can run at the same time. A good value is the number of cores of the machine.
+	 */
+	static final String POOL_ARGUMENT = "pool";
+	
+	/**
+	 * Look for the pool argument in the part of the location after the '?'. 
+	 * Other arguments are ignored, they may be meant for the JDBC driver.
+	 * @param location location part of the connection string
+	 * @return the requested pool size, or the default pool size if the argument was not present.
+	 * @throws IDMapperException if the pool argument is not a positive number
+	 */
+	static int getPoolSize(String location) throws IDMapperException
+	{
+		int idx = location.lastIndexOf('?');
+		if (idx < 0) return SimpleGdb.DEFAULT_POOL_SIZE;
+		for (String arg : location.substring(idx + 1).split("&"))
+		{
+			if (arg.startsWith(POOL_ARGUMENT + "="))
+			{
+				return parsePoolSize(arg.substring(POOL_ARGUMENT.length() + 1));
+			}
+		}
+		return SimpleGdb.DEFAULT_POOL_SIZE;
+	}
+	
+	/**
+	 * @param location location part of the connection string
+	 * @return the location with the pool argument removed, 
+	 * 	so that the rest can be passed on to the JDBC driver.
+	 */
+	static String removePoolArgument(String location)
+	{
+		return removeArguments(location, POOL_ARGUMENT);
+	}
+	
+	/**
+	 * @param location location part of the connection string
+	 * @param names names of the arguments to remove
+	 * @return the location with the given arguments removed, 
+	 * 	so that the rest can be passed on to the JDBC driver.
+	 */
+	static String removeArguments(String location, String... names)
+	{
+		int idx = location.lastIndexOf('?');
+		if (idx < 0) return location;
+		StringBuilder result = new StringBuilder(location.substring(0, idx));
+		char sep = '?';
+		outer: for (String arg : location.substring(idx + 1).split("&"))
+		{
+			for (String name : names)
+			{
+				if (arg.startsWith(name + "=")) continue outer;
+			}
+			result.append(sep);
+			result.append(arg);
+			sep = '&';
+		}
+		return result.toString();
+	}
+	
+	/** 
+	 * Optional connection string argument to load the whole database in memory,
+	 * e.g. <code>idmapper-pgdb:/path/to/Hs_Derby.bridge?snapshot=true</code>.
+	 * Mapping and attribute lookups are then answered without SQL, see {@link SimpleGdbSnapshot}.
+	 */
+	static final String SNAPSHOT_ARGUMENT = "snapshot";
+	
+	/**
+	 * @param location location part of the connection string
+	 * @return true if the snapshot argument is set to true.
+	 */
+	static boolean isSnapshot(String location)
+	{
+		int idx = location.lastIndexOf('?');
+		if (idx < 0) return false;
+		for (String arg : location.substring(idx + 1).split("&"))
+		{
+			if (arg.equals(SNAPSHOT_ARGUMENT + "=true")) return true;
+		}
+		return false;
+	}
+	
+	private static int parsePoolSize(String value) throws IDMapperException
+	{
+		try
+		{
+			int result = Integer.parseInt(value);
+			if (result < 1) throw new IDMapperException ("Pool size must be at least 1, was " + value);
+			return result;
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IDMapperException ("Could not parse pool size '" + value + "'", ex);
+		}
+	}
+	
 	/**
 	 * Gets the name of te currently used gene database.
 	 * @return the database name as specified in the connection string
@@ -21,6 +21,13 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapperException;
@@ -49,43 +56,67 @@ import org.bridgedb.IDMapperException;
  * In a head-less or test environment, you can bypass GdbManager
  * and use SimpleGdb directly 
  * to create or connect to one or more pgdb's of any type.
+ * <p>
+ * Queries are run on a pool of read-only connections. By default the pool
+ * contains a single connection, so queries are handled one at a time. 
+ * A larger pool lets multiple threads query the same database concurrently, 
+ * see {@link SimpleGdbFactory#createInstance(String, String, int)}.
  */
 public abstract class SimpleGdb extends IDMapperRdb
 {
 	private final String connectionString;
 	/**
-	 * Create IDMapper based on an existing SQL connection.
-	 * @param con Existing SQL Connection.
+	 * Create IDMapper based on a JDBC connection string, with a single connection.
+	 * @param dbName name of the database, as reported by getDbName().
+	 * @param connectionString JDBC connection string.
 	 */
 	SimpleGdb(String dbName, String connectionString)
 	{
+		this(dbName, connectionString, DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * Create IDMapper based on a JDBC connection string.
+	 * @param dbName name of the database, as reported by getDbName().
+	 * @param connectionString JDBC connection string.
+	 * @param poolSize maximum number of read-only connections that are used for queries
+	 * 	at the same time. With a pool size of 1, all queries are serialized on a single connection.
+	 */
+	SimpleGdb(String dbName, String connectionString, int poolSize)
+	{
+		if (poolSize < 1) throw new IllegalArgumentException("Pool size must be at least 1, was " + poolSize);
 		this.connectionString = connectionString;
 		this.dbName = dbName;
+		this.poolSize = poolSize;
 	}
 
+	/** Pool size used when none is specified in the connection string. */
+	public static final int DEFAULT_POOL_SIZE = 1;
+	
 	private boolean singleConnection = true;
-	private boolean neverCloseConnection = true;
 	
 	/**
 	 * helper class that handles the life cycle of a connection, query and resultset.
 	 * <p>
 	 * The sql for a query is passed in at construction time.
-	 * Before each query, call init(). This will lead to lazy initialization of the
-	 * connection and preparedstatement objects, if necessary. Set the query parameters
-	 * using setString(int, String). Get the resultSet using 
+	 * Before each query, call init(). This will borrow a connection from the pool
+	 * and look up or create the preparedstatement for that connection. Set the query parameters
+	 * using setString(int, String). Get the resultSet using executeQuery().
 	 * Do not close the resultset! This will be closed for you when you call cleanup().
 	 * Always call cleanup() in a finally block.
 	 * <p>
 	 * The advantages of using QueryLifeCycle are:
 	 * <ul>
-	 * <li>guarantee to close preparedstatement, resultset and connection if necessary.
-	 * <li>in case of connection pooling, preparedstatement and connection are kept together as long
-	 *   as possible.
+	 * <li>guarantee to close resultset and return the connection to the pool.
+	 * <li>preparedstatement and connection are kept together as long
+	 *   as possible: each pooled connection has its own prepared statements.
 	 * <li>lazy initialization of prepared statement
 	 * <li>always uses preparedstatement, so safe from SQL injection.
 	 * </ul> 
 	 * <p>
-	 * This class is not static because it needs SimpleGdb.getConnection().
+	 * A QueryLifeCycle is meant to be used by a single thread for a single query, 
+	 * create a new one for each query. 
+	 * This class is not static because it needs the connection pool of SimpleGdb.
 	 */
 	final class QueryLifeCycle
 	{
@@ -99,7 +130,7 @@ public abstract class SimpleGdb extends IDMapperRdb
 			sql = aSql;
 		}
 		
-		private Connection con = null;
+		private PooledConnection con = null;
 		private ResultSet rs = null;
 		private PreparedStatement pst = null;
 		private final String sql;
@@ -112,15 +143,13 @@ public abstract class SimpleGdb extends IDMapperRdb
 		public void init(int limit) throws SQLException
 		{
 			init();
-			pst.setQueryTimeout(QUERY_TIMEOUT);			
-			if(limit > NO_LIMIT) 
-			{
-				pst.setMaxRows(limit);
-			}
+			pst.setQueryTimeout(QUERY_TIMEOUT);
+			// prepared statements are re-used, so always reset the limit.
+			pst.setMaxRows(limit > NO_LIMIT ? limit : NO_LIMIT);
 		}
 		
 		/**
-		 * Initialize connection and PreparedStatement lazily.
+		 * Borrow a connection from the pool and initialize the PreparedStatement lazily.
 		 * <p>
 		 * @throws SQLException when a PreparedStatement could not be created
 		 */
@@ -129,11 +158,8 @@ public abstract class SimpleGdb extends IDMapperRdb
 			if (inited) throw new IllegalStateException("Must call cleanup() between two init() calls");
 			try
 			{
-				if (con == null) con = getConnection();
-				if (pst == null)
-				{
-					pst = con.prepareStatement(sql);
-				}
+				con = borrowConnection();
+				pst = con.prepare(sql);
 			}
 			finally { inited = true; }
 		}
@@ -151,10 +177,15 @@ public abstract class SimpleGdb extends IDMapperRdb
 			return rs;
 		}
 
+		/** @return true between init() and cleanup() */
+		public boolean isInited()
+		{
+			return inited;
+		}
+
 		/** 
-		 * Clean up resultset. If keepConnection is false, preparedstatement
-		 * and connection are cached. If keepConnection is true, they are closed as well.
-		 * The later is useful when using connection pooling.
+		 * Clean up resultset and return the connection to the pool. 
+		 * The preparedstatement stays cached with the connection.
 		 * <p>
 		 * Always call this in a finally block! 
 		 * */
@@ -163,38 +194,198 @@ public abstract class SimpleGdb extends IDMapperRdb
 			if (!inited) throw new IllegalStateException("Must call init() before cleanup()");
 			inited = false;
 			if (rs != null) try { rs.close(); } catch (SQLException ignore) {}
-			if (neverCloseConnection) return;
-			if (pst != null) try { pst.close(); } catch (SQLException ignore) {}
+			rs = null;
 			pst = null;
-			if (con != null) try { con.close(); } catch (SQLException ignore) {}
+			if (con != null) releaseConnection(con);
 			con = null;
 		}
 	}
 
+	/**
+	 * A read-only connection in the pool, together with
+	 * the prepared statements that were created for it.
+	 * Only used by one thread at a time, between borrowConnection() and releaseConnection(). 
+	 */
+	private static final class PooledConnection
+	{
+		private final Connection con;
+		private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+		
+		PooledConnection(Connection con)
+		{
+			this.con = con;
+		}
+		
+		/**
+		 * @param sql SQL query
+		 * @return cached PreparedStatement for the query, created if necessary.
+		 * @throws SQLException when the PreparedStatement could not be created
+		 */
+		PreparedStatement prepare(String sql) throws SQLException
+		{
+			PreparedStatement pst = statements.get(sql);
+			if (pst == null)
+			{
+				pst = con.prepareStatement(sql);
+				statements.put(sql, pst);
+			}
+			return pst;
+		}
+		
+		/**
+		 * Close the cached statements and the connection. 
+		 * This also closes the shared connection if this wraps it.
+		 */
+		void close()
+		{
+			for (PreparedStatement pst : statements.values())
+			{
+				try { pst.close(); } catch (SQLException ignore) {}
+			}
+			statements.clear();
+			try { con.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	private final int poolSize;
+	private int pooledCount = 0;
+	private final BlockingQueue<PooledConnection> idleConnections = 
+		new LinkedBlockingQueue<PooledConnection>();
+	
+	/**
+	 * Take an idle connection from the pool. Connections are opened lazily
+	 * until the pool size is reached, after that this waits 
+	 * until another thread releases a connection.
+	 * @return a connection that is reserved for the calling thread
+	 * @throws SQLException when a new connection could not be opened
+	 */
+	private PooledConnection borrowConnection() throws SQLException
+	{
+		if (closed) throw new SQLException("Database connection is closed");
+		PooledConnection result = idleConnections.poll();
+		if (result != null) return result;
+		
+		synchronized (idleConnections)
+		{
+			if (pooledCount < poolSize)
+			{
+				// the first pooled connection is the shared one, so that the 
+				// default pool size doesn't open any extra connections.
+				result = new PooledConnection(pooledCount == 0 ? poolSharedConnection() : openConnection());
+				pooledCount++;
+				return result;
+			}
+		}
+		
+		try
+		{
+			return idleConnections.take();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection", ex);
+		}
+	}
+	
+	/**
+	 * Return a connection borrowed with borrowConnection() to the pool.
+	 * @param pc connection to return
+	 */
+	private void releaseConnection(PooledConnection pc)
+	{
+		idleConnections.offer(pc);
+		// close() may have been called while this connection was in use
+		if (closed) closeIdleConnections();
+	}
+	
+	/** Close the connections that are in the pool right now. */
+	private void closeIdleConnections()
+	{
+		PooledConnection pc;
+		while ((pc = idleConnections.poll()) != null)
+		{
+			pc.close();
+		}
+	}
+	
+	/** @return maximum number of connections that are used for queries at the same time. */
+	public int getPoolSize()
+	{
+		return poolSize;
+	}
+	
+	/**
+	 * @return a fresh read-only connection to the database, outside the pool.
+	 * 	The caller is responsible for closing it.
+	 * @throws SQLException when the connection could not be made
+	 */
+	Connection openConnection() throws SQLException
+	{
+		if (closed) throw new SQLException("Database connection is closed");
+		Connection result = DriverManager.getConnection(connectionString); 
+		result.setReadOnly(true);
+		return result;
+	}
+
+	/** cursors with a connection of their own that are still open, closed by close() */
+	private final Set<XrefCursor> openCursors = 
+		Collections.newSetFromMap(new ConcurrentHashMap<XrefCursor, Boolean>());
+	
+	/**
+	 * Called by a new cursor, so that it is closed together with this database.
+	 * @param cursor the new cursor
+	 * @throws SQLException if this database has been closed already
+	 */
+	void cursorOpened(XrefCursor cursor) throws SQLException
+	{
+		openCursors.add (cursor);
+		// checked after adding, so that close() either sees the cursor or the cursor sees close()
+		if (closed) throw new SQLException("Database connection is closed");
+	}
+	
+	/** @param cursor cursor that has released its connection */
+	void cursorClosed(XrefCursor cursor)
+	{
+		openCursors.remove (cursor);
+	}
+	
 	private Connection con = null;
+	/** true once the shared connection is wrapped by the pool, which then takes care of closing it */
+	private boolean sharedPooled = false;
 	
 	synchronized public Connection getConnection() throws SQLException
 	{
+		if (closed) throw new SQLException("Database connection is closed");
 		// if singleConnection is true, each call to getConnection() will return the same object.
 		// if singleConnection is false, each call to getConneciton() will lead to a new connection object being created.
 		if (!singleConnection || con == null)
 		{
-			con = DriverManager.getConnection(connectionString); 
-			con.setReadOnly(true);
+			con = openConnection();
 		}
 		return con;
 	}
 	
+	/**
+	 * @return the shared connection, which is closed by the pool from now on.
+	 * @throws SQLException when the connection could not be made
+	 */
+	synchronized private Connection poolSharedConnection() throws SQLException
+	{
+		Connection result = getConnection();
+		sharedPooled = true;
+		return result;
+	}
+	
 	/**
 	 * The {@link Connection} to the Gene Database.
 	 */
 	
-	//private Connection con = null;
+	private volatile boolean closed = false;
 
 	/** {@inheritDoc} */
 	final public boolean isConnected() { 
-		//return con != null; 
-		return true;
+		return !closed;
 	}
 
 	protected final String dbName;
@@ -202,30 +393,59 @@ public abstract class SimpleGdb extends IDMapperRdb
 	/** {@inheritDoc} */
 	@Override final public String getDbName() { return dbName; }
 	
-	/** {@inheritDoc} */
+	/** 
+	 * {@inheritDoc}
+	 * Closes the pooled connections with their prepared statements, and the shared connection.
+	 * Connections that are in use by another thread are closed when that thread returns them to the pool.
+	 * Cursors of iterators that are still open are closed right away.
+	 */
 	final public void close() throws IDMapperException 
 	{
-//		try
-//		{
-//			con.close();
-//		}
-//		catch (SQLException ex)
-//		{
-//			throw new IDMapperException (ex);
-//		}
-//		con = null;
+		closed = true;
+		closeIdleConnections();
+		for (XrefCursor cursor : openCursors) cursor.close();
+		synchronized (this)
+		{
+			// once pooled, the shared connection is closed with the first pooled connection,
+			// which may still be in use.
+			if (con == null || sharedPooled) return;
+			try
+			{
+				con.close();
+			}
+			catch (SQLException ex)
+			{
+				throw new IDMapperException (ex);
+			}
+			finally
+			{
+				con = null;
+			}
+		}
 	}
 	
 	public static final int NO_LIMIT = 0;
 	public static final int NO_TIMEOUT = 0;
 	public static final int QUERY_TIMEOUT = 5; //seconds
 
+	/**
+	 * @param ds DataSource to count identifiers for, or null for all identifiers.
+	 * @return number of identifiers according to precomputed summary tables, 
+	 * 	or null if the database doesn't have them and the table has to be counted.
+	 */
+	Integer getSummaryGeneCount(DataSource ds)
+	{
+		return null;
+	}
+
 	/**
 	   @return number of rows in gene table.
 	   @throws IDMapperException on failure
 	 */
 	final public int getGeneCount() throws IDMapperException
 	{
+		Integer summary = getSummaryGeneCount(null);
+		if (summary != null) return summary;
 		int result = 0;
 		try
 		{
@@ -248,6 +468,8 @@ public abstract class SimpleGdb extends IDMapperRdb
 	 */
 	final public int getGeneCount(DataSource ds) throws IDMapperException
 	{
+		Integer summary = getSummaryGeneCount(ds);
+		if (summary != null) return summary;
 		int result = 0;
 		try
 		{
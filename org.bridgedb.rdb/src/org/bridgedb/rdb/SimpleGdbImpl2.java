@@ -34,10 +34,9 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 {		
 	private static final int GDB_COMPAT_VERSION = 2; //Preferred schema version
 	
-	private final SimpleGdb.QueryLifeCycle qBackpage = new SimpleGdb.QueryLifeCycle(
+	private static final String SQL_BACKPAGE = 
 			"SELECT backpageText FROM datanode " +
-			" WHERE id = ? AND code = ?"
-		);
+			" WHERE id = ? AND code = ?";
 
 	/** 
 	 * get Backpage info. In Schema v2, this was not stored in 
@@ -49,23 +48,20 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 	 */
 	private String getBpInfo(Xref ref) throws IDMapperException 
 	{
-		final QueryLifeCycle pst = qBackpage;
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-				String result = null;
-				if (r.next())
-				{
-					result = r.getString(1);
-				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException (e); } //Gene not found
-			finally {pst.cleanup(); }
-		}
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_BACKPAGE);
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			ResultSet r = pst.executeQuery();
+			String result = null;
+			if (r.next())
+			{
+				result = r.getString(1);
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException (e); } //Gene not found
+		finally {pst.cleanup(); }
 	}
 
 	/**
@@ -75,11 +71,12 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 	 * @param con An existing SQL Connector.
 	 * @param props PROP_RECREATE if you want to create a new database (possibly overwriting an existing one) 
 	 * 	or PROP_NONE if you want to connect read-only
+	 * @param poolSize maximum number of connections used at the same time
 	 * @throws IDMapperException when the database could not be created or connected to
 	 */
-	public SimpleGdbImpl2(String dbName, String connectionString) throws IDMapperException
+	public SimpleGdbImpl2(String dbName, String connectionString, int poolSize) throws IDMapperException
 	{
-		super (dbName, connectionString);
+		super (dbName, connectionString, poolSize);
 		
 		if(dbName == null) throw new NullPointerException();		
 		checkSchemaVersion();
@@ -124,7 +121,7 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 			throws IDMapperException 
 	{
 		Set<String> result = new HashSet<String>();
-		final QueryLifeCycle pst = qAttribute;
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_ATTRIBUTE);
 		
 		if (ATTRIBUTES_FROM_BACKPAGE.containsKey(attrname))
 		{
@@ -140,22 +137,19 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 			}
 		}
 		
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				pst.setString (3, attrname);
-				ResultSet r = pst.executeQuery();
-				if (r.next())
-				{
-					result.add (r.getString(1));
-				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref + ", Attribute: " + attrname, e); } // Database unavailable
-			finally {pst.cleanup(); }
-		}
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			pst.setString (3, attrname);
+			ResultSet r = pst.executeQuery();
+			if (r.next())
+			{
+				result.add (r.getString(1));
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref + ", Attribute: " + attrname, e); } // Database unavailable
+		finally {pst.cleanup(); }
 	}
 
 	/** {@inheritDoc} */
@@ -163,7 +157,7 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 			throws IDMapperException 
 	{
 		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
-		final QueryLifeCycle pst = qAllAttributes;
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_ALL_ATTRIBUTES);
 				
 		String bpInfo = getBpInfo(ref);
 		if (bpInfo != null)
@@ -181,31 +175,28 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 			}
 		}
 		
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-				if (r.next())
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			ResultSet r = pst.executeQuery();
+			if (r.next())
+			{
+				String key = r.getString(1);
+				String value = r.getString(2);
+				if (result.containsKey (key))
 				{
-					String key = r.getString(1);
-					String value = r.getString(2);
-					if (result.containsKey (key))
-					{
-						result.get(key).add (value);
-					}
-					else
-					{
-						Set<String> valueSet = new HashSet<String>();
-						valueSet.add (value);
-						result.put (key, valueSet);
-					}
+					result.get(key).add (value);
 				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref, e); } // Database unavailable
-			finally {pst.cleanup(); }
-		}
+				else
+				{
+					Set<String> valueSet = new HashSet<String>();
+					valueSet.add (value);
+					result.put (key, valueSet);
+				}
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref, e); } // Database unavailable
+		finally {pst.cleanup(); }
 	}
 }
@@ -39,11 +39,12 @@ class SimpleGdbImpl3 extends SimpleGdbImplCommon
 	 * @param con An existing java SQL connection
 	 * @param props PROP_RECREATE if you want to create a new database (possibly overwriting an existing one) 
 	 * 	or PROP_NONE if you want to connect read-only
+	 * @param poolSize maximum number of connections used at the same time
 	 * @throws IDMapperException when the database could not be created or connected to
 	 */
-	public SimpleGdbImpl3(String dbName, String connectionString) throws IDMapperException
+	public SimpleGdbImpl3(String dbName, String connectionString, int poolSize) throws IDMapperException
 	{
-		super(dbName, connectionString);
+		super(dbName, connectionString, poolSize);
 		checkSchemaVersion();
 	}
 	
@@ -74,23 +75,20 @@ class SimpleGdbImpl3 extends SimpleGdbImplCommon
 			throws IDMapperException 
 	{
 		Set<String> result = new HashSet<String>();
-		final QueryLifeCycle pst = qAttribute;
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				pst.setString (3, attrname);
-				ResultSet r = pst.executeQuery();
-				if (r.next())
-				{
-					result.add (r.getString(1));
-				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException (e); } // Database unavailable
-			finally {pst.cleanup(); }
-		}
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_ATTRIBUTE);
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			pst.setString (3, attrname);
+			ResultSet r = pst.executeQuery();
+			if (r.next())
+			{
+				result.add (r.getString(1));
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException (e); } // Database unavailable
+		finally {pst.cleanup(); }
 	}
 
 	/** {@inheritDoc} */
@@ -98,32 +96,29 @@ class SimpleGdbImpl3 extends SimpleGdbImplCommon
 			throws IDMapperException 
 	{
 		Map<String, Set<String>> result = new HashMap<String, Set<String>>();				
-		final QueryLifeCycle pst = qAllAttributes;
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-				while (r.next())
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_ALL_ATTRIBUTES);
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			ResultSet r = pst.executeQuery();
+			while (r.next())
+			{
+				String key = r.getString(1);
+				String value = r.getString(2);
+				if (result.containsKey (key))
 				{
-					String key = r.getString(1);
-					String value = r.getString(2);
-					if (result.containsKey (key))
-					{
-						result.get(key).add (value);
-					}
-					else
-					{
-						Set<String> valueSet = new HashSet<String>();
-						valueSet.add (value);
-						result.put (key, valueSet);
-					}
+					result.get(key).add (value);
 				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref, e); } // Database unavailable
-			finally {pst.cleanup(); }
-		}
+				else
+				{
+					Set<String> valueSet = new HashSet<String>();
+					valueSet.add (value);
+					result.put (key, valueSet);
+				}
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref, e); } // Database unavailable
+		finally {pst.cleanup(); }
 	}
 }
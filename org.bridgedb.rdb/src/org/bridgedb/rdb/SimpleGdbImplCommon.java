@@ -1,10 +1,12 @@
 package org.bridgedb.rdb;
 
+import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -23,92 +25,108 @@ import org.bridgedb.impl.InternalUtils;
  */
 public abstract class SimpleGdbImplCommon extends SimpleGdb
 {
-	SimpleGdbImplCommon(String dbName, String connectionString) throws IDMapperException
+	SimpleGdbImplCommon(String dbName, String connectionString, int poolSize) throws IDMapperException
 	{
-		super(dbName, connectionString);
+		super(dbName, connectionString, poolSize);
+		summary = readSummary();
 		caps = new SimpleGdbCapabilities();
+		searchAttributes = getSearchAttributes();
 	}
 
-	final SimpleGdb.QueryLifeCycle qDatasources = new SimpleGdb.QueryLifeCycle(
-			"SELECT codeRight FROM link GROUP BY codeRight"
-		);
-	final SimpleGdb.QueryLifeCycle qInfo = new SimpleGdb.QueryLifeCycle(
-			"SELECT * FROM info"
-		);
-	final SimpleGdb.QueryLifeCycle qXrefExists = new SimpleGdb.QueryLifeCycle(
+	static final String SQL_DATASOURCES = 
+			"SELECT codeRight FROM link GROUP BY codeRight";
+	static final String SQL_INFO = 
+			"SELECT * FROM info";
+	static final String SQL_XREF_EXISTS = 
 			"SELECT id FROM " + "datanode" + " WHERE " +
-			"id = ? AND code = ?"
-		);
-	final SimpleGdb.QueryLifeCycle qAttribute = new SimpleGdb.QueryLifeCycle(
+			"id = ? AND code = ?";
+	static final String SQL_ATTRIBUTE = 
 			"SELECT attrvalue FROM attribute " +
-			" WHERE id = ? AND code = ? AND attrname = ?"
-		);
-	final SimpleGdb.QueryLifeCycle qAllAttributes = new SimpleGdb.QueryLifeCycle(
+			" WHERE id = ? AND code = ? AND attrname = ?";
+	static final String SQL_ALL_ATTRIBUTES = 
 			"SELECT attrname, attrvalue FROM attribute " +
-			" WHERE id = ? AND code = ?"
-		);
-	final SimpleGdb.QueryLifeCycle qAttributesSet = new SimpleGdb.QueryLifeCycle(
-			"SELECT attrname FROM attribute GROUP BY attrname"
-		);
-	final SimpleGdb.QueryLifeCycle qCrossRefs = new SimpleGdb.QueryLifeCycle (
+			" WHERE id = ? AND code = ?";
+	static final String SQL_ATTRIBUTES_SET = 
+			"SELECT attrname FROM attribute GROUP BY attrname";
+	static final String SQL_CROSS_REFS = 
 			"SELECT dest.idRight, dest.codeRight FROM link AS src JOIN link AS dest " +
 			"ON src.idLeft = dest.idLeft and src.codeLeft = dest.codeLeft " +
-			"WHERE src.idRight = ? AND src.codeRight = ?"
-		);
-	final SimpleGdb.QueryLifeCycle qCrossRefsWithCode = new SimpleGdb.QueryLifeCycle (
+			"WHERE src.idRight = ? AND src.codeRight = ?";
+	static final String SQL_CROSS_REFS_WITH_CODE = 
 			"SELECT dest.idRight, dest.codeRight FROM link AS src JOIN link AS dest " +
 			"ON src.idLeft = dest.idLeft and src.codeLeft = dest.codeLeft " +
-			"WHERE src.idRight = ? AND src.codeRight = ? AND dest.codeRight = ?"
-		);
-	final SimpleGdb.QueryLifeCycle qRefsByAttribute = new SimpleGdb.QueryLifeCycle (
+			"WHERE src.idRight = ? AND src.codeRight = ? AND dest.codeRight = ?";
+	/** 
+	 * Number of source identifiers that are mapped in a single batch query.
+	 * The last batch is padded by repeating an identifier, so that all batches
+	 * can use the same prepared statement.
+	 */
+	static final int BATCH_SIZE = 200;
+	static final String SQL_CROSS_REFS_BATCH = 
+			"SELECT src.idRight, dest.idRight, dest.codeRight FROM link AS src JOIN link AS dest " +
+			"ON src.idLeft = dest.idLeft and src.codeLeft = dest.codeLeft " +
+			"WHERE src.codeRight = ? AND src.idRight IN (" + placeholders(BATCH_SIZE) + ")";
+	static final String SQL_CROSS_REFS_BATCH_WITH_CODE = 
+			SQL_CROSS_REFS_BATCH + " AND dest.codeRight = ?";
+	static final String SQL_REFS_BY_ATTRIBUTE = 
 			"SELECT datanode.id, datanode.code FROM datanode " +
 			" LEFT JOIN attribute ON attribute.code = datanode.code AND attribute.id = datanode.id " +
-			"WHERE attrName = ? AND attrValue = ?"
-		);
-	final SimpleGdb.QueryLifeCycle qFreeSearch = new SimpleGdb.QueryLifeCycle (
+			"WHERE attrName = ? AND attrValue = ?";
+	static final String SQL_FREE_SEARCH = 
 			"SELECT id, code FROM datanode WHERE " +
-			"LOWER(ID) LIKE ?"
-		);
-	final SimpleGdb.QueryLifeCycle qAttributeSearch = new SimpleGdb.QueryLifeCycle (
+			"LOWER(ID) LIKE ?";
+	static final String SQL_ATTRIBUTE_SEARCH = 
 			"SELECT id, code, attrvalue FROM attribute WHERE " +
-			"attrname = ? AND LOWER(attrvalue) LIKE ?"
-		);
-	final SimpleGdb.QueryLifeCycle qIdSearchWithAttributes = new SimpleGdb.QueryLifeCycle (
+			"attrname = ? AND LOWER(attrvalue) LIKE ?";
+	static final String SQL_ID_SEARCH_WITH_ATTRIBUTES = 
 			"SELECT id, code, attrvalue FROM attribute WHERE " +
-			"attrname = ? AND LOWER(ID) LIKE ?"
-		);
-	final SimpleGdb.QueryLifeCycle qAllXrefs = new SimpleGdb.QueryLifeCycle(
-			"SELECT id, code FROM datanode"
-		);
-	final SimpleGdb.QueryLifeCycle qAllXrefsByDatasource = new SimpleGdb.QueryLifeCycle(
-			"SELECT id, code FROM datanode WHERE code = ?"
-		);
+			"attrname = ? AND LOWER(ID) LIKE ?";
+	static final String SQL_SUMMARY_DATASOURCES = 
+			"SELECT code, datanodes, links FROM summaryds";
+	static final String SQL_SUMMARY_PAIRS = 
+			"SELECT codeLeft, codeRight FROM summarypair";
+	static final String SQL_SUMMARY_ATTRIBUTES = 
+			"SELECT attrname FROM summaryattr";
+	static final String SQL_SEARCH_ATTRIBUTES = 
+			"SELECT attrname FROM searchattr";
+	static final String SQL_SEARCH_GRAM_COUNT = 
+			"SELECT cnt FROM searchgram WHERE gram = ? AND attrname = ?";
+	static final String SQL_INDEXED_SEARCH = 
+			"SELECT id, code, attrvalue FROM searchindex WHERE " +
+			"gram = ? AND attrname = ? AND LOWER(attrvalue) LIKE ?";
+	/** 
+	 * Length of the substrings in the search index. 
+	 * GdbConstructImpl3.createSearchIndex writes the index with this length.
+	 */
+	public static final int GRAM_LENGTH = 3;
+	static final String SQL_ALL_XREFS = 
+			"SELECT id, code FROM datanode";
+	static final String SQL_ALL_XREFS_BY_DATASOURCE = 
+			"SELECT id, code FROM datanode WHERE code = ?";
 
 	/** {@inheritDoc} */
 	public boolean xrefExists(Xref xref) throws IDMapperException 
 	{
 		if (xref.getDataSource() == null) return false;
-		final QueryLifeCycle pst = qXrefExists;
-		synchronized (pst) {
-			try 
-			{
-				pst.init();
-				pst.setString(1, xref.getId());
-				pst.setString(2, xref.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-	
-				while(r.next()) 
-				{
-					return true;
-				}
-			} 
-			catch (SQLException e) 
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_XREF_EXISTS);
+		try 
+		{
+			pst.init();
+			pst.setString(1, xref.getId());
+			pst.setString(2, xref.getDataSource().getSystemCode());
+			ResultSet r = pst.executeQuery();
+
+			while(r.next()) 
 			{
-				throw new IDMapperException (e);
+				return true;
 			}
-			finally {pst.cleanup(); }
-			return false;
+		} 
+		catch (SQLException e) 
+		{
+			throw new IDMapperException (e);
 		}
+		finally {pst.cleanup(); }
+		return false;
 	}
 
 	/**
@@ -119,69 +137,155 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 	Map<String, String> getInfo() throws IDMapperException
 	{
 		Map<String, String> result = new HashMap<String, String>();
-		final QueryLifeCycle pst = qInfo;
-		synchronized (pst) {
-			try
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_INFO);
+		try
+		{
+			pst.init();
+			ResultSet rs = pst.executeQuery();
+			
+			if (rs.next())
 			{
-				pst.init();
-				ResultSet rs = pst.executeQuery();
-				
-				if (rs.next())
+				ResultSetMetaData rsmd = rs.getMetaData();
+				for (int i = 1; i <= rsmd.getColumnCount(); ++i)
 				{
-					ResultSetMetaData rsmd = rs.getMetaData();
-					for (int i = 1; i <= rsmd.getColumnCount(); ++i)
-					{
-						String key = rsmd.getColumnName(i);
-						String val = rs.getString(i);
-						result.put (key, val);
-					}
+					String key = rsmd.getColumnName(i);
+					String val = rs.getString(i);
+					result.put (key, val);
 				}
 			}
-			catch (SQLException ex)
-			{
-				throw new IDMapperException (ex);
-			}
-			
-			return result;
 		}
+		catch (SQLException ex)
+		{
+			throw new IDMapperException (ex);
+		}
+		finally {pst.cleanup(); }
+		
+		return result;
 	}
 
 
 	/** {@inheritDoc} */
 	public Set<Xref> mapID (Xref idc, DataSource... resultDs) throws IDMapperException
 	{
-		final QueryLifeCycle pst = resultDs.length != 1 ? qCrossRefs : qCrossRefsWithCode;
+		final QueryLifeCycle pst = new QueryLifeCycle(
+				resultDs.length != 1 ? SQL_CROSS_REFS : SQL_CROSS_REFS_WITH_CODE);
 		Set<Xref> refs = new HashSet<Xref>();
 		
 		if (idc.getDataSource() == null) return refs;
-		synchronized (pst) {
-			try
+		try
+		{
+			pst.init();
+			pst.setString(1, idc.getId());
+			pst.setString(2, idc.getDataSource().getSystemCode());
+			if (resultDs.length == 1) pst.setString(3, resultDs[0].getSystemCode());			
+			
+			Set<DataSource> dsFilter = new HashSet<DataSource>(Arrays.asList(resultDs));
+
+			ResultSet rs = pst.executeQuery();
+			while (rs.next())
 			{
-				pst.init();
-				pst.setString(1, idc.getId());
-				pst.setString(2, idc.getDataSource().getSystemCode());
-				if (resultDs.length == 1) pst.setString(3, resultDs[0].getSystemCode());			
-				
-				Set<DataSource> dsFilter = new HashSet<DataSource>(Arrays.asList(resultDs));
-	
-				ResultSet rs = pst.executeQuery();
-				while (rs.next())
+				DataSource ds = DataSource.getBySystemCode(rs.getString(2));
+				if (resultDs.length == 0 || dsFilter.contains(ds))
 				{
-					DataSource ds = DataSource.getBySystemCode(rs.getString(2));
-					if (resultDs.length == 0 || dsFilter.contains(ds))
-					{
-						refs.add (new Xref (rs.getString(1), ds));
-					}
+					refs.add (new Xref (rs.getString(1), ds));
 				}
 			}
-			catch (SQLException e)
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+		finally {pst.cleanup(); }
+	
+		return refs;
+	}
+
+	/**
+	 * Maps a collection of Xrefs with one query per batch of {@link #BATCH_SIZE} 
+	 * identifiers of the same DataSource, instead of one query per Xref.
+	 * The result is the same as calling mapID(Xref, DataSource...) for each Xref.
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException 
+	{
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		Set<DataSource> dsFilter = new HashSet<DataSource>(Arrays.asList(tgtDataSources));
+		
+		for (Map.Entry<DataSource, Set<Xref>> group : InternalUtils.groupByDataSource(srcXrefs).entrySet())
+		{
+			if (group.getKey() == null) continue;
+			
+			Map<String, Xref> byId = new HashMap<String, Xref>();
+			for (Xref ref : group.getValue()) byId.put (ref.getId(), ref);
+			
+			List<String> ids = new ArrayList<String>(byId.keySet());
+			for (int start = 0; start < ids.size(); start += BATCH_SIZE)
 			{
-				throw new IDMapperException (e);
+				List<String> batch = ids.subList(start, Math.min(start + BATCH_SIZE, ids.size()));
+				mapBatch(group.getKey(), batch, byId, tgtDataSources, dsFilter, result);
 			}
-			finally {pst.cleanup(); }
-		
-			return refs;
 		}
+		return result;
+	}
+	
+	/**
+	 * Run a single batch query, and add the results to the result map.
+	 * @param srcDs DataSource of all ids in the batch
+	 * @param batch at most BATCH_SIZE identifiers
+	 * @param byId maps the identifiers back to the Xrefs that were passed in
+	 * @param tgtDataSources target DataSources, as passed to mapID
+	 * @param dsFilter set of target DataSources.
+	 * @param result map to add results to. 
+	 * @throws IDMapperException when the database is unavailable
+	 */
+	private void mapBatch(DataSource srcDs, List<String> batch, Map<String, Xref> byId, 
+			DataSource[] tgtDataSources, Set<DataSource> dsFilter, Map<Xref, Set<Xref>> result) 
+			throws IDMapperException
+	{
+		final QueryLifeCycle pst = new QueryLifeCycle(
+				tgtDataSources.length != 1 ? SQL_CROSS_REFS_BATCH : SQL_CROSS_REFS_BATCH_WITH_CODE);
+		try
+		{
+			pst.init();
+			pst.setString(1, srcDs.getSystemCode());
+			for (int i = 0; i < BATCH_SIZE; ++i)
+			{
+				// pad the last batch with copies of the last id.
+				pst.setString(i + 2, batch.get(Math.min(i, batch.size() - 1)));
+			}
+			if (tgtDataSources.length == 1) pst.setString(BATCH_SIZE + 2, tgtDataSources[0].getSystemCode());
+			
+			ResultSet rs = pst.executeQuery();
+			while (rs.next())
+			{
+				DataSource ds = InternalUtils.findOrRegisterDataSource(rs.getString(3), null);
+				if (tgtDataSources.length == 0 || dsFilter.contains(ds))
+				{
+					InternalUtils.multiMapPut(result, byId.get(rs.getString(1)), new Xref (rs.getString(2), ds));
+				}
+			}
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+		finally {pst.cleanup(); }
+	}
+	
+	/**
+	 * @param count number of placeholders
+	 * @return comma separated list of count question marks, for use in an IN clause.
+	 */
+	private static String placeholders(int count)
+	{
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < count; ++i)
+		{
+			if (i > 0) result.append (", ");
+			result.append ("?");
+		}
+		return result.toString();
 	}
 
 	/** {@inheritDoc} */
@@ -189,50 +293,193 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 //		Logger.log.trace("Fetching cross references by attribute: " + attrName + " = " + attrValue);
 		List<Xref> refs = new ArrayList<Xref>();
 
-		final QueryLifeCycle pst = qRefsByAttribute;
-		synchronized (pst) { 
-			try {
-				pst.init();
-				pst.setString(1, attrName);
-				pst.setString(2, attrValue);
-				ResultSet r = pst.executeQuery();
-				while(r.next()) {
-					Xref ref = new Xref(r.getString(1), DataSource.getBySystemCode(r.getString(2)));
-					refs.add(ref);
-				}
-			} catch(SQLException e) {
-				throw new IDMapperException (e);
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_REFS_BY_ATTRIBUTE);
+		try {
+			pst.init();
+			pst.setString(1, attrName);
+			pst.setString(2, attrValue);
+			ResultSet r = pst.executeQuery();
+			while(r.next()) {
+				Xref ref = new Xref(r.getString(1), DataSource.getBySystemCode(r.getString(2)));
+				refs.add(ref);
 			}
-			finally {pst.cleanup(); }
-	//		Logger.log.trace("End fetching cross references by attribute");
-			return refs;
+		} catch(SQLException e) {
+			throw new IDMapperException (e);
 		}
+		finally {pst.cleanup(); }
+//		Logger.log.trace("End fetching cross references by attribute");
+		return refs;
 	}
 
-	/** {@inheritDoc} */
+	/** 
+	 * {@inheritDoc}
+	 * Uses the search index if the database has one.
+	 */
 	public Set<Xref> freeSearch (String text, int limit) throws IDMapperException 
 	{		
+		if (isIndexed(text, MATCH_ID)) return indexedSearch(text, MATCH_ID, limit).keySet();
+		
 		Set<Xref> result = new HashSet<Xref>();
-		final QueryLifeCycle pst = qFreeSearch;
-		synchronized (pst) { 
-			try {
-				pst.init(limit);
-				pst.setString(1, "%" + text.toLowerCase() + "%");
-				ResultSet r = pst.executeQuery();
-				while(r.next()) {
-					String id = r.getString(1);
-					DataSource ds = DataSource.getBySystemCode(r.getString(2));
-					Xref ref = new Xref (id, ds);
-					result.add (ref);
-				}			
-			} 
-			catch (SQLException e) 
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_FREE_SEARCH);
+		try {
+			pst.init(limit);
+			pst.setString(1, "%" + text.toLowerCase() + "%");
+			ResultSet r = pst.executeQuery();
+			while(r.next()) {
+				String id = r.getString(1);
+				DataSource ds = DataSource.getBySystemCode(r.getString(2));
+				Xref ref = new Xref (id, ds);
+				result.add (ref);
+			}			
+		} 
+		catch (SQLException e) 
+		{
+			throw new IDMapperException(e);
+		}
+		finally {pst.cleanup(); }
+		return result;
+	}
+
+	/** 
+	 * Attributes that are in the search index, with {@link #MATCH_ID} for identifiers.
+	 * Empty if the database has no search index.
+	 */
+	private final Set<String> searchAttributes;
+	
+	/**
+	 * @param name name of a table
+	 * @return true if the database has a table with this name. Unquoted names are stored 
+	 * 	in upper or lower case depending on the database, so those are tried as well.
+	 * @throws SQLException if the database metadata could not be read
+	 */
+	boolean hasTable(String name) throws SQLException
+	{
+		DatabaseMetaData meta = getConnection().getMetaData();
+		for (String candidate : new String[] { name, name.toUpperCase(), name.toLowerCase() })
+		{
+			ResultSet rs = meta.getTables(null, null, candidate, null);
+			try
 			{
-				throw new IDMapperException(e);
+				if (rs.next()) return true;
+			}
+			finally
+			{
+				rs.close();
 			}
-			finally {pst.cleanup(); }
-			return result;
 		}
+		return false;
+	}
+	
+	/**
+	 * @return attribute names that are in the search index, 
+	 * 	or an empty set if the database was created without search index.
+	 * @throws IDMapperException if the search index could not be read
+	 */
+	private Set<String> getSearchAttributes() throws IDMapperException
+	{
+		Set<String> result = new HashSet<String>();
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_SEARCH_ATTRIBUTES);
+		try
+		{
+			// without search index, searches fall back to a full scan
+			if (!hasTable("searchattr")) return result;
+			pst.init();
+			ResultSet rs = pst.executeQuery();
+			while (rs.next()) result.add (rs.getString(1));
+		}
+		catch (SQLException ex)
+		{
+			throw new IDMapperException (ex);
+		}
+		finally
+		{
+			if (pst.isInited()) pst.cleanup();
+		}
+		return result;
+	}
+	
+	/**
+	 * @param attrName attribute name, or MATCH_ID for identifiers
+	 * @return true if the database has a search index for the attribute
+	 */
+	boolean hasSearchIndex(String attrName)
+	{
+		return searchAttributes.contains(attrName);
+	}
+	
+	/**
+	 * @param query search text
+	 * @param attrName attribute to search, or MATCH_ID for identifiers
+	 * @return true if the query can be answered with the search index
+	 */
+	private boolean isIndexed(String query, String attrName)
+	{
+		return hasSearchIndex(attrName) && query.length() >= GRAM_LENGTH &&
+			query.indexOf('%') < 0 && query.indexOf('_') < 0;
+	}
+	
+	/**
+	 * Search using the search index. Looks up how many values contain each substring of the query,
+	 * and then only checks the values that contain the rarest substring.
+	 * @param query search text, see {@link #isIndexed(String, String)}
+	 * @param attrName attribute to search, or MATCH_ID for identifiers
+	 * @param limit maximum number of results, or 0 for no limit
+	 * @return matching Xrefs, with the values that matched.
+	 * @throws IDMapperException when the database is unavailable
+	 */
+	private Map<Xref, Set<String>> indexedSearch(String query, String attrName, int limit) throws IDMapperException
+	{
+		Map<Xref, Set<String>> result = new HashMap<Xref, Set<String>>();
+		String lower = query.toLowerCase();
+		
+		String rarest = null;
+		int rarestCount = Integer.MAX_VALUE;
+		final QueryLifeCycle pstCount = new QueryLifeCycle(SQL_SEARCH_GRAM_COUNT);
+		for (int i = 0; i + GRAM_LENGTH <= lower.length(); ++i)
+		{
+			String gram = lower.substring(i, i + GRAM_LENGTH);
+			try
+			{
+				pstCount.init();
+				pstCount.setString(1, gram);
+				pstCount.setString(2, attrName);
+				ResultSet rs = pstCount.executeQuery();
+				// a substring that doesn't occur anywhere means there are no matches
+				if (!rs.next()) return result;
+				int count = rs.getInt(1);
+				if (count < rarestCount)
+				{
+					rarest = gram;
+					rarestCount = count;
+				}
+			}
+			catch (SQLException e)
+			{
+				throw new IDMapperException (e);
+			}
+			finally {pstCount.cleanup(); }
+		}
+		
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_INDEXED_SEARCH);
+		try
+		{
+			pst.init(limit);
+			pst.setString(1, rarest);
+			pst.setString(2, attrName);
+			pst.setString(3, "%" + lower + "%");
+			ResultSet rs = pst.executeQuery();
+			while (rs.next())
+			{
+				Xref ref = new Xref (rs.getString(1), InternalUtils.findOrRegisterDataSource(rs.getString(2), null));
+				InternalUtils.multiMapPut(result, ref, rs.getString(3));
+			}
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+		finally {pst.cleanup(); }
+		return result;
 	}
 
 	/**
@@ -241,26 +488,128 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 	 */
 	private Set<DataSource> getDataSources() throws IDMapperException
 	{
+		if (summary != null) return summary.dataSources;
+		
 		Set<DataSource> result = new HashSet<DataSource>();
-		final QueryLifeCycle pst = qDatasources;
-		synchronized (pst) { 
-			try
-	    	{
-	    	 	pst.init();
-	    	 	ResultSet rs = pst.executeQuery();
-	    	 	while (rs.next())
-	    	 	{
-	    	 		DataSource ds = DataSource.getBySystemCode(rs.getString(1)); 
-	    	 		result.add (ds);
-	    	 	}
-	    	}
-	    	catch (SQLException ignore)
-	    	{
-	    		throw new IDMapperException(ignore);
-	    	}
-			finally {pst.cleanup(); }
-	    	return result;
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_DATASOURCES);
+		try
+    	{
+    	 	pst.init();
+    	 	ResultSet rs = pst.executeQuery();
+    	 	while (rs.next())
+    	 	{
+    	 		DataSource ds = DataSource.getBySystemCode(rs.getString(1)); 
+    	 		result.add (ds);
+    	 	}
+    	}
+    	catch (SQLException ignore)
+    	{
+    		throw new IDMapperException(ignore);
+    	}
+		finally {pst.cleanup(); }
+    	return result;
+	}
+
+	/**
+	 * Contents of the summary tables that are written by GdbConstructImpl3.finalize().
+	 */
+	private static final class Summary
+	{
+		/** number of datanodes by system code */
+		private final Map<String, Integer> datanodes = new HashMap<String, Integer>();
+		/** DataSources that occur on the right side of a link */
+		private final Set<DataSource> dataSources = new HashSet<DataSource>();
+		/** for each DataSource, the DataSources that it can be mapped to */
+		private final Map<DataSource, Set<DataSource>> mappable = new HashMap<DataSource, Set<DataSource>>();
+		private final Set<String> attributes = new HashSet<String>();
+	}
+	
+	/** null if the database has no summary tables */
+	private final Summary summary;
+	
+	/** @return true if the database has summary tables */
+	boolean hasSummary()
+	{
+		return summary != null;
+	}
+	
+	/**
+	 * Read the summary tables, which are small.
+	 * @return the summary, or null if the database was created without summary tables.
+	 * @throws IDMapperException if the summary tables could not be read
+	 */
+	private Summary readSummary() throws IDMapperException
+	{
+		Summary result = new Summary();
+		Map<String, Set<DataSource>> byLeft = new HashMap<String, Set<DataSource>>();
+		final QueryLifeCycle pstDs = new QueryLifeCycle(SQL_SUMMARY_DATASOURCES);
+		final QueryLifeCycle pstPairs = new QueryLifeCycle(SQL_SUMMARY_PAIRS);
+		final QueryLifeCycle pstAttr = new QueryLifeCycle(SQL_SUMMARY_ATTRIBUTES);
+		try
+		{
+			// older database without summary tables, fall back to scans
+			if (!hasTable("summaryds")) return null;
+			pstDs.init();
+			ResultSet rs = pstDs.executeQuery();
+			while (rs.next())
+			{
+				result.datanodes.put (rs.getString(1), rs.getInt(2));
+				if (rs.getInt(3) > 0) result.dataSources.add (InternalUtils.findOrRegisterDataSource(rs.getString(1), null));
+			}
+			pstDs.cleanup();
+			
+			pstPairs.init();
+			rs = pstPairs.executeQuery();
+			while (rs.next())
+			{
+				InternalUtils.multiMapPut(byLeft, rs.getString(1), InternalUtils.findOrRegisterDataSource(rs.getString(2), null));
+			}
+			pstPairs.cleanup();
+			
+			pstAttr.init();
+			rs = pstAttr.executeQuery();
+			while (rs.next()) result.attributes.add (rs.getString(1));
+			pstAttr.cleanup();
+		}
+		catch (SQLException ex)
+		{
+			throw new IDMapperException (ex);
+		}
+		finally
+		{
+			for (QueryLifeCycle pst : new QueryLifeCycle[] { pstDs, pstPairs, pstAttr })
+			{
+				if (pst.isInited()) pst.cleanup();
+			}
+		}
+		
+		// two DataSources can be mapped if they are linked from the same left DataSource
+		for (Set<DataSource> rights : byLeft.values())
+		{
+			for (DataSource src : rights)
+			{
+				for (DataSource tgt : rights) InternalUtils.multiMapPut(result.mappable, src, tgt);
+			}
 		}
+		return result;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * Uses the summary tables if the database has them.
+	 */
+	@Override
+	Integer getSummaryGeneCount(DataSource ds)
+	{
+		if (summary == null) return null;
+		if (ds != null)
+		{
+			Integer result = summary.datanodes.get(ds.getSystemCode());
+			return result == null ? 0 : result;
+		}
+		int result = 0;
+		for (int count : summary.datanodes.values()) result += count;
+		return result;
 	}
 
 	private final IDMapperCapabilities caps;
@@ -274,6 +623,19 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 			super (SimpleGdbImplCommon.this.getDataSources(), true, 
 					SimpleGdbImplCommon.this.getInfo());
 		}
+		
+		/** 
+		 * {@inheritDoc}
+		 * With summary tables, only DataSources that are linked from the same left DataSource
+		 * can be mapped to each other.
+		 */
+		@Override
+		public boolean isMappingSupported(DataSource src, DataSource tgt) throws IDMapperException 
+		{
+			if (summary == null) return super.isMappingSupported(src, tgt);
+			Set<DataSource> tgts = summary.mappable.get(src);
+			return tgts != null && tgts.contains(tgt);
+		}
 	}
 
 	/**
@@ -295,6 +657,7 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 
 	/**
 	 * free text search for matching symbols.
+	 * Uses the search index if the database has one for this attribute.
 	 * @return references that match the query
 	 * @param query The text to search for
 	 * @param attrType the attribute to look for, e.g. 'Symbol' or 'Description'.
@@ -304,126 +667,159 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 	public Map<Xref, String> freeAttributeSearch (String query, String attrType, int limit) throws IDMapperException
 	{
 		Map<Xref, String> result = new HashMap<Xref, String>();
-		final QueryLifeCycle pst = (MATCH_ID.equals (attrType)) ? 
-				qIdSearchWithAttributes : qAttributeSearch;
-		synchronized (pst) { 
-			try {
-				pst.init(limit);
-				pst.setString(1, attrType);
-				pst.setString(2, "%" + query.toLowerCase() + "%");
-				ResultSet r = pst.executeQuery();
-	
-				while(r.next()) 
-				{
-					String id = r.getString("id");
-					String code = r.getString("code");
-					String symbol = r.getString("attrValue");
-					result.put(new Xref (id, DataSource.getBySystemCode(code)), symbol);
-				}
-			} catch (SQLException e) {
-				throw new IDMapperException (e);
+		if (!MATCH_ID.equals(attrType) && isIndexed(query, attrType))
+		{
+			for (Map.Entry<Xref, Set<String>> e : indexedSearch(query, attrType, limit).entrySet())
+			{
+				result.put (e.getKey(), e.getValue().iterator().next());
 			}
-			finally {pst.cleanup(); }
 			return result;
 		}
+		final QueryLifeCycle pst = new QueryLifeCycle((MATCH_ID.equals (attrType)) ? 
+				SQL_ID_SEARCH_WITH_ATTRIBUTES : SQL_ATTRIBUTE_SEARCH);
+		try {
+			pst.init(limit);
+			pst.setString(1, attrType);
+			pst.setString(2, "%" + query.toLowerCase() + "%");
+			ResultSet r = pst.executeQuery();
+
+			while(r.next()) 
+			{
+				String id = r.getString("id");
+				String code = r.getString("code");
+				String symbol = r.getString("attrValue");
+				result.put(new Xref (id, DataSource.getBySystemCode(code)), symbol);
+			}
+		} catch (SQLException e) {
+			throw new IDMapperException (e);
+		}
+		finally {pst.cleanup(); }
+		return result;
 	}
 	
 	public Map<Xref, Set<String>> freeAttributeSearchEx (String query, String attrType, int limit) throws IDMapperException
 	{
+		if (!MATCH_ID.equals(attrType) && isIndexed(query, attrType)) return indexedSearch(query, attrType, limit);
 		Map<Xref, Set<String>> result = new HashMap<Xref, Set<String>>();
-		final QueryLifeCycle pst = (MATCH_ID.equals (attrType)) ? 
-				qIdSearchWithAttributes : qAttributeSearch;
-		synchronized (pst) { 
-			try {
-				pst.init(limit);
-				pst.setString(1, attrType);
-				pst.setString(2, "%" + query.toLowerCase() + "%");
-				ResultSet r = pst.executeQuery();
-	
-				while(r.next()) 
-				{
-					String id = r.getString("id");
-					String code = r.getString("code");
-					String symbol = r.getString("attrValue");
-					Xref ref = new Xref (id, DataSource.getBySystemCode(code));
-					InternalUtils.multiMapPut(result, ref, symbol);
-				}
-			} catch (SQLException e) {
-				throw new IDMapperException (e);
+		final QueryLifeCycle pst = new QueryLifeCycle((MATCH_ID.equals (attrType)) ? 
+				SQL_ID_SEARCH_WITH_ATTRIBUTES : SQL_ATTRIBUTE_SEARCH);
+		try {
+			pst.init(limit);
+			pst.setString(1, attrType);
+			pst.setString(2, "%" + query.toLowerCase() + "%");
+			ResultSet r = pst.executeQuery();
+
+			while(r.next()) 
+			{
+				String id = r.getString("id");
+				String code = r.getString("code");
+				String symbol = r.getString("attrValue");
+				Xref ref = new Xref (id, DataSource.getBySystemCode(code));
+				InternalUtils.multiMapPut(result, ref, symbol);
 			}
-			finally { pst.cleanup(); }
-			return result;
+		} catch (SQLException e) {
+			throw new IDMapperException (e);
 		}
+		finally { pst.cleanup(); }
+		return result;
 	}
 
 	/** {@inheritDoc} */
 	public Set<String> getAttributeSet() throws IDMapperException 
 	{
+		if (summary != null) return new HashSet<String>(summary.attributes);
+		
 		Set<String> result = new HashSet<String>();
-		final QueryLifeCycle pst = qAttributesSet;
-		synchronized (pst) { 
-	    	try
-	    	{
-	    	 	pst.init();
-	    	 	ResultSet rs = pst.executeQuery();
-	    	 	while (rs.next())
-	    	 	{
-	    	 		result.add (rs.getString(1));
-	    	 	}
-	    	}
-	    	catch (SQLException ignore)
-	    	{
-	    		throw new IDMapperException(ignore);
-	    	}
-			finally {pst.cleanup(); }
-	    	return result;
-		}
+		final QueryLifeCycle pst = new QueryLifeCycle(SQL_ATTRIBUTES_SET);
+    	try
+    	{
+    	 	pst.init();
+    	 	ResultSet rs = pst.executeQuery();
+    	 	while (rs.next())
+    	 	{
+    	 		result.add (rs.getString(1));
+    	 	}
+    	}
+    	catch (SQLException ignore)
+    	{
+    		throw new IDMapperException(ignore);
+    	}
+		finally {pst.cleanup(); }
+    	return result;
 	}
 
+	/** Number of rows that the iterators fetch from the database at a time, unless set otherwise. */
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	
+	private volatile int fetchSize = DEFAULT_FETCH_SIZE;
+	
+	/**
+	 * @param value number of rows that the iterators returned by getIterator() 
+	 * 	fetch from the database at a time. Only applies to iterators created afterwards.
+	 */
+	public void setFetchSize(int value)
+	{
+		if (value < 1) throw new IllegalArgumentException("Fetch size must be at least 1, was " + value);
+		fetchSize = value;
+	}
+	
+	/** @return number of rows that the iterators fetch from the database at a time. */
+	public int getFetchSize()
+	{
+		return fetchSize;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Rows are read while iterating, so memory use doesn't depend on the size of the database.
+	 * Each call to iterator() opens a {@link XrefCursor} with a connection of its own. 
+	 * It is released when the iteration is finished, when the cursor is closed, 
+	 * or when this database is closed.
+	 */
 	@Override
-	public Iterable<Xref> getIterator() throws IDMapperException {
-		Set<Xref> xrefs = new HashSet<Xref>();
-		final QueryLifeCycle pst = qAllXrefs;
-		synchronized (pst) { 
-	    	try
-	    	{
-	    	 	pst.init();
-	    	 	ResultSet rs = pst.executeQuery();
-	    	 	while (rs.next())
-	    	 	{
-	    	 		xrefs.add(new Xref(rs.getString(1), DataSource.getBySystemCode(rs.getString(2))));
-	    	 	}
-	    	}
-	    	catch (SQLException ignore)
-	    	{
-	    		throw new IDMapperException(ignore);
-	    	}
-			finally {pst.cleanup(); }
-	    	return xrefs;
-		}		
+	public Iterable<Xref> getIterator() throws IDMapperException 
+	{
+		return new CursorIterable(SQL_ALL_XREFS, null);
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Rows are read while iterating, see {@link #getIterator()}.
+	 */
 	@Override
-	public Iterable<Xref> getIterator(DataSource ds) throws IDMapperException {
-		Set<Xref> xrefs = new HashSet<Xref>();
-		final QueryLifeCycle pst = qAllXrefsByDatasource;
-		synchronized (pst) { 
-	    	try
-	    	{
-	    	 	pst.init();
-	    	 	pst.setString(1, ds.getSystemCode());
-	    	 	ResultSet rs = pst.executeQuery();
-	    	 	while (rs.next())
-	    	 	{
-	    	 		xrefs.add(new Xref(rs.getString(1), ds));
-	    	 	}
-	    	}
-	    	catch (SQLException ignore)
-	    	{
-	    		throw new IDMapperException(ignore);
-	    	}
-			finally {pst.cleanup(); }
-	    	return xrefs;
+	public Iterable<Xref> getIterator(DataSource ds) throws IDMapperException 
+	{
+		return new CursorIterable(SQL_ALL_XREFS_BY_DATASOURCE, ds);
+	}
+	
+	/** Opens a new XrefCursor for each iteration. */
+	private final class CursorIterable implements Iterable<Xref>
+	{
+		private final String sql;
+		private final DataSource ds;
+		
+		CursorIterable(String sql, DataSource ds)
+		{
+			this.sql = sql;
+			this.ds = ds;
+		}
+		
+		/**
+		 * @return a new cursor over the query results
+		 * @throws IllegalStateException if the query could not be executed
+		 */
+		public XrefCursor iterator()
+		{
+			try
+			{
+				return new XrefCursor(SimpleGdbImplCommon.this, openConnection(), sql, ds, fetchSize);
+			}
+			catch (SQLException ex)
+			{
+				throw new IllegalStateException("Could not read from database", ex);
+			}
 		}
 	}
 }
@@ -0,0 +1,562 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.AbstractIDMapperCapabilities;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.impl.InternalUtils;
+
+/**
+ * In-memory snapshot of a SimpleGdb.
+ * <p>
+ * The datanode, link and attribute tables are read once, when the snapshot is created,
+ * and stored in a few primitive arrays:
+ * <ul>
+ * <li>each distinct (id, DataSource) pair is a node number. Identifiers are interned, 
+ *   DataSources are stored as a short code, and an open addressing hash table finds the node for an Xref.
+ * <li>links are stored as adjacency lists in compressed sparse row form: for each left node 
+ *   the right nodes it links to, and for each right node the left nodes that link to it.
+ * <li>attributes are stored per node in the same form, with interned names and values.
+ * </ul>
+ * mapID, xrefExists, getAttributes and the iterators are served from the snapshot without SQL.
+ * Free searches are passed on to the database. 
+ * <p>
+ * Use with <code>idmapper-pgdb:/path/to/Hs_Derby.bridge?snapshot=true</code>.
+ * The time it took to load the snapshot (in milliseconds) and an estimate of its size in memory 
+ * (in bytes) are reported as the capabilities properties {@link #PROP_LOAD_TIME} and {@link #PROP_SIZE}.
+ * <p>
+ * A snapshot is immutable, and thus thread safe.
+ */
+final class SimpleGdbSnapshot extends IDMapperRdb
+{
+	/** Capabilities property with the time it took to load the snapshot, in milliseconds */
+	public static final String PROP_LOAD_TIME = "SNAPSHOT_LOADTIME";
+	/** Capabilities property with the estimated size of the snapshot in memory, in bytes */
+	public static final String PROP_SIZE = "SNAPSHOT_SIZE";
+
+	private static final String SQL_ALL_DATANODES = 
+			"SELECT id, code FROM datanode";
+	private static final String SQL_ALL_LINKS = 
+			"SELECT idLeft, codeLeft, idRight, codeRight FROM link";
+	private static final String SQL_ALL_ATTRIBUTES = 
+			"SELECT id, code, attrname, attrvalue FROM attribute";
+
+	/** Number of rows fetched from the database at a time while loading */
+	private static final int FETCH_SIZE = 1000;
+
+	private final SimpleGdb gdb;
+	
+	// the arrays below are package-private, so that IDMapperMmap can export them
+
+	final DataSource[] dataSources;
+	final Map<String, Integer> dsCodes;
+	
+	/** node -> identifier */
+	final String[] ids;
+	/** node -> DataSource code */
+	final short[] codes;
+	/** open addressing hash table of node + 1, 0 means empty */
+	final int[] table;
+	/** nodes that are present in the datanode table */
+	final BitSet datanodes;
+	
+	/** for each left node, the right nodes it links to */
+	final int[] linkStart;
+	final int[] linkRight;
+	/** for each right node, the left nodes that link to it */
+	final int[] backStart;
+	final int[] backLeft;
+	
+	/** false if attributes are not part of the snapshot, and have to be looked up in the database */
+	final boolean hasAttributes;
+	final String[] attrNames;
+	final int[] attrStart;
+	final int[] attrName;
+	final String[] attrValue;
+	
+	private final IDMapperCapabilities caps;
+
+	/**
+	 * Load a snapshot of a database. 
+	 * @param gdb database to load. It is used for free searches afterwards, 
+	 * 	and closed when the snapshot is closed.
+	 * @throws IDMapperException if the database could not be read
+	 */
+	SimpleGdbSnapshot(SimpleGdb gdb) throws IDMapperException
+	{
+		this.gdb = gdb;
+		long start = System.currentTimeMillis();
+		
+		Loader loader = new Loader();
+		// schema version 2 does not store all attributes in the attribute table
+		hasAttributes = gdb instanceof SimpleGdbImpl3;
+		try
+		{
+			loader.load(gdb, hasAttributes);
+		}
+		catch (SQLException ex)
+		{
+			throw new IDMapperException ("Could not load snapshot of " + gdb.getDbName(), ex);
+		}
+		
+		int n = loader.nodes;
+		dataSources = loader.dataSources.toArray(new DataSource[loader.dataSources.size()]);
+		dsCodes = loader.dsCodes;
+		ids = Arrays.copyOf(loader.ids, n);
+		codes = Arrays.copyOf(loader.codes, n);
+		table = loader.table;
+		datanodes = loader.datanodes;
+		
+		linkStart = offsets(loader.linkLeft, n);
+		linkRight = arrange(loader.linkLeft, loader.linkRight, linkStart);
+		backStart = offsets(loader.linkRight, n);
+		backLeft = arrange(loader.linkRight, loader.linkLeft, backStart);
+		
+		attrNames = loader.attrNames.toArray(new String[loader.attrNames.size()]);
+		attrStart = offsets(loader.attrNode, n);
+		attrName = arrange(loader.attrNode, loader.attrName, attrStart);
+		attrValue = new String[loader.attrValue.size()];
+		int[] next = Arrays.copyOf(attrStart, n);
+		for (int i = 0; i < attrValue.length; ++i)
+		{
+			attrValue[next[loader.attrNode.get(i)]++] = loader.attrValue.get(i);
+		}
+		
+		long size = 
+			4L * ids.length + 2L * codes.length + 4L * table.length + datanodes.size() / 8 +
+			4L * (linkStart.length + linkRight.length + backStart.length + backLeft.length) + 
+			4L * (attrStart.length + attrName.length + attrValue.length) + 
+			loader.stringBytes;
+		
+		Map<String, String> props = new HashMap<String, String>();
+		final IDMapperCapabilities dbCaps = gdb.getCapabilities();
+		for (String key : dbCaps.getKeys())
+		{
+			props.put (key, dbCaps.getProperty(key));
+		}
+		props.put (PROP_LOAD_TIME, "" + (System.currentTimeMillis() - start));
+		props.put (PROP_SIZE, "" + size);
+		caps = new AbstractIDMapperCapabilities(dbCaps.getSupportedSrcDataSources(), 
+				dbCaps.isFreeSearchSupported(), props) 
+		{
+			/** the database decides, it may know which DataSources are linked to each other */
+			@Override
+			public boolean isMappingSupported(DataSource src, DataSource tgt) throws IDMapperException 
+			{
+				return dbCaps.isMappingSupported(src, tgt);
+			}
+		};
+	}
+
+	/**
+	 * Collects the contents of the database, growing its arrays as needed.
+	 */
+	private static final class Loader
+	{
+		private final Map<String, String> strings = new HashMap<String, String>();
+		/** estimated size of the distinct strings */
+		private long stringBytes = 0;
+		
+		private final List<DataSource> dataSources = new ArrayList<DataSource>();
+		private final Map<String, Integer> dsCodes = new HashMap<String, Integer>();
+		
+		private int nodes = 0;
+		private String[] ids = new String[1024];
+		private short[] codes = new short[1024];
+		private int[] table = new int[2048];
+		private final BitSet datanodes = new BitSet();
+		
+		private final IntList linkLeft = new IntList();
+		private final IntList linkRight = new IntList();
+		
+		private final List<String> attrNames = new ArrayList<String>();
+		private final Map<String, Integer> attrNameCodes = new HashMap<String, Integer>();
+		private final IntList attrNode = new IntList();
+		private final IntList attrName = new IntList();
+		private final List<String> attrValue = new ArrayList<String>();
+
+		/**
+		 * Read all tables.
+		 * @param gdb database to read
+		 * @param attributes true to read the attribute table as well
+		 * @throws SQLException if the database could not be read
+		 */
+		void load(SimpleGdb gdb, boolean attributes) throws SQLException
+		{
+			Statement st = gdb.getConnection().createStatement();
+			try
+			{
+				st.setFetchSize(FETCH_SIZE);
+				ResultSet rs = st.executeQuery(SQL_ALL_DATANODES);
+				while (rs.next())
+				{
+					int node = node(rs.getString(1), rs.getString(2));
+					if (node >= 0) datanodes.set(node);
+				}
+				rs.close();
+				
+				rs = st.executeQuery(SQL_ALL_LINKS);
+				while (rs.next())
+				{
+					int left = node(rs.getString(1), rs.getString(2));
+					int right = node(rs.getString(3), rs.getString(4));
+					if (left < 0 || right < 0) continue;
+					linkLeft.add(left);
+					linkRight.add(right);
+				}
+				rs.close();
+				
+				if (!attributes) return;
+				rs = st.executeQuery(SQL_ALL_ATTRIBUTES);
+				while (rs.next())
+				{
+					int node = node(rs.getString(1), rs.getString(2));
+					String name = rs.getString(3);
+					String value = rs.getString(4);
+					if (node < 0 || name == null || value == null) continue;
+					Integer nameCode = attrNameCodes.get(name);
+					if (nameCode == null)
+					{
+						nameCode = attrNames.size();
+						attrNames.add (name);
+						attrNameCodes.put (name, nameCode);
+					}
+					attrNode.add(node);
+					attrName.add(nameCode);
+					attrValue.add(intern(value));
+				}
+				rs.close();
+			}
+			finally
+			{
+				st.close();
+			}
+		}
+		
+		/**
+		 * @param s a string
+		 * @return the first string equal to s that was passed to this method
+		 */
+		private String intern(String s)
+		{
+			String result = strings.get(s);
+			if (result != null) return result;
+			strings.put (s, s);
+			// object header, fields and char array
+			stringBytes += 40 + 2 * s.length();
+			return s;
+		}
+
+		/**
+		 * Look up a node, adding it if it doesn't exist yet.
+		 * @param id identifier
+		 * @param sysCode system code of the DataSource
+		 * @return node number, or -1 if the id or system code is null
+		 */
+		private int node(String id, String sysCode)
+		{
+			if (id == null || sysCode == null) return -1;
+			Integer code = dsCodes.get(sysCode);
+			if (code == null)
+			{
+				if (dataSources.size() > Short.MAX_VALUE) 
+					throw new IllegalStateException("Too many DataSources for a snapshot");
+				code = dataSources.size();
+				dataSources.add (InternalUtils.findOrRegisterDataSource(sysCode, null));
+				dsCodes.put (sysCode, code);
+			}
+			int result = find (table, ids, codes, id, code);
+			if (result >= 0) return result;
+			
+			if (nodes == ids.length)
+			{
+				ids = Arrays.copyOf(ids, nodes * 2);
+				codes = Arrays.copyOf(codes, nodes * 2);
+			}
+			result = nodes++;
+			ids[result] = intern(id);
+			codes[result] = (short)(int)code;
+			// keep the table at most half full
+			if (nodes * 2 > table.length)
+			{
+				table = new int[table.length * 2];
+				for (int i = 0; i < nodes; ++i) insert (table, ids[i], codes[i], i);
+			}
+			else
+			{
+				insert (table, id, code, result);
+			}
+			return result;
+		}
+	}
+
+	/** Growable array of ints. */
+	private static final class IntList
+	{
+		private int[] data = new int[1024];
+		private int size = 0;
+		
+		void add(int value)
+		{
+			if (size == data.length) data = Arrays.copyOf(data, size * 2);
+			data[size++] = value;
+		}
+		
+		int get(int i) { return data[i]; }
+		
+		int size() { return size; }
+	}
+	
+	/**
+	 * @param keys node for each entry
+	 * @param n number of nodes
+	 * @return array of n + 1 offsets, so that the entries of node i are 
+	 * 	in the range offsets[i] to offsets[i+1]
+	 */
+	private static int[] offsets(IntList keys, int n)
+	{
+		int[] result = new int[n + 1];
+		for (int i = 0; i < keys.size(); ++i) result[keys.get(i) + 1]++;
+		for (int i = 0; i < n; ++i) result[i + 1] += result[i];
+		return result;
+	}
+	
+	/**
+	 * Counting sort of values by key.
+	 * @param keys node for each entry
+	 * @param values value for each entry
+	 * @param offsets as calculated by {@link #offsets(IntList, int)}
+	 * @return values, grouped by node
+	 */
+	private static int[] arrange(IntList keys, IntList values, int[] offsets)
+	{
+		int[] result = new int[values.size()];
+		int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+		for (int i = 0; i < values.size(); ++i)
+		{
+			result[next[keys.get(i)]++] = values.get(i);
+		}
+		return result;
+	}
+	
+	private static int hash(String id, int code)
+	{
+		int h = id.hashCode() * 31 + code;
+		return h ^ (h >>> 16);
+	}
+	
+	private static void insert(int[] table, String id, int code, int node)
+	{
+		int mask = table.length - 1;
+		int i = hash(id, code) & mask;
+		while (table[i] != 0) i = (i + 1) & mask;
+		table[i] = node + 1;
+	}
+	
+	/** @return node with the given id and DataSource code, or -1 if it doesn't exist */
+	private static int find(int[] table, String[] ids, short[] codes, String id, int code)
+	{
+		int mask = table.length - 1;
+		for (int i = hash(id, code) & mask; table[i] != 0; i = (i + 1) & mask)
+		{
+			int node = table[i] - 1;
+			if (codes[node] == code && ids[node].equals(id)) return node;
+		}
+		return -1;
+	}
+	
+	/** @return node of the given Xref, or -1 if it is not in the snapshot */
+	private int find(Xref ref)
+	{
+		if (ref.getId() == null || ref.getDataSource() == null) return -1;
+		Integer code = dsCodes.get(ref.getDataSource().getSystemCode());
+		if (code == null) return -1;
+		return find (table, ids, codes, ref.getId(), code);
+	}
+
+	/** @return Xref for a node */
+	private Xref xref(int node)
+	{
+		return new Xref (ids[node], dataSources[codes[node]]);
+	}
+
+	/** {@inheritDoc} */
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException 
+	{
+		Set<Xref> result = new HashSet<Xref>();
+		int node = find(ref);
+		if (node < 0) return result;
+		
+		boolean[] accept = null;
+		if (tgtDataSources.length > 0)
+		{
+			accept = new boolean[dataSources.length];
+			for (DataSource ds : tgtDataSources)
+			{
+				Integer code = ds == null ? null : dsCodes.get(ds.getSystemCode());
+				if (code != null) accept[code] = true;
+			}
+		}
+		
+		for (int i = backStart[node]; i < backStart[node + 1]; ++i)
+		{
+			int left = backLeft[i];
+			for (int j = linkStart[left]; j < linkStart[left + 1]; ++j)
+			{
+				int right = linkRight[j];
+				if (accept == null || accept[codes[right]]) result.add (xref(right));
+			}
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public boolean xrefExists(Xref xref) throws IDMapperException 
+	{
+		int node = find(xref);
+		return node >= 0 && datanodes.get(node);
+	}
+
+	/** {@inheritDoc} */
+	public Set<String> getAttributes(Xref ref, String attrType) throws IDMapperException 
+	{
+		if (!hasAttributes) return gdb.getAttributes(ref, attrType);
+		Set<String> result = new HashSet<String>();
+		int node = find(ref);
+		if (node < 0) return result;
+		for (int i = attrStart[node]; i < attrStart[node + 1]; ++i)
+		{
+			if (attrNames[attrName[i]].equals(attrType)) result.add (attrValue[i]);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Map<String, Set<String>> getAttributes(Xref ref) throws IDMapperException 
+	{
+		if (!hasAttributes) return gdb.getAttributes(ref);
+		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+		int node = find(ref);
+		if (node < 0) return result;
+		for (int i = attrStart[node]; i < attrStart[node + 1]; ++i)
+		{
+			String key = attrNames[attrName[i]];
+			Set<String> values = result.get(key);
+			if (values == null)
+			{
+				values = new HashSet<String>();
+				result.put (key, values);
+			}
+			values.add (attrValue[i]);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Set<String> getAttributeSet() throws IDMapperException 
+	{
+		if (!hasAttributes) return gdb.getAttributeSet();
+		return new HashSet<String>(Arrays.asList(attrNames));
+	}
+
+	/** {@inheritDoc} */
+	public Iterable<Xref> getIterator() throws IDMapperException 
+	{
+		List<Xref> result = new ArrayList<Xref>(datanodes.cardinality());
+		for (int i = datanodes.nextSetBit(0); i >= 0; i = datanodes.nextSetBit(i + 1))
+		{
+			result.add (xref(i));
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Iterable<Xref> getIterator(DataSource ds) throws IDMapperException 
+	{
+		List<Xref> result = new ArrayList<Xref>();
+		Integer code = dsCodes.get(ds.getSystemCode());
+		if (code == null) return result;
+		for (int i = datanodes.nextSetBit(0); i >= 0; i = datanodes.nextSetBit(i + 1))
+		{
+			if (codes[i] == code) result.add (xref(i));
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException 
+	{
+		return gdb.freeSearch(text, limit);
+	}
+
+	/** {@inheritDoc} */
+	public boolean isFreeAttributeSearchSupported() 
+	{
+		return gdb.isFreeAttributeSearchSupported();
+	}
+
+	/** {@inheritDoc} */
+	public Map<Xref, String> freeAttributeSearch(String query, String attrType, int limit) throws IDMapperException 
+	{
+		return gdb.freeAttributeSearch(query, attrType, limit);
+	}
+
+	/** {@inheritDoc} */
+	public Map<Xref, Set<String>> freeAttributeSearchEx(String query, String attrType, int limit) throws IDMapperException 
+	{
+		return gdb.freeAttributeSearchEx(query, attrType, limit);
+	}
+
+	/** @return the capabilities of the database, with the load time and size of the snapshot */
+	public IDMapperCapabilities getCapabilities() 
+	{
+		return caps;
+	}
+
+	/** {@inheritDoc} */
+	public void close() throws IDMapperException 
+	{
+		gdb.close();
+	}
+
+	/** {@inheritDoc} */
+	public boolean isConnected() 
+	{
+		return gdb.isConnected();
+	}
+
+	/** {@inheritDoc} */
+	@Override public String getDbName() 
+	{
+		return gdb.getDbName();
+	}
+}
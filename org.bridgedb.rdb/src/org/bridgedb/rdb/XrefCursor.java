@@ -0,0 +1,169 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+import org.bridgedb.impl.InternalUtils;
+
+/**
+ * Iterator over the Xrefs of a query, that reads the rows from a forward-only 
+ * ResultSet while iterating, so that memory use does not depend on the number of rows.
+ * <p>
+ * The cursor has a connection of its own, outside the connection pool of SimpleGdb,
+ * so that other queries can run while it is open. The connection is closed 
+ * when the last row has been read, when close() is called, or when the SimpleGdb is closed. 
+ * Call close() when stopping early, for example when breaking out of a for-each loop,
+ * to release the connection right away. Otherwise it stays open until the SimpleGdb is closed.
+ * <p>
+ * The connection is used outside auto-commit mode, which PostgreSQL needs to fetch rows 
+ * in batches. MySQL only streams rows one at a time, so on MySQL the fetch size is ignored.
+ * Other drivers may still read all rows up front, see their documentation for setFetchSize.
+ * <p>
+ * Because the iterator interface can't throw checked exceptions, 
+ * a database error during iteration is thrown as an IllegalStateException.
+ * A cursor is meant to be iterated by a single thread, but it can be closed from any thread.
+ */
+public final class XrefCursor implements Iterator<Xref>, Closeable
+{
+	private final SimpleGdb owner;
+	private Connection con;
+	private PreparedStatement pst;
+	private ResultSet rs;
+	/** DataSource of all rows, or null if the second column holds the system code */
+	private final DataSource ds;
+	private Xref next = null;
+
+	/**
+	 * Run a query. The first column of the result is the id, the second the system code,
+	 * unless a DataSource is given. 
+	 * @param owner database that keeps track of the open cursors, so that it can close them
+	 * @param con connection to use, it will be closed by this cursor. 
+	 * @param sql query, with at most one parameter, the system code of ds.
+	 * @param ds DataSource to filter on, or null
+	 * @param fetchSize number of rows to fetch from the database at a time
+	 * @throws SQLException if the query could not be executed, or the database has been closed.
+	 * 	The connection is closed in that case.
+	 */
+	XrefCursor(SimpleGdb owner, Connection con, String sql, DataSource ds, int fetchSize) throws SQLException
+	{
+		this.owner = owner;
+		this.con = con;
+		this.ds = ds;
+		try
+		{
+			owner.cursorOpened(this);
+			con.setAutoCommit(false);
+			pst = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			boolean mysql = "MySQL".equalsIgnoreCase(con.getMetaData().getDatabaseProductName());
+			// Integer.MIN_VALUE is how MySQL Connector/J is told to stream the result
+			pst.setFetchSize(mysql ? Integer.MIN_VALUE : fetchSize);
+			if (ds != null) pst.setString(1, ds.getSystemCode());
+			rs = pst.executeQuery();
+			advance();
+		}
+		catch (SQLException ex)
+		{
+			close();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Read the next row, and close the cursor after the last row.
+	 * @throws SQLException if the row could not be read
+	 */
+	private void advance() throws SQLException
+	{
+		if (rs != null && rs.next())
+		{
+			next = new Xref (rs.getString(1), 
+					ds != null ? ds : InternalUtils.findOrRegisterDataSource(rs.getString(2), null));
+		}
+		else
+		{
+			next = null;
+			close();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public synchronized boolean hasNext()
+	{
+		return next != null;
+	}
+
+	/** 
+	 * {@inheritDoc} 
+	 * @throws IllegalStateException if the next row could not be read from the database.
+	 */
+	public synchronized Xref next()
+	{
+		if (next == null) throw new NoSuchElementException();
+		Xref result = next;
+		try
+		{
+			advance();
+		}
+		catch (SQLException ex)
+		{
+			close();
+			throw new IllegalStateException("Could not read from database", ex);
+		}
+		return result;
+	}
+
+	/** Not supported. */
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stop iterating and close the connection. Safe to call more than once.
+	 */
+	public synchronized void close()
+	{
+		next = null;
+		if (rs != null) try { rs.close(); } catch (SQLException ignore) {}
+		rs = null;
+		if (pst != null) try { pst.close(); } catch (SQLException ignore) {}
+		pst = null;
+		if (con != null)
+		{
+			// end the read-only transaction, some databases refuse to close a connection during one
+			try { if (!con.getAutoCommit()) con.rollback(); } catch (SQLException ignore) {}
+			try { con.close(); } catch (SQLException ignore) {}
+			owner.cursorClosed(this);
+		}
+		con = null;
+	}
+
+	/** @return true if the connection has been released */
+	public synchronized boolean isClosed()
+	{
+		return con == null;
+	}
+}
@@ -0,0 +1,99 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.junit.Assert;
+
+/**
+ * Checks that a copy of a database, such as a snapshot or a memory-mapped export,
+ * answers the same as the database itself.
+ */
+public final class GdbComparison
+{
+	private static final DataSource DS_ENSEMBL = DataSource.getBySystemCode("En");
+	private static final DataSource DS_ENTREZ = DataSource.getBySystemCode("L");
+	private static final DataSource DS_AFFY = DataSource.getBySystemCode("X");
+
+	private GdbComparison() {}
+
+	/**
+	 * Compare mappings, attributes and iterators of every Xref in a {@link MemoryGdb}.
+	 * @param gdb the database
+	 * @param copy the copy to compare with
+	 * @throws IDMapperException if one of them could not be queried
+	 */
+	public static void assertSameAsDatabase(SimpleGdb gdb, IDMapperRdb copy) throws IDMapperException
+	{
+		DataSource[][] targets = { {}, { DS_ENSEMBL }, { DS_ENSEMBL, DS_AFFY } };
+		for (Xref ref : gdb.getIterator())
+		{
+			for (DataSource[] tgt : targets)
+			{
+				Assert.assertEquals (gdb.mapID(ref, tgt), copy.mapID(ref, tgt));
+			}
+			Assert.assertTrue (copy.xrefExists(ref));
+			Assert.assertEquals (gdb.getAttributes(ref), copy.getAttributes(ref));
+			Assert.assertEquals (gdb.getAttributes(ref, "Symbol"), copy.getAttributes(ref, "Symbol"));
+		}
+		Assert.assertEquals (asSet(gdb.getIterator()), asSet(copy.getIterator()));
+		Assert.assertEquals (asSet(gdb.getIterator(DS_AFFY)), asSet(copy.getIterator(DS_AFFY)));
+		Assert.assertEquals (gdb.getAttributeSet(), copy.getAttributeSet());
+		
+		Xref unknown = new Xref ("unknown", DS_ENTREZ);
+		Assert.assertFalse (copy.xrefExists(unknown));
+		Assert.assertEquals (0, copy.mapID(unknown).size());
+		Assert.assertEquals (0, copy.mapID(new Xref (MemoryGdb.ensId(0), null)).size());
+		Assert.assertEquals (0, copy.getAttributes(unknown).size());
+	}
+
+	/**
+	 * Compare the capabilities of a database and a copy.
+	 * @param gdb the database
+	 * @param copy the copy to compare with
+	 * @throws IDMapperException if one of them could not be queried
+	 */
+	public static void assertSameCapabilities(SimpleGdb gdb, IDMapperRdb copy) throws IDMapperException
+	{
+		Assert.assertEquals ("3", copy.getCapabilities().getProperty("SCHEMAVERSION"));
+		Assert.assertEquals (gdb.getCapabilities().getSupportedSrcDataSources(), 
+				copy.getCapabilities().getSupportedSrcDataSources());
+		Set<DataSource> dss = new HashSet<DataSource>(gdb.getCapabilities().getSupportedSrcDataSources());
+		dss.addAll (gdb.getCapabilities().getSupportedTgtDataSources());
+		dss.add (DataSource.getBySystemCode("S"));
+		for (DataSource src : dss)
+		{
+			for (DataSource tgt : dss)
+			{
+				Assert.assertEquals (src + " -> " + tgt, gdb.getCapabilities().isMappingSupported(src, tgt), 
+						copy.getCapabilities().isMappingSupported(src, tgt));
+			}
+		}
+	}
+
+	private static Set<Xref> asSet(Iterable<Xref> refs)
+	{
+		Set<Xref> result = new HashSet<Xref>();
+		for (Xref ref : refs) result.add (ref);
+		return result;
+	}
+}
@@ -0,0 +1,117 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Creates a small schema v3 database in memory with Derby, 
+ * so that tests don't depend on a downloaded database.
+ * <p>
+ * It contains {@link #GENES} genes with Ensembl (En), Entrez (L) and Affy (X) identifiers,
+ * each with a Symbol attribute.
+ */
+public final class MemoryGdb
+{
+	/** number of genes in the test database */
+	public static final int GENES = 50;
+
+	private MemoryGdb() {}
+
+	/**
+	 * @param i gene number 
+	 * @return Ensembl id of the given gene.
+	 */
+	public static String ensId(int i) { return "ENSG" + (1000 + i); }
+
+	/**
+	 * @param i gene number 
+	 * @return Entrez id of the given gene.
+	 */
+	public static String entrezId(int i) { return "" + (1000 + i); }
+
+	/**
+	 * @param i gene number 
+	 * @return Affy id of the given gene.
+	 */
+	public static String affyId(int i) { return (1000 + i) + "_at"; }
+
+	/**
+	 * @param i gene number 
+	 * @return Symbol of the given gene.
+	 */
+	public static String symbol(int i) { return "GENE" + i; }
+
+	/**
+	 * Create a new in-memory database. 
+	 * @param name name of the in-memory database, must be unique per test.
+	 * @return location for use with idmapper-jdbc, e.g. <code>derby:memory:name</code>
+	 * @throws SQLException if the database could not be created
+	 */
+	public static String create(String name) throws SQLException
+	{
+		String location = "derby:memory:" + name;
+		Connection con = DriverManager.getConnection("jdbc:" + location + ";create=true");
+		try
+		{
+			Statement sh = con.createStatement();
+			sh.execute("CREATE TABLE info (schemaversion INTEGER PRIMARY KEY, species VARCHAR(50))");
+			sh.execute("INSERT INTO info VALUES (3, 'Homo sapiens')");
+			sh.execute("CREATE TABLE link (idLeft VARCHAR(50) NOT NULL, codeLeft VARCHAR(50) NOT NULL, " +
+					"idRight VARCHAR(50) NOT NULL, codeRight VARCHAR(50) NOT NULL, bridge VARCHAR(50), " +
+					"PRIMARY KEY (idLeft, codeLeft, idRight, codeRight))");
+			sh.execute("CREATE TABLE datanode (id VARCHAR(50), code VARCHAR(50), PRIMARY KEY (id, code))");
+			sh.execute("CREATE TABLE attribute (id VARCHAR(50), code VARCHAR(50), " +
+					"attrname VARCHAR(50), attrvalue VARCHAR(255))");
+			
+			PreparedStatement pstGene = con.prepareStatement("INSERT INTO datanode (id, code) VALUES (?, ?)");
+			PreparedStatement pstLink = con.prepareStatement(
+					"INSERT INTO link (idLeft, codeLeft, idRight, codeRight) VALUES (?, ?, ?, ?)");
+			PreparedStatement pstAttr = con.prepareStatement(
+					"INSERT INTO attribute (attrname, attrvalue, id, code) VALUES (?, ?, ?, ?)");
+			for (int i = 0; i < GENES; ++i)
+			{
+				String[][] refs = { { ensId(i), "En" }, { entrezId(i), "L" }, { affyId(i), "X" } };
+				for (String[] ref : refs)
+				{
+					pstGene.setString(1, ref[0]);
+					pstGene.setString(2, ref[1]);
+					pstGene.executeUpdate();
+					pstLink.setString(1, ensId(i));
+					pstLink.setString(2, "En");
+					pstLink.setString(3, ref[0]);
+					pstLink.setString(4, ref[1]);
+					pstLink.executeUpdate();
+				}
+				pstAttr.setString(1, "Symbol");
+				pstAttr.setString(2, symbol(i));
+				pstAttr.setString(3, ensId(i));
+				pstAttr.setString(4, "En");
+				pstAttr.executeUpdate();
+			}
+		}
+		finally
+		{
+			con.close();
+		}
+		return location;
+	}
+}
@@ -0,0 +1,68 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.File;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.IDMapperException;
+import org.junit.Assert;
+import org.junit.Before;
+
+/**
+ * Compares a memory-mapped export with the database it was exported from.
+ */
+public class TestMmap {
+	
+	private static SimpleGdb gdb = null;
+	private static IDMapperMmap mmap = null;
+	
+	@Before public void setUp() throws Exception
+	{
+		if (gdb == null)
+		{
+			Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+			gdb = (SimpleGdb)BridgeDb.connect ("idmapper-jdbc:" + MemoryGdb.create("testmmap"));
+			File file = File.createTempFile("testmmap", ".bridgemap");
+			file.deleteOnExit();
+			IDMapperMmap.export(gdb, file);
+			mmap = (IDMapperMmap)BridgeDb.connect ("idmapper-mmap:" + file);
+		}
+	}
+	
+	@org.junit.Test
+	public void testSameAsDatabase() throws IDMapperException
+	{
+		GdbComparison.assertSameAsDatabase(gdb, mmap);
+	}
+	
+	@org.junit.Test
+	public void testSearch() throws IDMapperException
+	{
+		Assert.assertEquals (gdb.freeSearch("00", 0), mmap.freeSearch("00", 0));
+		Assert.assertEquals (5, mmap.freeSearch("00", 5).size());
+		Assert.assertEquals (gdb.freeAttributeSearchEx("gene1", "Symbol", 0), 
+				mmap.freeAttributeSearchEx("gene1", "Symbol", 0));
+		Assert.assertEquals (0, mmap.freeAttributeSearch("gene1", "Description", 0).size());
+	}
+	
+	@org.junit.Test
+	public void testCapabilities() throws IDMapperException
+	{
+		GdbComparison.assertSameCapabilities(gdb, mmap);
+	}
+}
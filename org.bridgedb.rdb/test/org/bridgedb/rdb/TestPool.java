@@ -0,0 +1,135 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.junit.Assert;
+import org.junit.Before;
+
+/**
+ * Test querying a database through a pool of connections.
+ */
+public class TestPool {
+	
+	@Before public void setUp() throws ClassNotFoundException
+	{
+		Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+	}
+	
+	@org.junit.Test
+	public void testPoolArgument() throws IDMapperException
+	{
+		Assert.assertEquals (SimpleGdb.DEFAULT_POOL_SIZE, IDMapperRdb.getPoolSize("/data/Hs.bridge"));
+		Assert.assertEquals (8, IDMapperRdb.getPoolSize("/data/Hs.bridge?pool=8"));
+		Assert.assertEquals ("/data/Hs.bridge", IDMapperRdb.removePoolArgument("/data/Hs.bridge?pool=8"));
+		
+		// other arguments are left for the jdbc driver
+		String jdbc = "mysql://localhost/hs?user=bridgedb&pool=4&password=x";
+		Assert.assertEquals (4, IDMapperRdb.getPoolSize(jdbc));
+		Assert.assertEquals ("mysql://localhost/hs?user=bridgedb&password=x", IDMapperRdb.removePoolArgument(jdbc));
+		
+		try
+		{
+			IDMapperRdb.getPoolSize("/data/Hs.bridge?pool=0");
+			Assert.fail ("Expected IDMapperException");
+		}
+		catch (IDMapperException expected) {}
+	}
+	
+	@org.junit.Test
+	public void testConcurrentMapID() throws Exception
+	{
+		String location = MemoryGdb.create("testpool");
+		final SimpleGdb gdb = (SimpleGdb)BridgeDb.connect ("idmapper-jdbc:" + location + "?pool=4");
+		Assert.assertEquals (4, gdb.getPoolSize());
+		Assert.assertEquals ("3", gdb.getCapabilities().getProperty("SCHEMAVERSION"));
+		
+		final DataSource dsEntrez = DataSource.getBySystemCode("L");
+		final DataSource dsAffy = DataSource.getBySystemCode("X");
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; ++t)
+		{
+			Thread thread = new Thread() 
+			{
+				public void run()
+				{
+					try
+					{
+						for (int i = 0; i < MemoryGdb.GENES; ++i)
+						{
+							Xref src = new Xref (MemoryGdb.entrezId(i), dsEntrez);
+							Set<Xref> result = gdb.mapID(src, dsAffy);
+							Assert.assertEquals (1, result.size());
+							Assert.assertTrue (result.contains(new Xref (MemoryGdb.affyId(i), dsAffy)));
+							Assert.assertEquals (3, gdb.mapID(src).size());
+							Assert.assertTrue (gdb.xrefExists(src));
+						}
+					}
+					catch (Throwable ex)
+					{
+						synchronized (errors) { errors.add (ex); }
+					}
+				}
+			};
+			threads.add (thread);
+			thread.start();
+		}
+		for (Thread thread : threads) thread.join();
+		
+		if (errors.size() > 0) throw new AssertionError (errors.get(0));
+		gdb.close();
+		Assert.assertFalse (gdb.isConnected());
+		try
+		{
+			gdb.mapID(new Xref (MemoryGdb.entrezId(0), dsEntrez), dsAffy);
+			Assert.fail ("Expected IDMapperException");
+		}
+		catch (IDMapperException expected) {}
+	}
+	
+	/**
+	 * A query that is running when the database is closed must be able to finish, 
+	 * also when it uses the shared connection.
+	 */
+	@org.junit.Test
+	public void testCloseWhileBusy() throws Exception
+	{
+		String location = MemoryGdb.create("testpoolclose");
+		SimpleGdb gdb = (SimpleGdb)BridgeDb.connect ("idmapper-jdbc:" + location + "?pool=2");
+		Connection shared = gdb.getConnection();
+		
+		// the first borrowed connection wraps the shared connection
+		SimpleGdb.QueryLifeCycle busy = gdb.new QueryLifeCycle("SELECT id FROM datanode");
+		busy.init();
+		gdb.close();
+		Assert.assertFalse (shared.isClosed());
+		ResultSet rs = busy.executeQuery();
+		Assert.assertTrue (rs.next());
+		busy.cleanup();
+		Assert.assertTrue (shared.isClosed());
+	}
+}
@@ -0,0 +1,149 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.impl.InternalUtils;
+import org.junit.Assert;
+import org.junit.Before;
+
+/**
+ * Tests SimpleGdb against a small database in memory.
+ */
+public class TestSimpleGdb {
+	
+	private static SimpleGdb gdb = null;
+	
+	private static final DataSource DS_ENSEMBL = DataSource.getBySystemCode("En");
+	private static final DataSource DS_ENTREZ = DataSource.getBySystemCode("L");
+	private static final DataSource DS_AFFY = DataSource.getBySystemCode("X");
+	
+	@Before public void setUp() throws ClassNotFoundException, SQLException, IDMapperException
+	{
+		if (gdb == null)
+		{
+			Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+			gdb = (SimpleGdb)BridgeDb.connect ("idmapper-jdbc:" + MemoryGdb.create("testsimplegdb"));
+		}
+	}
+	
+	/**
+	 * Batch mapping of a collection must give the same result as 
+	 * mapping each Xref separately.
+	 */
+	@org.junit.Test
+	public void testBatchMapID() throws IDMapperException
+	{
+		List<Xref> srcRefs = new ArrayList<Xref>();
+		for (int i = 0; i < MemoryGdb.GENES; ++i)
+		{
+			srcRefs.add (new Xref (MemoryGdb.entrezId(i), DS_ENTREZ));
+			srcRefs.add (new Xref (MemoryGdb.affyId(i), DS_AFFY));
+		}
+		// more than one batch, mostly unknown identifiers
+		for (int i = 0; i < 2 * SimpleGdbImplCommon.BATCH_SIZE; ++i)
+		{
+			srcRefs.add (new Xref ("unknown" + i, DS_ENTREZ));
+		}
+		srcRefs.add (new Xref (MemoryGdb.ensId(0), null));
+		
+		DataSource[][] targets = { {}, { DS_ENSEMBL }, { DS_ENSEMBL, DS_AFFY } };
+		for (DataSource[] tgt : targets)
+		{
+			Map<Xref, Set<Xref>> expected = InternalUtils.mapMultiFromSingle(gdb, srcRefs, tgt);
+			Map<Xref, Set<Xref>> actual = gdb.mapID(srcRefs, tgt);
+			Assert.assertEquals (expected, actual);
+		}
+		
+		Map<Xref, Set<Xref>> result = gdb.mapID(srcRefs, DS_ENSEMBL);
+		Assert.assertEquals (2 * MemoryGdb.GENES, result.size());
+		Assert.assertTrue (result.get(new Xref (MemoryGdb.affyId(7), DS_AFFY)).contains(
+				new Xref (MemoryGdb.ensId(7), DS_ENSEMBL)));
+	}
+	
+	/**
+	 * The iterators stream rows from a cursor, and release its connection 
+	 * when they are finished or closed.
+	 */
+	@org.junit.Test
+	public void testIterator() throws IDMapperException
+	{
+		SimpleGdbImplCommon common = (SimpleGdbImplCommon)gdb;
+		common.setFetchSize(7);
+		
+		Set<Xref> all = new HashSet<Xref>();
+		XrefCursor cursor = (XrefCursor)gdb.getIterator().iterator();
+		while (cursor.hasNext()) all.add (cursor.next());
+		Assert.assertTrue (cursor.isClosed());
+		Assert.assertEquals (3 * MemoryGdb.GENES, all.size());
+		Assert.assertTrue (all.contains (new Xref (MemoryGdb.affyId(3), DS_AFFY)));
+		
+		int count = 0;
+		for (Xref ref : gdb.getIterator(DS_ENTREZ))
+		{
+			Assert.assertEquals (DS_ENTREZ, ref.getDataSource());
+			// other queries can run while the cursor is open
+			Assert.assertTrue (gdb.xrefExists(ref));
+			count++;
+		}
+		Assert.assertEquals (MemoryGdb.GENES, count);
+		
+		cursor = (XrefCursor)gdb.getIterator().iterator();
+		cursor.next();
+		Assert.assertFalse (cursor.isClosed());
+		cursor.close();
+		Assert.assertTrue (cursor.isClosed());
+		Assert.assertFalse (cursor.hasNext());
+		common.setFetchSize(SimpleGdbImplCommon.DEFAULT_FETCH_SIZE);
+	}
+	
+	/**
+	 * Closing the database closes the cursors that are still open, 
+	 * and no new ones can be opened.
+	 */
+	@org.junit.Test
+	public void testIteratorAfterClose() throws Exception
+	{
+		SimpleGdb closing = (SimpleGdb)BridgeDb.connect ("idmapper-jdbc:" + MemoryGdb.create("testcursorclose"));
+		// cursors that are left open, as by a for-each loop that breaks early
+		XrefCursor all = (XrefCursor)closing.getIterator().iterator();
+		XrefCursor entrez = (XrefCursor)closing.getIterator(DS_ENTREZ).iterator();
+		entrez.next();
+		Assert.assertFalse (all.isClosed());
+		Assert.assertFalse (entrez.isClosed());
+		closing.close();
+		Assert.assertTrue (all.isClosed());
+		Assert.assertTrue (entrez.isClosed());
+		Assert.assertFalse (entrez.hasNext());
+		try
+		{
+			closing.getIterator().iterator();
+			Assert.fail ("Expected IllegalStateException");
+		}
+		catch (IllegalStateException expected) {}
+	}
+}
@@ -0,0 +1,68 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.junit.Assert;
+import org.junit.Before;
+
+/**
+ * Compares an in-memory snapshot with the database it was loaded from.
+ */
+public class TestSnapshot {
+	
+	private static SimpleGdb gdb = null;
+	private static IDMapperRdb snapshot = null;
+	
+	@Before public void setUp() throws Exception
+	{
+		if (gdb == null)
+		{
+			Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+			String location = MemoryGdb.create("testsnapshot");
+			gdb = (SimpleGdb)BridgeDb.connect ("idmapper-jdbc:" + location);
+			snapshot = (IDMapperRdb)BridgeDb.connect ("idmapper-jdbc:" + location + "?snapshot=true");
+		}
+	}
+	
+	@org.junit.Test
+	public void testSnapshotArgument()
+	{
+		Assert.assertTrue (IDMapperRdb.isSnapshot("/data/Hs.bridge?pool=2&snapshot=true"));
+		Assert.assertFalse (IDMapperRdb.isSnapshot("/data/Hs.bridge?pool=2"));
+		Assert.assertEquals ("/data/Hs.bridge", IDMapperRdb.removeArguments(
+				"/data/Hs.bridge?pool=2&snapshot=true", IDMapperRdb.POOL_ARGUMENT, IDMapperRdb.SNAPSHOT_ARGUMENT));
+	}
+	
+	@org.junit.Test
+	public void testSameAsDatabase() throws IDMapperException
+	{
+		Assert.assertTrue (snapshot instanceof SimpleGdbSnapshot);
+		GdbComparison.assertSameAsDatabase(gdb, snapshot);
+	}
+	
+	@org.junit.Test
+	public void testCapabilities() throws IDMapperException
+	{
+		GdbComparison.assertSameCapabilities(gdb, snapshot);
+		IDMapperCapabilities caps = snapshot.getCapabilities();
+		Assert.assertTrue (Long.parseLong(caps.getProperty(SimpleGdbSnapshot.PROP_LOAD_TIME)) >= 0);
+		Assert.assertTrue (Long.parseLong(caps.getProperty(SimpleGdbSnapshot.PROP_SIZE)) > 0);
+	}
+}
@@ -28,7 +28,15 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bridgedb.AsyncIDMapper;
 import org.bridgedb.AttributeMapper;
 import org.bridgedb.BridgeDb;
 import org.bridgedb.DataSource;
@@ -36,13 +44,18 @@ import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperCapabilities;
 import org.bridgedb.IDMapperException;
 import org.bridgedb.Xref;
+import org.bridgedb.impl.AsyncResult;
 import org.bridgedb.impl.InternalUtils;
 import org.bridgedb.webservice.IDMapperWebservice;
 
 /**
  * IDMapper implementation for BridgeRest, the REST interface of BridgeDb itself.
+ * <p>
+ * Asynchronous requests are sent over a fixed number of concurrent connections.
+ * Requests that can't be sent right away are queued, so that many pending
+ * requests don't need a thread each.
  */
-public class BridgeRest extends IDMapperWebservice implements AttributeMapper
+public class BridgeRest extends IDMapperWebservice implements AttributeMapper, AsyncIDMapper
 {
 	static {
 		BridgeDb.register ("idmapper-bridgerest", new Driver());
@@ -288,10 +301,152 @@ public class BridgeRest extends IDMapperWebservice implements AttributeMapper
 		capabilities = new RestCapabilities();
 	}
 
-	private boolean isConnected = true;
+	private volatile boolean isConnected = true;
 
 	/** {@inheritDoc} */
-	public void close() throws IDMapperException { isConnected = false; }
+	public void close() throws IDMapperException 
+	{ 
+		synchronized (this)
+		{
+			isConnected = false;
+			if (ownExecutor != null) ownExecutor.shutdown();
+			ownExecutor = null;
+		}
+	}
+
+	/** default number of concurrent connections for asynchronous requests */
+	public static final int DEFAULT_ASYNC_CONNECTIONS = 4;
+
+	private Executor asyncExecutor = null;
+	/** executor created by this instance, to be shut down on close */ 
+	private ExecutorService ownExecutor = null;
+
+	/**
+	 * Set the executor that asynchronous requests are sent from. By default, 
+	 * a pool of DEFAULT_ASYNC_CONNECTIONS daemon threads is created when it is first needed.
+	 * @param value executor for asynchronous requests. BridgeRest does not shut it down, 
+	 * 	that is up to the caller.
+	 */
+	public synchronized void setAsyncExecutor(Executor value)
+	{
+		asyncExecutor = value;
+	}
+
+	/** 
+	 * @return executor for asynchronous requests. Must not be called after close(), 
+	 * 	as that would start a new thread pool.
+	 */
+	private synchronized Executor getAsyncExecutor()
+	{
+		if (asyncExecutor != null) return asyncExecutor;
+		if (ownExecutor == null)
+		{
+			ownExecutor = Executors.newFixedThreadPool(DEFAULT_ASYNC_CONNECTIONS, new ThreadFactory() {
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "BridgeRest " + baseUrl);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return ownExecutor;
+	}
+
+	/**
+	 * Run a blocking request on the executor for asynchronous requests.
+	 * Fails right away if this BridgeRest has been closed.
+	 * @param query the request
+	 * @param callback notified when the request is done, may be null
+	 * @return pending result of the request
+	 */
+	private <T> Future<T> submit(Callable<T> query, Callback<T> callback)
+	{
+		Executor executor;
+		synchronized (this)
+		{
+			if (!isConnected)
+			{
+				AsyncResult<T> result = new AsyncResult<T>(callback);
+				result.fail(new IDMapperException ("BridgeRest connection to " + baseUrl + " is closed"));
+				return result;
+			}
+			executor = getAsyncExecutor();
+		}
+		return AsyncResult.submit(executor, query, callback);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * There is one request per source Xref, these are sent concurrently.
+	 */
+	public Future<Map<Xref, Set<Xref>>> mapIDAsync(Collection<Xref> srcXrefs,
+			Callback<Map<Xref, Set<Xref>>> callback, DataSource... tgtDataSources)
+	{
+		final AsyncResult<Map<Xref, Set<Xref>>> result = new AsyncResult<Map<Xref, Set<Xref>>>(callback);
+		final Map<Xref, Set<Xref>> mappings = new HashMap<Xref, Set<Xref>>();
+		final Set<Xref> refs = new HashSet<Xref>(srcXrefs);
+		final AtomicInteger remaining = new AtomicInteger(refs.size());
+		if (refs.size() == 0) result.complete(mappings);
+		for (final Xref ref : refs)
+		{
+			mapIDAsync (ref, new Callback<Set<Xref>>() {
+				public void completed(Set<Xref> mapped)
+				{
+					// like mapID(Collection), leave out Xrefs that are not mapped
+					if (mapped.size() > 0)
+					{
+						synchronized (mappings)
+						{
+							mappings.put (ref, mapped);
+						}
+					}
+					if (remaining.decrementAndGet() == 0) result.complete(mappings);
+				}
+
+				public void failed(IDMapperException ex)
+				{
+					result.fail(ex);
+				}
+			}, tgtDataSources);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Future<Set<Xref>> mapIDAsync(final Xref ref, Callback<Set<Xref>> callback,
+			final DataSource... tgtDataSources)
+	{
+		return submit(new Callable<Set<Xref>>() {
+			public Set<Xref> call() throws IDMapperException
+			{
+				return mapID(ref, tgtDataSources);
+			}
+		}, callback);
+	}
+
+	/** {@inheritDoc} */
+	public Future<Boolean> xrefExistsAsync(final Xref xref, Callback<Boolean> callback)
+	{
+		return submit(new Callable<Boolean>() {
+			public Boolean call() throws IDMapperException
+			{
+				return xrefExists(xref);
+			}
+		}, callback);
+	}
+
+	/** {@inheritDoc} */
+	public Future<Set<Xref>> freeSearchAsync(final String text, final int limit, 
+			Callback<Set<Xref>> callback)
+	{
+		return submit(new Callable<Set<Xref>>() {
+			public Set<Xref> call() throws IDMapperException
+			{
+				return freeSearch(text, limit);
+			}
+		}, callback);
+	}
 
 	/** {@inheritDoc} */
 	public Set<Xref> freeSearch(String text, int limit)
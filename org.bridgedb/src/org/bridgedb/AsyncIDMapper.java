@@ -0,0 +1,99 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2013 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * An IDMapper that can also be queried without blocking the calling thread.
+ * <p>
+ * Each asynchronous method returns immediately with a {@link Future} for the result.
+ * Optionally, a {@link Callback} can be passed that is called when the result is available,
+ * so that callers that work with callbacks don't need to wait on the Future at all.
+ * The results are the same as those of the corresponding blocking methods of {@link IDMapper}.
+ * <p>
+ * Use {@link AsyncIDMapperAdapter} to query any IDMapper asynchronously.
+ */
+public interface AsyncIDMapper extends IDMapper
+{
+	/**
+	 * Receives the result of an asynchronous query.
+	 * The methods of a callback may be called from any thread,
+	 * and should return quickly.
+	 * @param <T> type of the result
+	 */
+	public interface Callback<T>
+	{
+		/**
+		 * Called when the query has finished successfully.
+		 * @param result the result of the query
+		 */
+		public void completed(T result);
+
+		/**
+		 * Called when the query has failed.
+		 * @param ex the reason of the failure
+		 */
+		public void failed(IDMapperException ex);
+	}
+
+	/**
+	 * Asynchronous version of {@link IDMapper#mapID(Collection, DataSource...)}.
+	 * @param srcXrefs source Xref, containing ID and ID type/data source
+	 * @param callback called when the mapping is done, may be null
+	 * @param tgtDataSources target ID types/data sources. Set this to null
+	 *   if you want to retrieve all results.
+	 * @return pending result. If the mapping fails, Future.get() throws an ExecutionException
+	 *   with the IDMapperException as cause.
+	 */
+	public Future<Map<Xref, Set<Xref>>> mapIDAsync(Collection<Xref> srcXrefs,
+			Callback<Map<Xref, Set<Xref>>> callback, DataSource... tgtDataSources);
+
+	/**
+	 * Asynchronous version of {@link IDMapper#mapID(Xref, DataSource...)}.
+	 * @param ref the entity to get cross-references for.
+	 * @param callback called when the mapping is done, may be null
+	 * @param tgtDataSources target ID types/data sources. Set this to null
+	 *   if you want to retrieve all results.
+	 * @return pending result. If the mapping fails, Future.get() throws an ExecutionException
+	 *   with the IDMapperException as cause.
+	 */
+	public Future<Set<Xref>> mapIDAsync(Xref ref, Callback<Set<Xref>> callback,
+			DataSource... tgtDataSources);
+
+	/**
+	 * Asynchronous version of {@link IDMapper#xrefExists(Xref)}.
+	 * @param xref reference to check
+	 * @param callback called when the answer is known, may be null
+	 * @return pending result. If the check fails, Future.get() throws an ExecutionException
+	 *   with the IDMapperException as cause.
+	 */
+	public Future<Boolean> xrefExistsAsync(Xref xref, Callback<Boolean> callback);
+
+	/**
+	 * Asynchronous version of {@link IDMapper#freeSearch(String, int)}.
+	 * @param text text to look for
+	 * @param limit up limit of number of hits
+	 * @param callback called when the search is done, may be null
+	 * @return pending result. If the search fails, Future.get() throws an ExecutionException
+	 *   with the IDMapperException as cause.
+	 */
+	public Future<Set<Xref>> freeSearchAsync(String text, int limit, Callback<Set<Xref>> callback);
+}
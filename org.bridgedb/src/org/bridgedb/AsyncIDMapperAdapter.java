@@ -0,0 +1,160 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2013 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import org.bridgedb.impl.AsyncResult;
+
+/**
+ * Makes any IDMapper available as {@link AsyncIDMapper}, by running
+ * the blocking queries of the IDMapper on an {@link Executor}.
+ * The number of threads used is determined by the executor,
+ * queries that can't be started right away wait in the queue of the executor.
+ * <p>
+ * The blocking methods are passed on to the IDMapper directly.
+ */
+public class AsyncIDMapperAdapter implements AsyncIDMapper
+{
+	private final IDMapper mapper;
+	private final Executor executor;
+
+	/**
+	 * @param mapper the IDMapper to query
+	 * @param executor executor to run the queries on. The adapter does not shut down the executor,
+	 * 	that is up to the caller.
+	 */
+	public AsyncIDMapperAdapter(IDMapper mapper, Executor executor)
+	{
+		if (mapper == null || executor == null) throw new NullPointerException();
+		this.mapper = mapper;
+		this.executor = executor;
+	}
+
+	/**
+	 * Get an asynchronous view of an IDMapper.
+	 * @param mapper the IDMapper to query
+	 * @param executor used if the mapper doesn't support asynchronous queries itself
+	 * @return mapper itself if it implements AsyncIDMapper, otherwise an adapter.
+	 */
+	public static AsyncIDMapper asAsync(IDMapper mapper, Executor executor)
+	{
+		if (mapper instanceof AsyncIDMapper) return (AsyncIDMapper)mapper;
+		return new AsyncIDMapperAdapter(mapper, executor);
+	}
+
+	/** @return the IDMapper that is queried by this adapter */
+	public IDMapper getMapper()
+	{
+		return mapper;
+	}
+
+	/** {@inheritDoc} */
+	public Future<Map<Xref, Set<Xref>>> mapIDAsync(final Collection<Xref> srcXrefs,
+			Callback<Map<Xref, Set<Xref>>> callback, final DataSource... tgtDataSources)
+	{
+		return AsyncResult.submit(executor, new Callable<Map<Xref, Set<Xref>>>() {
+			public Map<Xref, Set<Xref>> call() throws IDMapperException
+			{
+				return mapper.mapID(srcXrefs, tgtDataSources);
+			}
+		}, callback);
+	}
+
+	/** {@inheritDoc} */
+	public Future<Set<Xref>> mapIDAsync(final Xref ref, Callback<Set<Xref>> callback,
+			final DataSource... tgtDataSources)
+	{
+		return AsyncResult.submit(executor, new Callable<Set<Xref>>() {
+			public Set<Xref> call() throws IDMapperException
+			{
+				return mapper.mapID(ref, tgtDataSources);
+			}
+		}, callback);
+	}
+
+	/** {@inheritDoc} */
+	public Future<Boolean> xrefExistsAsync(final Xref xref, Callback<Boolean> callback)
+	{
+		return AsyncResult.submit(executor, new Callable<Boolean>() {
+			public Boolean call() throws IDMapperException
+			{
+				return mapper.xrefExists(xref);
+			}
+		}, callback);
+	}
+
+	/** {@inheritDoc} */
+	public Future<Set<Xref>> freeSearchAsync(final String text, final int limit,
+			Callback<Set<Xref>> callback)
+	{
+		return AsyncResult.submit(executor, new Callable<Set<Xref>>() {
+			public Set<Xref> call() throws IDMapperException
+			{
+				return mapper.freeSearch(text, limit);
+			}
+		}, callback);
+	}
+
+	/** {@inheritDoc} */
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources)
+			throws IDMapperException
+	{
+		return mapper.mapID(srcXrefs, tgtDataSources);
+	}
+
+	/** {@inheritDoc} */
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException
+	{
+		return mapper.mapID(ref, tgtDataSources);
+	}
+
+	/** {@inheritDoc} */
+	public boolean xrefExists(Xref xref) throws IDMapperException
+	{
+		return mapper.xrefExists(xref);
+	}
+
+	/** {@inheritDoc} */
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException
+	{
+		return mapper.freeSearch(text, limit);
+	}
+
+	/** {@inheritDoc} */
+	public IDMapperCapabilities getCapabilities()
+	{
+		return mapper.getCapabilities();
+	}
+
+	/** {@inheritDoc} */
+	public void close() throws IDMapperException
+	{
+		mapper.close();
+	}
+
+	/** {@inheritDoc} */
+	public boolean isConnected()
+	{
+		return mapper.isConnected();
+	}
+}
@@ -0,0 +1,460 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2013 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorator that caches the results of another IDMapper.
+ * <p>
+ * The results of mapID, xrefExists and getAttributes are cached. Other
+ * methods, such as freeSearch, are passed on to the child IDMapper directly.
+ * Entries are evicted when they have been in the cache for longer than the
+ * time to live, or when the cache is full, in which case the least recently
+ * used entries go first. The size of the cache is measured in cached Xrefs
+ * and attribute values, so a few large results can't use unbounded memory.
+ * <p>
+ * The cache is cleared when this IDMapper is closed, or when the child
+ * turns out to be disconnected.
+ * <p>
+ * This can also be used through BridgeDb.connect(), by putting "idmapper-cache:" in
+ * front of the connection string of the child, optionally with settings separated by an @ sign.
+ * For example:
+ * <pre>
+ * idmapper-cache:maxsize=100000,ttl=3600@idmapper-pgdb:/path/to/database.bridge
+ * </pre>
+ * where maxsize is the size of the cache and ttl is the time to live in seconds.
+ */
+public class CachingIDMapper implements IDMapper, AttributeMapper
+{
+	static
+	{
+		BridgeDb.register ("idmapper-cache", new Driver());
+	}
+
+	/** default maximum number of cached Xrefs and attribute values */
+	public static final int DEFAULT_MAX_SIZE = 100000;
+
+	/** Use this as time to live to keep entries until they are evicted because the cache is full. */
+	public static final long UNLIMITED_TTL = Long.MAX_VALUE;
+
+	/** Knows how to instantiate CachingIDMapper. */
+	private static final class Driver implements org.bridgedb.Driver
+	{
+		/** prevent outside instantiation. */
+		private Driver() {}
+
+		/** {@inheritDoc} */
+		public IDMapper connect(String location) throws IDMapperException
+		{
+			int maxSize = DEFAULT_MAX_SIZE;
+			long ttl = UNLIMITED_TTL;
+
+			// settings are before the first @, as long as that comes before the protocol of the child
+			int idx = location.indexOf("@");
+			if (idx > 0 && idx < location.indexOf(":"))
+			{
+				for (String setting : location.substring(0, idx).split(","))
+				{
+					String[] parts = setting.split("=", 2);
+					if (parts.length != 2)
+						throw new IDMapperException ("Could not parse cache setting '" + setting + "'");
+					try
+					{
+						if ("maxsize".equalsIgnoreCase(parts[0]))
+							maxSize = Integer.parseInt(parts[1].trim());
+						else if ("ttl".equalsIgnoreCase(parts[0]))
+							ttl = Long.parseLong(parts[1].trim()) * 1000;
+						else
+							throw new IDMapperException ("Unknown cache setting '" + parts[0] + "'");
+					}
+					catch (NumberFormatException ex)
+					{
+						throw new IDMapperException ("Could not parse cache setting '" + setting + "'", ex);
+					}
+				}
+				location = location.substring(idx + 1);
+			}
+			return new CachingIDMapper(BridgeDb.connect(location), maxSize, ttl);
+		}
+	}
+
+	private final IDMapper child;
+	private final long ttl;
+
+	/**
+	 * A single cache for all kinds of results, so that they share the size limit.
+	 * All access is synchronized on the map itself.
+	 */
+	private final Map<Object, Entry> cache = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+	private final int maxSize;
+	private int size = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Cache the results of an IDMapper, without expiry.
+	 * @param child IDMapper to cache results of
+	 */
+	public CachingIDMapper(IDMapper child)
+	{
+		this (child, DEFAULT_MAX_SIZE, UNLIMITED_TTL);
+	}
+
+	/**
+	 * Cache the results of an IDMapper.
+	 * @param child IDMapper to cache results of
+	 * @param maxSize maximum number of Xrefs and attribute values in the cache
+	 * @param ttl time to live of cache entries, in milliseconds, or UNLIMITED_TTL
+	 */
+	public CachingIDMapper(IDMapper child, int maxSize, long ttl)
+	{
+		if (child == null) throw new NullPointerException();
+		if (maxSize < 0) throw new IllegalArgumentException("Cache size can't be negative");
+		if (ttl <= 0) throw new IllegalArgumentException("Time to live must be positive");
+		this.child = child;
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+	}
+
+	/** @return the IDMapper that this is caching results of */
+	public IDMapper getChild()
+	{
+		return child;
+	}
+
+	/** @return number of requests that were answered from the cache */
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	/** @return number of requests that had to be passed on to the child IDMapper */
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	/** @return current number of Xrefs and attribute values in the cache */
+	public int getCacheSize()
+	{
+		synchronized (cache)
+		{
+			return size;
+		}
+	}
+
+	/** @return maximum number of Xrefs and attribute values in the cache */
+	public int getMaxCacheSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * Remove all entries from the cache. Use this when the data of the child has changed.
+	 * The hit and miss counters are not reset.
+	 */
+	public void invalidate()
+	{
+		synchronized (cache)
+		{
+			cache.clear();
+			size = 0;
+		}
+	}
+
+	/** A cached result, with its time of creation. */
+	private static class Entry
+	{
+		private final Object value;
+		private final int weight;
+		private final long created = System.currentTimeMillis();
+
+		Entry (Object value, int weight)
+		{
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Key for cached results. Consists of the name of the method and
+	 * the arguments that determine the result.
+	 */
+	private static class Key
+	{
+		private final Object[] parts;
+
+		Key (Object... parts)
+		{
+			this.parts = parts;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Arrays.hashCode(parts);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return o instanceof Key && Arrays.equals(parts, ((Key)o).parts);
+		}
+	}
+
+	/**
+	 * Look up an entry, and update the hit and miss counters.
+	 * @return the cached value, or null if there is none or it has expired.
+	 */
+	private Object get(Key key)
+	{
+		synchronized (cache)
+		{
+			Entry entry = cache.get(key);
+			if (entry != null && ttl != UNLIMITED_TTL &&
+					System.currentTimeMillis() - entry.created > ttl)
+			{
+				cache.remove(key);
+				size -= entry.weight;
+				entry = null;
+			}
+			if (entry == null)
+			{
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return entry.value;
+		}
+	}
+
+	/**
+	 * Store a value, and evict least recently used entries until the cache fits again.
+	 * @param weight number of Xrefs or attribute values in value, used for the size limit.
+	 */
+	private void put(Key key, Object value, int weight)
+	{
+		// count the entry itself as well, so that empty results are bounded too.
+		Entry entry = new Entry (value, weight + 1);
+		synchronized (cache)
+		{
+			Entry old = cache.put(key, entry);
+			if (old != null) size -= old.weight;
+			size += entry.weight;
+			Iterator<Entry> it = cache.values().iterator();
+			while (size > maxSize && it.hasNext())
+			{
+				size -= it.next().weight;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Clears the cache if the child is no longer connected,
+	 * so that stale results aren't served after a reconnect.
+	 */
+	private void checkConnected()
+	{
+		if (!child.isConnected()) invalidate();
+	}
+
+	/** {@inheritDoc} */
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources)
+			throws IDMapperException
+	{
+		checkConnected();
+		Set<DataSource> tgt = new HashSet<DataSource>(Arrays.asList(tgtDataSources));
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		List<Xref> todo = new ArrayList<Xref>();
+		for (Xref ref : srcXrefs)
+		{
+			@SuppressWarnings("unchecked")
+			Set<Xref> cached = (Set<Xref>)get(new Key("mapID", ref, tgt));
+			if (cached == null) todo.add(ref);
+			else if (cached.size() > 0) result.put(ref, new HashSet<Xref>(cached));
+		}
+		if (todo.size() > 0)
+		{
+			Map<Xref, Set<Xref>> mapped = child.mapID(todo, tgtDataSources);
+			for (Xref ref : todo)
+			{
+				Set<Xref> refs = mapped.get(ref);
+				if (refs == null) refs = Collections.emptySet();
+				put (new Key("mapID", ref, tgt), new HashSet<Xref>(refs), refs.size());
+				if (refs.size() > 0) result.put(ref, refs);
+			}
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException
+	{
+		checkConnected();
+		Key key = new Key("mapID", ref, new HashSet<DataSource>(Arrays.asList(tgtDataSources)));
+		@SuppressWarnings("unchecked")
+		Set<Xref> cached = (Set<Xref>)get(key);
+		if (cached != null) return new HashSet<Xref>(cached);
+
+		Set<Xref> result = child.mapID(ref, tgtDataSources);
+		put (key, new HashSet<Xref>(result), result.size());
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public boolean xrefExists(Xref xref) throws IDMapperException
+	{
+		checkConnected();
+		Key key = new Key("xrefExists", xref);
+		Boolean cached = (Boolean)get(key);
+		if (cached != null) return cached;
+
+		boolean result = child.xrefExists(xref);
+		put (key, result, 0);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException
+	{
+		return child.freeSearch(text, limit);
+	}
+
+	/** {@inheritDoc} */
+	public IDMapperCapabilities getCapabilities()
+	{
+		return child.getCapabilities();
+	}
+
+	/**
+	 * Closes the child IDMapper, and clears the cache.
+	 * @throws IDMapperException when the child could not be closed.
+	 */
+	public void close() throws IDMapperException
+	{
+		invalidate();
+		child.close();
+	}
+
+	/** {@inheritDoc} */
+	public boolean isConnected()
+	{
+		return child.isConnected();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Returns an empty set if the child is not an AttributeMapper.
+	 */
+	public Set<String> getAttributes(Xref ref, String attrType) throws IDMapperException
+	{
+		if (!(child instanceof AttributeMapper)) return Collections.emptySet();
+		checkConnected();
+		Key key = new Key("getAttributes", ref, attrType);
+		@SuppressWarnings("unchecked")
+		Set<String> cached = (Set<String>)get(key);
+		if (cached != null) return new HashSet<String>(cached);
+
+		Set<String> result = ((AttributeMapper)child).getAttributes(ref, attrType);
+		put (key, new HashSet<String>(result), result.size());
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Returns an empty map if the child is not an AttributeMapper.
+	 */
+	public Map<String, Set<String>> getAttributes(Xref ref) throws IDMapperException
+	{
+		if (!(child instanceof AttributeMapper)) return Collections.emptyMap();
+		checkConnected();
+		Key key = new Key("getAllAttributes", ref);
+		@SuppressWarnings("unchecked")
+		Map<String, Set<String>> cached = (Map<String, Set<String>>)get(key);
+		if (cached != null) return copy(cached);
+
+		Map<String, Set<String>> result = ((AttributeMapper)child).getAttributes(ref);
+		int weight = 0;
+		for (Set<String> values : result.values()) weight += values.size();
+		put (key, copy(result), weight);
+		return result;
+	}
+
+	/** deep copy of an attribute map, so that callers can't modify cached values */
+	private static Map<String, Set<String>> copy(Map<String, Set<String>> attributes)
+	{
+		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> e : attributes.entrySet())
+		{
+			result.put(e.getKey(), new HashSet<String>(e.getValue()));
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public boolean isFreeAttributeSearchSupported()
+	{
+		return child instanceof AttributeMapper &&
+			((AttributeMapper)child).isFreeAttributeSearchSupported();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Returns an empty map if the child is not an AttributeMapper.
+	 */
+	public Map<Xref, String> freeAttributeSearch(String query, String attrType, int limit)
+			throws IDMapperException
+	{
+		if (!(child instanceof AttributeMapper)) return Collections.emptyMap();
+		return ((AttributeMapper)child).freeAttributeSearch(query, attrType, limit);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Returns an empty map if the child is not an AttributeMapper.
+	 */
+	public Map<Xref, Set<String>> freeAttributeSearchEx(String query, String attrType, int limit)
+			throws IDMapperException
+	{
+		if (!(child instanceof AttributeMapper)) return Collections.emptyMap();
+		return ((AttributeMapper)child).freeAttributeSearchEx(query, attrType, limit);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Returns an empty set if the child is not an AttributeMapper.
+	 */
+	public Set<String> getAttributeSet() throws IDMapperException
+	{
+		if (!(child instanceof AttributeMapper)) return Collections.emptySet();
+		return ((AttributeMapper)child).getAttributeSet();
+	}
+}
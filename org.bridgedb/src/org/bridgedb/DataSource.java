@@ -19,11 +19,12 @@ package org.bridgedb;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
 Contains information about a certain DataSource. This includes:
@@ -52,6 +53,11 @@ handle unknown data sources in the same
 way as predefined ones.
 <p>
 Definitions for common DataSources can be found in {@link org.bridgedb.bio.BioDataSource}.
+<p>
+Each DataSource gets a small, dense ordinal number when it is created, which 
+can be used to index arrays or BitSets by DataSource. 
+Lookups don't take any locks, registration of new DataSources is synchronized,
+so DataSources can be used and registered from multiple threads.
 */
 public final class DataSource
 {
@@ -59,11 +65,22 @@ public final class DataSource
     private static final String IDENTIFIERS_ORG_PREFIX = "http://identifiers.org/";
     public static final String UNKOWN = "unknown";
 
-    private static Map<String, DataSource> bySysCode = new HashMap<String, DataSource>();
-	private static Map<String, DataSource> byFullName = new HashMap<String, DataSource>();
-	private static Set<DataSource> registry = new HashSet<DataSource>();
-	private static Map<String, DataSource> byAlias = new HashMap<String, DataSource>();
-	private static Map<String, DataSource> byMiriamBase = new HashMap<String, DataSource>();
+    /** guards registration of new DataSources, lookups don't need it */
+    private static final Object REGISTRY_LOCK = new Object();
+    
+    private static Map<String, DataSource> bySysCode = new ConcurrentHashMap<String, DataSource>();
+	private static Map<String, DataSource> byFullName = new ConcurrentHashMap<String, DataSource>();
+	private static Set<DataSource> registry = Collections.newSetFromMap(new ConcurrentHashMap<DataSource, Boolean>());
+	private static Map<String, DataSource> byAlias = new ConcurrentHashMap<String, DataSource>();
+	private static Map<String, DataSource> byMiriamBase = new ConcurrentHashMap<String, DataSource>();
+	
+	/** all DataSources, indexed by ordinal. Copied on write, so readers see a consistent array. */
+	private static volatile DataSource[] byOrdinal = new DataSource[0];
+	
+	/** system codes of up to four characters, packed in a long, for lookups without allocation */
+	private static volatile SysCodeTable bySysCodeFast = new SysCodeTable(new DataSource[0]);
+	
+	private final int ordinal;
 	
 	private String sysCode = null;
 	private String fullName = null;
@@ -90,13 +107,94 @@ public final class DataSource
     private DataSource (String sysCode, String fullName) {
         this.sysCode = sysCode;
         this.fullName = fullName;
+        // only called while holding REGISTRY_LOCK
+        DataSource[] ordinals = new DataSource[byOrdinal.length + 1];
+        System.arraycopy(byOrdinal, 0, ordinals, 0, byOrdinal.length);
+        ordinal = byOrdinal.length;
+        ordinals[ordinal] = this;
+        byOrdinal = ordinals;
 		if (isSuitableKey(sysCode)) {
             bySysCode.put(sysCode, this);
+            bySysCodeFast = new SysCodeTable(ordinals);
         }
 		if (isSuitableKey(fullName)) {
             byFullName.put(fullName, this);
         }
     }
+    
+    /**
+     * Open addressing hash table from packed system code to DataSource. 
+     * Immutable, a new one is created when a DataSource with a system code is registered.
+     */
+    private static final class SysCodeTable
+    {
+    	/** longest system code that can be packed in a long */
+    	private static final int MAX_PACKED_LENGTH = 4;
+    	
+    	private final long[] keys;
+    	private final DataSource[] values;
+    	private final int mask;
+    	
+    	/**
+    	 * @param dataSources all registered DataSources
+    	 */
+    	SysCodeTable(DataSource[] dataSources)
+    	{
+    		int capacity = 8;
+    		while (capacity < dataSources.length * 2) capacity <<= 1;
+    		keys = new long[capacity];
+    		values = new DataSource[capacity];
+    		mask = capacity - 1;
+    		for (DataSource ds : dataSources)
+    		{
+    			if (!isSuitableKey(ds.sysCode)) continue;
+    			long key = pack(ds.sysCode);
+    			if (key == 0) continue;
+    			int i = slot(key);
+    			while (values[i] != null) i = (i + 1) & mask;
+    			keys[i] = key;
+    			values[i] = ds;
+    		}
+    	}
+    	
+    	/**
+    	 * @param code system code
+    	 * @return the characters of the code packed in a long, or 0 if code is too long or empty
+    	 */
+    	static long pack(CharSequence code)
+    	{
+    		int len = code.length();
+    		if (len == 0 || len > MAX_PACKED_LENGTH) return 0;
+    		long result = 0;
+    		for (int i = 0; i < len; ++i)
+    		{
+    			// +1 so that trailing zero characters are distinguished from shorter codes
+    			result = (result << 16) | (code.charAt(i) + 1);
+    		}
+    		return result;
+    	}
+    	
+    	private int slot(long key)
+    	{
+    		long h = key * 0x9E3779B97F4A7C15L;
+    		return (int)(h >>> 32) & mask;
+    	}
+    	
+    	/**
+    	 * @param key packed system code, not 0
+    	 * @return DataSource with that system code, or null
+    	 */
+    	DataSource get(long key)
+    	{
+    		int i = slot(key);
+    		while (values[i] != null)
+    		{
+    			if (keys[i] == key) return values[i];
+    			i = (i + 1) & mask;
+    		}
+    		return null;
+    	}
+    }
 	
 	/** 
 	 * Turn id into url pointing to info page on the web, e.g. "http://www.ensembl.org/get?id=ENSG..."
@@ -517,15 +615,17 @@ public final class DataSource
 		}
         
         private Builder miriamBase(String base){
-            if (current.miriamBase == null){
-                current.miriamBase = base;
-                byMiriamBase.put(base, current);
-            } else {
-                if (!current.miriamBase.equals(base)){
-                    throw new IllegalArgumentException("Illegal attempt to change miriam base for " + current 
-                            + " from " + current.miriamBase + " to " + base);
+            synchronized (REGISTRY_LOCK) {
+                if (current.miriamBase == null){
+                    current.miriamBase = base;
+                    byMiriamBase.put(base, current);
+                } else {
+                    if (!current.miriamBase.equals(base)){
+                        throw new IllegalArgumentException("Illegal attempt to change miriam base for " + current 
+                                + " from " + current.miriamBase + " to " + base);
+                    }
                 }
-            }           
+            }
 			return this;            
         }
         
@@ -597,10 +697,23 @@ public final class DataSource
             
     private static Builder findOrRegister(String sysCode, String fullName)
 	{
- 		DataSource current = null;
 		if (fullName == null && sysCode == null) throw new NullPointerException();
-		
-		if (byFullName.containsKey(fullName))
+		synchronized (REGISTRY_LOCK)
+		{
+			return new Builder(findOrCreate(sysCode, fullName));
+		}
+	}
+    
+    /** 
+     * Helper for findOrRegister, must be called while holding REGISTRY_LOCK.
+     * @param sysCode system code, may be null
+     * @param fullName full name, may be null 
+     * @return existing or new DataSource
+     */
+    private static DataSource findOrCreate(String sysCode, String fullName)
+	{
+ 		DataSource current = null;
+		if (fullName != null && byFullName.containsKey(fullName))
 		{
 			current = byFullName.get(fullName);
             if (sysCode ==null){
@@ -616,7 +729,7 @@ public final class DataSource
                 
             }
 		}
-		else if (bySysCode.containsKey(sysCode))
+		else if (sysCode != null && bySysCode.containsKey(sysCode))
 		{
             current = bySysCode.get(sysCode);
             if (fullName ==null){
@@ -638,7 +751,7 @@ public final class DataSource
 			registry.add (current);
 		}
 		
-		return new Builder(current);
+		return current;
 	}
     
 	public void registerAlias(String alias)
@@ -666,13 +779,36 @@ public final class DataSource
 	 */
 	public static DataSource getBySystemCode(String systemCode)
 	{
-		if (!bySysCode.containsKey(systemCode) && isSuitableKey(systemCode))
+		if (!isSuitableKey(systemCode)) return null;
+		DataSource result = findBySystemCode(systemCode);
+		if (result != null) return result;
+		synchronized (REGISTRY_LOCK)
 		{
-            System.err.println("Warning creating a new DataSource with systemCode " + systemCode 
-                    + " and null fullName!");
-			findOrRegister (systemCode, null);
+			if (!bySysCode.containsKey(systemCode))
+			{
+	            System.err.println("Warning creating a new DataSource with systemCode " + systemCode 
+	                    + " and null fullName!");
+				findOrCreate (systemCode, null);
+			}
+			return bySysCode.get(systemCode);
 		}
-		return bySysCode.get(systemCode);
+	}
+	
+	/**
+	 * Look up a DataSource by system code, without creating a new one. 
+	 * Short system codes (up to four characters, which includes all the common ones) are
+	 * resolved without allocating any objects, so this can be called for each row of a large
+	 * result set or file, even with a reused buffer.
+	 * @param systemCode system code to look for 
+	 * @return the DataSource with that system code, or null if there is none.
+	 */
+	public static DataSource findBySystemCode(CharSequence systemCode)
+	{
+		if (systemCode == null) return null;
+		long key = SysCodeTable.pack(systemCode);
+		if (key != 0) return bySysCodeFast.get(key);
+		if (systemCode.length() == 0) return null;
+		return bySysCode.get(systemCode.toString());
 	}
 	
 	/** 
@@ -682,8 +818,9 @@ public final class DataSource
 	 */
 	public static DataSource getExistingBySystemCode(String systemCode)
 	{
-		if (bySysCode.containsKey(systemCode)){
-    		return bySysCode.get(systemCode);
+		DataSource result = findBySystemCode(systemCode);
+		if (result != null){
+    		return result;
 		}
         throw new IllegalArgumentException("No DataSource known for " + systemCode);
 	}
@@ -696,7 +833,7 @@ public final class DataSource
      * @Since Version 2.0.0
      */
     public static boolean systemCodeExists(String systemCode){
-        return bySysCode.containsKey(systemCode);
+        return findBySystemCode(systemCode) != null;
     }
     
     /** 
@@ -709,13 +846,19 @@ public final class DataSource
 	 */
 	public static DataSource getByFullName(String fullName)
 	{
-		if (!byFullName.containsKey(fullName) && isSuitableKey(fullName))
+		if (!isSuitableKey(fullName)) return null;
+		DataSource result = byFullName.get(fullName);
+		if (result != null) return result;
+		synchronized (REGISTRY_LOCK)
 		{
-            System.err.println("Warning creating a new DataSource with fullName " + fullName 
-                    + " and null systemCode!");
-			findOrRegister (null, fullName);
+			if (!byFullName.containsKey(fullName))
+			{
+	            System.err.println("Warning creating a new DataSource with fullName " + fullName 
+	                    + " and null systemCode!");
+				findOrCreate (null, fullName);
+			}
+			return byFullName.get(fullName);
 		}
-		return byFullName.get(fullName);
 	}
 	
 	/** 
@@ -726,7 +869,7 @@ public final class DataSource
 	 */
 	public static DataSource getExistingByFullName(String fullName)
 	{
-		if (byFullName.containsKey(fullName)){
+		if (fullName != null && byFullName.containsKey(fullName)){
     		return byFullName.get(fullName);
         }
         throw new IllegalArgumentException ("No DataSource known for " + fullName);
@@ -740,13 +883,41 @@ public final class DataSource
      * @Since Version 2.0.0
      */
     public static boolean fullNameExists(String fullName){
-        return byFullName.containsKey(fullName);
+        return fullName != null && byFullName.containsKey(fullName);
     }
     
 	public static DataSource getByAlias(String alias)
 	{
+		if (alias == null) return null;
 		return byAlias.get(alias);
 	}
+	
+	/**
+	 * @return the ordinal of this DataSource. Ordinals are assigned in order of creation,
+	 * 	starting at 0, without gaps. 
+	 */
+	public int getOrdinal()
+	{
+		return ordinal;
+	}
+	
+	/**
+	 * @param ordinal ordinal of a DataSource
+	 * @return the DataSource with the given ordinal
+	 * @throws IndexOutOfBoundsException if there is no DataSource with this ordinal
+	 */
+	public static DataSource getByOrdinal(int ordinal)
+	{
+		return byOrdinal[ordinal];
+	}
+	
+	/**
+	 * @return the number of DataSources created so far. All ordinals are lower than this.
+	 */
+	public static int getOrdinalCount()
+	{
+		return byOrdinal.length;
+	}
 
 	/**
 		get all registered datasoures as a set.
@@ -877,13 +1048,16 @@ public final class DataSource
 			return null;
 		}
         String key = base.substring(URN_PREFIX.length());      
-        if (byMiriamBase.containsKey(key)){
-            return byMiriamBase.get(key);
+        synchronized (REGISTRY_LOCK)
+        {
+	        if (byMiriamBase.containsKey(key)){
+	            return byMiriamBase.get(key);
+	        }
+	        DataSource current = getByFullName(key);
+	        current.miriamBase = key;
+	        byMiriamBase.put (key, current);
+	        return current;
         }
-        DataSource current = getByFullName(key);
-        current.miriamBase = key;
-        byMiriamBase.put (key, current);
-        return current;
 	}
 
 	/**
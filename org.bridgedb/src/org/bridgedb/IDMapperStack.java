@@ -18,14 +18,30 @@ package org.bridgedb;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import org.bridgedb.impl.AsyncResult;
+import org.bridgedb.impl.MappingSupportCache;
+import org.bridgedb.impl.RoutingIndex;
 import org.bridgedb.impl.TransitiveGraph;
 
 /**
@@ -52,23 +68,148 @@ import org.bridgedb.impl.TransitiveGraph;
  * loop free paths in this graph. We consider a path p to be loop free 
  * if no data source in p is reached twice by the same IDMapper.
  * <p>
- * The mapping graph for transitive maps is retained and re-calculated
- * whenever an IDMapper is added or removed from this IDMapperStack.
- * 
+ * The mapping graph for transitive maps is calculated when it is first needed, 
+ * and retained. When an IDMapper is added or removed, only the paths 
+ * through that IDMapper are updated. Queries that are running at the same time 
+ * keep using the graph they started with.
+ * <p>
+ * By default the child databases are queried one after the other. 
+ * If an {@link ExecutorService} is set with {@link #setExecutor(ExecutorService)}, 
+ * non-transitive queries are sent to all connected children concurrently, 
+ * so that the latency of the stack is that of the slowest child instead of the sum.
+ * The results are merged in the same order as in sequential mode.
+ * <p>
+ * In non-transitive mode, mapping requests are only sent to children that support
+ * at least one of the requested combinations of source and target DataSource.
+ * <p>
+ * The stack also implements {@link AsyncIDMapper}. Children that implement AsyncIDMapper
+ * themselves are queried without blocking, other children are queried on the executor,
+ * or in the calling thread if no executor is set. 
+ * Transitive queries are run on the executor as a whole.
  */
-public class IDMapperStack implements IDMapper, AttributeMapper
+public class IDMapperStack implements IDMapper, AttributeMapper, AsyncIDMapper
 {
 	// reference shared with TransitiveGraph
 	private final List<IDMapper> gdbs = new CopyOnWriteArrayList<IDMapper>();
 
-	/** Helper class for calculating transitive paths */
-	private TransitiveGraph transitiveGraph = null;
+	/** 
+	 * Helper class for calculating transitive paths. Immutable, 
+	 * replaced under graphLock when the child list or the maximum path length changes.
+	 */
+	private volatile TransitiveGraph transitiveGraph = null;
+	
+	private final Object graphLock = new Object();
 	
 	private TransitiveGraph getTransitiveGraph() throws IDMapperException
 	{
-		if (transitiveGraph == null)
-			transitiveGraph = new TransitiveGraph(gdbs);
-		return transitiveGraph;
+		TransitiveGraph result = transitiveGraph;
+		if (result != null) return result;
+		synchronized (graphLock)
+		{
+			if (transitiveGraph == null)
+				transitiveGraph = new TransitiveGraph(gdbs, maxPathLength);
+			return transitiveGraph;
+		}
+	}
+	
+	/** source of capability versions, shared by all stacks so that versions are never reused */
+	private static final AtomicLong CHANGES = new AtomicLong();
+	
+	/** set from CHANGES each time the child list of this stack changes */
+	private volatile long childListVersion = CHANGES.incrementAndGet();
+	
+	/**
+	 * The capabilities of a stack change when children are added or removed, 
+	 * either to this stack or to a stack nested in it. 
+	 * Each such change gets a higher number than any change before it,
+	 * so a cache that is built from the children is up to date as long as this
+	 * returns the same number as when the cache was built.
+	 * @return version of the capabilities of this stack.
+	 */
+	private long getCapabilityVersion()
+	{
+		long result = childListVersion;
+		for (IDMapper child : gdbs)
+		{
+			if (child instanceof IDMapperStack)
+				result = Math.max(result, ((IDMapperStack)child).getCapabilityVersion());
+		}
+		return result;
+	}
+	
+	/** 
+	 * Something that is calculated from the capabilities of the children, 
+	 * with the capability version it was calculated for. 
+	 */
+	private static final class Versioned<T>
+	{
+		private final T value;
+		private final long version;
+		
+		Versioned(T value, long version)
+		{
+			this.value = value;
+			this.version = version;
+		}
+	}
+	
+	/**
+	 * Index of the mappings supported by each child, for non-transitive mode. 
+	 * Immutable, rebuilt under graphLock when the capabilities of the children change.
+	 */
+	private volatile Versioned<RoutingIndex> routingIndex = null;
+	
+	private RoutingIndex getRoutingIndex()
+	{
+		long version = getCapabilityVersion();
+		Versioned<RoutingIndex> result = routingIndex;
+		if (result != null && result.version == version) return result.value;
+		synchronized (graphLock)
+		{
+			if (routingIndex == null || routingIndex.version != version)
+				routingIndex = new Versioned<RoutingIndex>(new RoutingIndex(gdbs), version);
+			return routingIndex.value;
+		}
+	}
+	
+	/**
+	 * @param srcXrefs source Xrefs of a mapping request
+	 * @param tgtDataSources target DataSources of a mapping request
+	 * @return connected children that support mapping from at least one of the 
+	 * 	sources to one of the targets. 
+	 */
+	private List<IDMapper> getRoutedChildren(Collection<Xref> srcXrefs, DataSource... tgtDataSources)
+	{
+		Set<DataSource> srcs = new HashSet<DataSource>();
+		for (Xref ref : srcXrefs) srcs.add (ref.getDataSource());
+		return getRoutingIndex().route(getQueryableChildren(false), srcs, tgtDataSources);
+	}
+	
+	private volatile int maxPathLength = TransitiveGraph.UNLIMITED_PATH_LENGTH;
+	
+	/**
+	 * Limit the number of steps in transitive mappings. With many child
+	 * IDMappers, the number of possible paths grows quickly, this can be used to bound it. 
+	 * @param value maximum number of child IDMappers used for a single transitive mapping, 
+	 * 	or TransitiveGraph.UNLIMITED_PATH_LENGTH (the default) for no limit.
+	 */
+	public void setMaxPathLength(int value)
+	{
+		if (value < 1) throw new IllegalArgumentException("Maximum path length must be at least 1");
+		synchronized (graphLock)
+		{
+			maxPathLength = value;
+			if (transitiveGraph != null)
+				transitiveGraph = transitiveGraph.withMaxPathLength(value);
+		}
+	}
+	
+	/**
+	 * @return maximum number of steps in transitive mappings.
+	 */
+	public int getMaxPathLength()
+	{
+		return maxPathLength;
 	}
 
 	/**
@@ -86,13 +227,30 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 
 	/**
 	 * Add an existing IDMapper to the stack.
+	 * If the mapping graph has already been calculated, only the paths 
+	 * through the new IDMapper are added to it.
 	 * @param idMapper IDMapper to be added.
 	 */
     public void addIDMapper(IDMapper idMapper)
     {
         if (idMapper!=null) {
-            gdbs.add(idMapper);
-            transitiveGraph = null; // trigger rebuild.
+            synchronized (graphLock)
+            {
+                gdbs.add(idMapper);
+                childListVersion = CHANGES.incrementAndGet();
+                if (transitiveGraph != null)
+                {
+                    try
+                    {
+                        transitiveGraph = transitiveGraph.withMapper(idMapper);
+                    }
+                    catch (IDMapperException ex)
+                    {
+                        // capabilities not available now, try again with a full rebuild later 
+                        transitiveGraph = null;
+                    }
+                }
+            }
         }
     }
     
@@ -116,16 +274,364 @@ public class IDMapperStack implements IDMapper, AttributeMapper
     	return isTransitive;
     }
     
+    private volatile ExecutorService executor = null;
+    
+    /**
+     * Enable parallel mode, where child databases are queried concurrently.
+     * The stack does not shut down the executor, that is up to the caller.
+     * @param value executor to run the child queries on, or null to query children 
+     * 	one after the other (the default).
+     */
+    public void setExecutor(ExecutorService value)
+    {
+    	executor = value;
+    }
+    
+    /**
+     * @return the executor used in parallel mode, or null if the stack is in sequential mode.
+     */
+    public ExecutorService getExecutor()
+    {
+    	return executor;
+    }
+    
+    /** A query that is sent to each of the child databases. */
+    private interface ChildQuery<T>
+    {
+    	/**
+    	 * @param child the child to query, guaranteed to be connected 
+    	 * @return the result of the child
+    	 * @throws IDMapperException if the child failed
+    	 */
+    	T query(IDMapper child) throws IDMapperException;
+    }
+    
+    /**
+     * @param attributeMappersOnly if true, only include children that implement AttributeMapper 
+     * @return children that are connected and can be queried.
+     */
+    private List<IDMapper> getQueryableChildren(boolean attributeMappersOnly)
+    {
+    	List<IDMapper> result = new ArrayList<IDMapper>();
+    	for (IDMapper child : gdbs)
+    	{
+    		if (child != null && child.isConnected() && 
+    				(!attributeMappersOnly || child instanceof AttributeMapper))
+    		{
+    			result.add (child);
+    		}
+    	}
+    	return result;
+    }
+    
+    /**
+     * Send a query to each of the given children, either sequentially or in parallel
+     * depending on whether an executor is set.
+     * @param children children to query
+     * @param query the query to run
+     * @return the results, in the same order as the children.
+     * @throws IDMapperException if one of the children failed. In parallel mode, 
+     * 	the remaining queries are cancelled.
+     */
+    private <T> List<T> queryChildren(List<IDMapper> children, final ChildQuery<T> query) throws IDMapperException
+    {
+    	List<T> result = new ArrayList<T>();
+    	final ExecutorService exec = executor;
+    	if (exec == null || children.size() < 2)
+    	{
+    		for (IDMapper child : children)
+    		{
+    			result.add (query.query(child));
+    		}
+    		return result;
+    	}
+    	
+    	List<Future<T>> futures = new ArrayList<Future<T>>();
+    	try
+    	{
+    		for (final IDMapper child : children)
+    		{
+    			futures.add (exec.submit(new Callable<T>() {
+    				public T call() throws IDMapperException
+    				{
+    					return query.query(child);
+    				}
+    			}));
+    		}
+    		for (Future<T> future : futures)
+    		{
+    			result.add (getResult(future));
+    		}
+    		return result;
+    	}
+    	finally
+    	{
+    		// no-op for completed futures, cancels the rest after a failure
+    		for (Future<T> future : futures) future.cancel(true);
+    	}
+    }
+    
+    /**
+     * Wait for the result of a child query. 
+     * @param future pending result of a child query
+     * @return the result
+     * @throws IDMapperException if the child query failed or the calling thread was interrupted 
+     */
+    private static <T> T getResult(Future<T> future) throws IDMapperException
+    {
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IDMapperException ("Interrupted while waiting for child IDMapper", ex);
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof IDMapperException) throw (IDMapperException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new IDMapperException (cause);
+		}
+    }
+    
+    /** A query that is sent to each of the child databases, without blocking the caller. */
+    private interface AsyncChildQuery<T> extends ChildQuery<T>
+    {
+    	/**
+    	 * Start the query on a child that supports asynchronous queries.
+    	 * @param child the child to query, guaranteed to be connected 
+    	 * @param callback to pass the result of the child to
+    	 */
+    	void queryAsync(AsyncIDMapper child, Callback<T> callback);
+    }
+    
+    /**
+     * Start a query on each of the given children, without waiting for them. 
+     * Children that implement AsyncIDMapper are queried asynchronously, 
+     * others are queried on the executor, or in the calling thread if there is no executor.
+     * @param children children to query
+     * @param query the query to run
+     * @param callback receives the results, in the same order as the children, 
+     * 	or the first failure.
+     */
+    private <T> void queryChildrenAsync(List<IDMapper> children, final AsyncChildQuery<T> query, 
+    		final Callback<List<T>> callback)
+    {
+    	final int size = children.size();
+    	final AtomicReferenceArray<T> results = new AtomicReferenceArray<T>(size);
+    	final AtomicInteger remaining = new AtomicInteger(size);
+    	if (size == 0) 
+    	{
+    		callback.completed(new ArrayList<T>());
+    		return;
+    	}
+    	for (int i = 0; i < size; ++i)
+    	{
+    		final int index = i;
+    		final IDMapper child = children.get(i);
+    		final Callback<T> childCallback = new Callback<T>() 
+    		{
+    			public void completed(T result)
+    			{
+    				results.set(index, result);
+    				if (remaining.decrementAndGet() == 0)
+    				{
+    					List<T> list = new ArrayList<T>();
+    					for (int j = 0; j < size; ++j) list.add (results.get(j));
+    					callback.completed(list);
+    				}
+    			}
+    			
+    			public void failed(IDMapperException ex)
+    			{
+    				// make sure completed is never reached, and report only the first failure
+    				if (remaining.getAndSet(-1) > 0) callback.failed(ex);
+    			}
+    		};
+    		if (child instanceof AsyncIDMapper)
+    		{
+    			query.queryAsync((AsyncIDMapper)child, childCallback);
+    		}
+    		else
+    		{
+    			AsyncResult.submit(executor, new Callable<T>() {
+    				public T call() throws IDMapperException
+    				{
+    					return query.query(child);
+    				}
+    			}, childCallback);
+    		}
+    	}
+    }
+    
+	/** {@inheritDoc} */
+	public Future<Map<Xref, Set<Xref>>> mapIDAsync(final Collection<Xref> srcXrefs,
+			Callback<Map<Xref, Set<Xref>>> callback, final DataSource... tgtDataSources)
+	{
+		if (isTransitive)
+		{
+			return AsyncResult.submit(executor, new Callable<Map<Xref, Set<Xref>>>() {
+				public Map<Xref, Set<Xref>> call() throws IDMapperException
+				{
+					return mapIDtransitive(srcXrefs, tgtDataSources);
+				}
+			}, callback);
+		}
+		final AsyncResult<Map<Xref, Set<Xref>>> result = new AsyncResult<Map<Xref, Set<Xref>>>(callback);
+		queryChildrenAsync(getRoutedChildren(srcXrefs, tgtDataSources), new AsyncChildQuery<Map<Xref, Set<Xref>>>() {
+			public Map<Xref, Set<Xref>> query(IDMapper child) throws IDMapperException
+			{
+				return child.mapID(srcXrefs, tgtDataSources);
+			}
+			
+			public void queryAsync(AsyncIDMapper child, Callback<Map<Xref, Set<Xref>>> childCallback)
+			{
+				child.mapIDAsync(srcXrefs, childCallback, tgtDataSources);
+			}
+		}, new Callback<List<Map<Xref, Set<Xref>>>>() {
+			public void completed(List<Map<Xref, Set<Xref>>> childResults)
+			{
+				result.complete(mergeMappings(childResults));
+			}
+			
+			public void failed(IDMapperException ex)
+			{
+				result.fail(ex);
+			}
+		});
+		return result;
+	}
+	
+	/** {@inheritDoc} */
+	public Future<Set<Xref>> mapIDAsync(final Xref ref, Callback<Set<Xref>> callback, 
+			final DataSource... tgtDataSources)
+	{
+		if (isTransitive)
+		{
+			return AsyncResult.submit(executor, new Callable<Set<Xref>>() {
+				public Set<Xref> call() throws IDMapperException
+				{
+					return mapIDtransitive(ref, tgtDataSources);
+				}
+			}, callback);
+		}
+		final AsyncResult<Set<Xref>> result = new AsyncResult<Set<Xref>>(callback);
+		queryChildrenAsync(getRoutedChildren(Collections.singleton(ref), tgtDataSources), new AsyncChildQuery<Set<Xref>>() {
+			public Set<Xref> query(IDMapper child) throws IDMapperException
+			{
+				return child.mapID(ref, tgtDataSources);
+			}
+			
+			public void queryAsync(AsyncIDMapper child, Callback<Set<Xref>> childCallback)
+			{
+				child.mapIDAsync(ref, childCallback, tgtDataSources);
+			}
+		}, new MergingCallback<Xref>(result));
+		return result;
+	}
+	
+	/** {@inheritDoc} */
+	public Future<Set<Xref>> freeSearchAsync(final String text, final int limit, Callback<Set<Xref>> callback)
+	{
+		final AsyncResult<Set<Xref>> result = new AsyncResult<Set<Xref>>(callback);
+		queryChildrenAsync(getQueryableChildren(false), new AsyncChildQuery<Set<Xref>>() {
+			public Set<Xref> query(IDMapper child) throws IDMapperException
+			{
+				return child.freeSearch(text, limit);
+			}
+			
+			public void queryAsync(AsyncIDMapper child, Callback<Set<Xref>> childCallback)
+			{
+				child.freeSearchAsync(text, limit, childCallback);
+			}
+		}, new MergingCallback<Xref>(result));
+		return result;
+	}
+	
+	/** Completes an AsyncResult with the union of the sets returned by the children. */
+	private static class MergingCallback<T> implements Callback<List<Set<T>>>
+	{
+		private final AsyncResult<Set<T>> result;
+		
+		MergingCallback(AsyncResult<Set<T>> result)
+		{
+			this.result = result;
+		}
+		
+		public void completed(List<Set<T>> childResults)
+		{
+			result.complete(mergeSets(childResults));
+		}
+		
+		public void failed(IDMapperException ex)
+		{
+			result.fail(ex);
+		}
+	}
+	
+	/** 
+	 * {@inheritDoc} 
+	 * Completes as soon as any of the children answers true.
+	 */
+	public Future<Boolean> xrefExistsAsync(final Xref xref, Callback<Boolean> callback)
+	{
+		final AsyncResult<Boolean> result = new AsyncResult<Boolean>(callback);
+		List<IDMapper> children = getQueryableChildren(false);
+		final AtomicInteger remaining = new AtomicInteger(children.size());
+		if (children.size() == 0) result.complete(false);
+		Callback<Boolean> childCallback = new Callback<Boolean>() {
+			public void completed(Boolean exists)
+			{
+				// AsyncResult ignores everything after the first answer
+				if (exists) result.complete(true);
+				else if (remaining.decrementAndGet() == 0) result.complete(false);
+			}
+			
+			public void failed(IDMapperException ex)
+			{
+				result.fail(ex);
+			}
+		};
+		for (final IDMapper child : children)
+		{
+			if (result.isDone()) break;
+			if (child instanceof AsyncIDMapper)
+			{
+				((AsyncIDMapper)child).xrefExistsAsync(xref, childCallback);
+			}
+			else
+			{
+				AsyncResult.submit(executor, new Callable<Boolean>() {
+					public Boolean call() throws IDMapperException
+					{
+						return child.xrefExists(xref);
+					}
+				}, childCallback);
+			}
+		}
+		return result;
+	}
+	
 	/**
 	 * Remove an idMapper from the stack.
-	 * Automatically rebuilds the mapping graph.
+	 * Automatically removes the paths through idMapper from the mapping graph.
 	 * 
 	 * @param idMapper IDMapper to be removed.
 	 */
     public void removeIDMapper(IDMapper idMapper)
     {
-    	gdbs.remove(idMapper);
-    	transitiveGraph = null; // trigger rebuild
+    	synchronized (graphLock)
+    	{
+    		gdbs.remove(idMapper);
+    		childListVersion = CHANGES.incrementAndGet();
+    		// only the first occurrence is removed, the same IDMapper may still be present
+    		if (transitiveGraph != null && !gdbs.contains(idMapper))
+    			transitiveGraph = transitiveGraph.withoutMapper(idMapper);
+    	}
     }
 
 	/**
@@ -158,18 +664,55 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	}
 
 	/** {@inheritDoc} */
-	public boolean xrefExists(Xref xref) throws IDMapperException 
+	public boolean xrefExists(final Xref xref) throws IDMapperException 
 	{
-		for (IDMapper child : gdbs)
+		final List<IDMapper> children = getQueryableChildren(false);
+		final ExecutorService exec = executor;
+		if (exec == null || children.size() < 2)
 		{
-			if (child != null && child.isConnected())
+			for (IDMapper child : children)
 			{
 				if(child.xrefExists(xref)) {
 					return true;
 				}
 			}
+			return false;
+		}
+		
+		// parallel mode: return as soon as any of the children answers true 
+		CompletionService<Boolean> service = new ExecutorCompletionService<Boolean>(exec);
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+		try
+		{
+			for (final IDMapper child : children)
+			{
+				futures.add (service.submit(new Callable<Boolean>() {
+					public Boolean call() throws IDMapperException
+					{
+						return child.xrefExists(xref);
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); ++i)
+			{
+				Future<Boolean> done;
+				try
+				{
+					done = service.take();
+				}
+				catch (InterruptedException ex)
+				{
+					Thread.currentThread().interrupt();
+					throw new IDMapperException ("Interrupted while waiting for child IDMapper", ex);
+				}
+				if (getResult(done)) return true;
+			}
+			return false;
+		}
+		finally
+		{
+			for (Future<Boolean> future : futures) future.cancel(true);
 		}
-		return false;
 	}
 	
 	/**
@@ -190,43 +733,106 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 
 	private final IDMapperCapabilities caps = new IDMapperStackCapabilities();
 	
-	private class IDMapperStackCapabilities implements IDMapperCapabilities
+	/**
+	 * Capabilities of the children, combined. Thread safe. Only calculated once after 
+	 * each change of the child list, here or in a nested stack.
+	 * <p>
+	 * The unions of supported DataSources are read when the snapshot is created. 
+	 * Whether a combination of source and target is supported is only asked from the
+	 * children the first time it is needed, and then remembered. This matters for children
+	 * where each isMappingSupported call is a network request.
+	 */
+	private static class CapabilitySnapshot
 	{
+		private final Set<DataSource> srcDataSources;
+		private final Set<DataSource> tgtDataSources;
+		private final List<MappingSupportCache> children = new ArrayList<MappingSupportCache>();
+		/** known answers, by MappingSupportCache.key(src, tgt). Pairs that are not in here are unknown. */
+		private final ConcurrentMap<Long, Boolean> supported = new ConcurrentHashMap<Long, Boolean>();
+		
 		/**
-		 * @return union of DataSources supported by child services
-		 * @throws IDMapperException when one of the services was unavailable
+		 * Query the supported DataSources of all children.
+		 * @param gdbs the children
+		 * @throws IDMapperException when one of the children was unavailable
 		 */
-		public Set<DataSource> getSupportedSrcDataSources() throws IDMapperException
+		CapabilitySnapshot(List<IDMapper> gdbs) throws IDMapperException
 		{
-			final Set<DataSource> result = new HashSet<DataSource>();
-			for (IDMapper idm : IDMapperStack.this.gdbs)
+			Set<DataSource> srcs = new HashSet<DataSource>();
+			Set<DataSource> tgts = new HashSet<DataSource>();
+			for (IDMapper idm : gdbs)
 			{
-                Set<DataSource> dss = null;
-                dss = idm.getCapabilities().getSupportedSrcDataSources();
-                if (dss!=null) {
-                    result.addAll (dss);
-                }
+				if (idm == null) continue;
+				MappingSupportCache child = new MappingSupportCache(idm);
+				children.add (child);
+				srcs.addAll (child.getSupportedSrcDataSources());
+				tgts.addAll (child.getSupportedTgtDataSources());
+			}
+			srcDataSources = Collections.unmodifiableSet(srcs);
+			tgtDataSources = Collections.unmodifiableSet(tgts);
+		}
+		
+		/** 
+		 * @return true if one of the children supports mapping from src to tgt 
+		 * @throws IDMapperException if a child could not answer. The pair stays unknown in that case.
+		 */
+		boolean isMappingSupported(DataSource src, DataSource tgt) throws IDMapperException
+		{
+			if (!srcDataSources.contains(src) || !tgtDataSources.contains(tgt)) return false;
+			Long key = MappingSupportCache.key(src, tgt);
+			Boolean result = supported.get(key);
+			if (result == null)
+			{
+				result = false;
+				for (MappingSupportCache child : children)
+				{
+					if (child.isMappingSupported(src, tgt))
+					{
+						result = true;
+						break;
+					}
+				}
+				supported.put (key, result);
 			}
 			return result;
 		}
+	}
+	
+	/** cached capabilities, replaced under graphLock when the capabilities of the children change */
+	private volatile Versioned<CapabilitySnapshot> capabilitySnapshot = null;
+	
+	private CapabilitySnapshot getCapabilitySnapshot() throws IDMapperException
+	{
+		long version = getCapabilityVersion();
+		Versioned<CapabilitySnapshot> result = capabilitySnapshot;
+		if (result != null && result.version == version) return result.value;
+		synchronized (graphLock)
+		{
+			if (capabilitySnapshot == null || capabilitySnapshot.version != version)
+				capabilitySnapshot = new Versioned<CapabilitySnapshot>(new CapabilitySnapshot(gdbs), version);
+			return capabilitySnapshot.value;
+		}
+	}
+	
+	private class IDMapperStackCapabilities implements IDMapperCapabilities
+	{
+		/**
+		 * @return union of DataSources supported by child services. 
+		 * 	This set is cached, and can't be modified.
+		 * @throws IDMapperException when one of the services was unavailable
+		 */
+		public Set<DataSource> getSupportedSrcDataSources() throws IDMapperException
+		{
+			return getCapabilitySnapshot().srcDataSources;
+		}
 
 		/**
-		 * @return union of DataSources supported by child services
+		 * @return union of DataSources supported by child services.
+		 * 	This set is cached, and can't be modified.
 		 * @throws IDMapperException when one of the services was unavailable
 		 */
 		public Set<DataSource> getSupportedTgtDataSources() throws IDMapperException
 		{
-			final Set<DataSource> result = new HashSet<DataSource>();
-			for (IDMapper idm : IDMapperStack.this.gdbs)
-			{
-				Set<DataSource> dss = null;
-                dss = idm.getCapabilities().getSupportedTgtDataSources();
-
-                if (dss!=null) {
-                    result.addAll (dss);
-                }
-			}
-			return result;
+			return getCapabilitySnapshot().tgtDataSources;
 		}
 
 		/** {@inheritDoc} */
@@ -237,15 +843,10 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 			{
 				return getTransitiveGraph().isTransitiveMappingSupported(src, tgt);
 			}
-			
-			else {
-			for (IDMapper idm : IDMapperStack.this.gdbs) {
-				if (idm.getCapabilities().isMappingSupported(src, tgt)) {
-					return true;
-				}
-			}
+			else
+			{
+				return getCapabilitySnapshot().isMappingSupported(src, tgt);
 			}
-			return false;
 		}		
 		
 		/**
@@ -285,19 +886,15 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	}
 
 	/** {@inheritDoc} */
-	public Set<Xref> freeSearch(String text, int limit)
+	public Set<Xref> freeSearch(final String text, final int limit)
 			throws IDMapperException 
 	{
-		Set<Xref> result = new HashSet<Xref>();
-		
-		for (IDMapper child : gdbs)
-		{
-			if (child != null && child.isConnected())
+		return mergeSets (queryChildren(getQueryableChildren(false), new ChildQuery<Set<Xref>>() {
+			public Set<Xref> query(IDMapper child) throws IDMapperException
 			{
-				result.addAll (child.freeSearch(text, limit));
+				return child.freeSearch(text, limit);
 			}
-		}
-		return result;
+		}));
 	}
 
 	/** {@inheritDoc} */
@@ -315,6 +912,32 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	}
 	
 
+	/**
+	 * Map a stream of Xrefs of unknown length. The input is mapped in chunks with 
+	 * {@link #mapID(Collection, DataSource...)}, as the result is consumed.
+	 * @param srcXrefs Xrefs to map
+	 * @param tgtDataSources target data sources, optional
+	 * @return for each input Xref, in order, the Xrefs it maps to.
+	 */
+	public MappingStream mapIDStream(Iterator<Xref> srcXrefs, DataSource... tgtDataSources)
+	{
+		return new MappingStream(this, srcXrefs, tgtDataSources);
+	}
+	
+	/**
+	 * Map a stream of Xrefs of unknown length, and pass the results to a handler as they become available.
+	 * The input is mapped in chunks with {@link #mapID(Collection, DataSource...)}.
+	 * @param srcXrefs Xrefs to map
+	 * @param handler receives the results, in the order of the input
+	 * @param tgtDataSources target data sources, optional
+	 * @throws IDMapperException if one of the children or the handler fails
+	 */
+	public void mapIDStream(Iterator<Xref> srcXrefs, MappingStream.Handler handler, 
+			DataSource... tgtDataSources) throws IDMapperException
+	{
+		MappingStream.mapAll(this, srcXrefs, handler, tgtDataSources);
+	}
+	
 	/**
 	 * helper method to map Id's in non-transitive mode.
 	 * @param srcXrefs mapping source
@@ -322,30 +945,57 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	 * @return mapping result
 	 * @throws IDMapperException if one of the children fail
 	 */
-	private Map<Xref, Set<Xref>> mapIDnormal(Collection<Xref> srcXrefs,
-			DataSource... tgtDataSources) throws IDMapperException 
+	private Map<Xref, Set<Xref>> mapIDnormal(final Collection<Xref> srcXrefs,
+			final DataSource... tgtDataSources) throws IDMapperException 
+	{
+		return mergeMappings (queryChildren(getRoutedChildren(srcXrefs, tgtDataSources), 
+				new ChildQuery<Map<Xref, Set<Xref>>>() {
+			public Map<Xref, Set<Xref>> query(IDMapper child) throws IDMapperException
+			{
+				return child.mapID(srcXrefs, tgtDataSources);
+			}
+		}));
+	}
+	
+	/**
+	 * Join the mappings of the children.
+	 * @param childResults mapping results of the children
+	 * @return for each source Xref, the union of the results of the children
+	 */
+	private static Map<Xref, Set<Xref>> mergeMappings(List<Map<Xref, Set<Xref>>> childResults)
 	{
 		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
-		
-		for (IDMapper child : gdbs)
+		for (Map<Xref, Set<Xref>> childResult : childResults)
 		{
-			if (child != null && child.isConnected())
+			for (Map.Entry<Xref, Set<Xref>> entry : childResult.entrySet())
 			{
-				for (Map.Entry<Xref, Set<Xref>> entry : child.mapID(srcXrefs, tgtDataSources).entrySet())
+				Set<Xref> resultSet = result.get (entry.getKey());
+				if (resultSet == null) 
 				{
-					Set<Xref> resultSet = result.get (entry.getKey());
-					if (resultSet == null) 
-					{
-						resultSet = new HashSet<Xref>();
-						result.put (entry.getKey(), resultSet);
-					}
-					resultSet.addAll (entry.getValue());
+					resultSet = new HashSet<Xref>();
+					result.put (entry.getKey(), resultSet);
 				}
+				resultSet.addAll (entry.getValue());
 			}
 		}
 		return result;
 	}
 	
+	/**
+	 * Join sets returned by the children.
+	 * @param childResults results of the children
+	 * @return union of the results
+	 */
+	private static <T> Set<T> mergeSets(List<Set<T>> childResults)
+	{
+		Set<T> result = new HashSet<T>();
+		for (Set<T> childResult : childResults)
+		{
+			result.addAll (childResult);
+		}
+		return result;
+	}
+	
 
 	/**
 	 * helper method to map Id's in transitive mode.
@@ -357,30 +1007,32 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	private Map<Xref, Set<Xref>> mapIDtransitive(Collection<Xref> srcXrefs,
 			DataSource... tgtDataSources) throws IDMapperException 
 	{
-		// Current implementation just repeatedly calls mapIDTransitive (Xref, Set<Ds>) 
-		// It may be possible to rearrange loops to optimize for fewer database calls.
-		
-		Map <Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
-		for (Xref ref: srcXrefs)
+		if (tgtDataSources.length == 0)
 		{
-			result.put (ref, mapIDtransitive(ref, tgtDataSources));
+			return getTransitiveGraph().mapIDtransitiveUntargetted(srcXrefs);
+		}
+		else
+		{
+			Set<DataSource> dsFilter = new HashSet<DataSource>(Arrays.asList(tgtDataSources));
+			return getTransitiveGraph().mapIDtransitiveTargetted(srcXrefs, dsFilter);
 		}
-		return result;
 	}
 	
 
 	
 	/** {@inheritDoc} */
-	public Set<String> getAttributes(Xref ref, String attrname)
+	public Set<String> getAttributes(final Xref ref, final String attrname)
 			throws IDMapperException 
 	{
 		Set<String> result = new HashSet<String>();
-		for (IDMapper child : gdbs)
-		{
-			if (child != null && child instanceof AttributeMapper && child.isConnected())
+		for (Set<String> childResult : queryChildren(getQueryableChildren(true), new ChildQuery<Set<String>>() {
+			public Set<String> query(IDMapper child) throws IDMapperException
 			{
-				result.addAll (((AttributeMapper)child).getAttributes(ref, attrname));
+				return ((AttributeMapper)child).getAttributes(ref, attrname);
 			}
+		}))
+		{
+			result.addAll (childResult);
 		}
 		return result;
 	}
@@ -530,58 +1182,59 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	 * @return mapping result
 	 * @throws IDMapperException if one of the children fail
 	 */
-	private Set<Xref> mapIDnormal(Xref ref, DataSource... resultDs) throws IDMapperException 
+	private Set<Xref> mapIDnormal(final Xref ref, final DataSource... resultDs) throws IDMapperException 
 	{
-		Set<Xref> result = new HashSet<Xref>();
-		for (IDMapper child : gdbs)
-		{
-			if (child != null && child.isConnected())
+		return mergeSets (queryChildren(getRoutedChildren(Collections.singleton(ref), resultDs), new ChildQuery<Set<Xref>>() {
+			public Set<Xref> query(IDMapper child) throws IDMapperException
 			{
-				result.addAll (child.mapID(ref, resultDs));
+				return child.mapID(ref, resultDs);
 			}
-		}
-		return result;
+		}));
 	}
 
 	/** {@inheritDoc} */
 	public Set<String> getAttributeSet() throws IDMapperException 
 	{
 		Set<String> result = new HashSet<String>();
-		for (IDMapper child : gdbs)
-		{
-			if (child != null && child instanceof AttributeMapper && child.isConnected())
+		for (Set<String> childResult : queryChildren(getQueryableChildren(true), new ChildQuery<Set<String>>() {
+			public Set<String> query(IDMapper child) throws IDMapperException
 			{
-				result.addAll (((AttributeMapper)child).getAttributeSet());
+				return ((AttributeMapper)child).getAttributeSet();
 			}
+		}))
+		{
+			result.addAll (childResult);
 		}
 		return result;
 	}
 
 	
 	/** {@inheritDoc} */
-	public Map<String, Set<String>> getAttributes(Xref ref)
+	public Map<String, Set<String>> getAttributes(final Xref ref)
 			throws IDMapperException 
 	{
 		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
-		for (IDMapper child : gdbs)
+		for (Map<String, Set<String>> childResult : queryChildren(getQueryableChildren(true), 
+				new ChildQuery<Map<String, Set<String>>>() {
+			public Map<String, Set<String>> query(IDMapper child) throws IDMapperException
+			{
+				return ((AttributeMapper)child).getAttributes(ref);
+			}
+		}))
 		{
-			if (child != null && child instanceof AttributeMapper && child.isConnected())
+			for (Map.Entry<String, Set<String>> entry : childResult.entrySet())
 			{
-				for (Map.Entry<String, Set<String>> entry :
-					((AttributeMapper)child).getAttributes(ref).entrySet())
+				Set<String> thisSet;
+				if (!result.containsKey(entry.getKey()))	
 				{
-					Set<String> thisSet;
-					if (!result.containsKey(entry.getKey()))	
-					{
-						thisSet = new HashSet<String>();
-						result.put (entry.getKey(), thisSet); 
-					}
-					else
-					{
-						thisSet = result.get(entry.getKey());
-					}
-					thisSet.addAll(entry.getValue());
+					thisSet = new HashSet<String>();
+					result.put (entry.getKey(), thisSet); 
+				}
+				else
+				{
+					thisSet = result.get(entry.getKey());
 				}
+				thisSet.addAll(entry.getValue());
 			}
 		}
 		return result;
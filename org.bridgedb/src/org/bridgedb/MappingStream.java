@@ -0,0 +1,216 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2013 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Maps a stream of Xrefs of unknown length, without holding all input
+ * and all results in memory.
+ * <p>
+ * The input is read in chunks, and each chunk is mapped with a single call to
+ * {@link IDMapper#mapID(java.util.Collection, DataSource...)}, so that the IDMapper can still
+ * benefit from batching. Only the current chunk and its results are kept in memory.
+ * <p>
+ * Results can be pulled, by iterating over the MappingStream, or pushed to a {@link Handler}
+ * with {@link #mapAll(IDMapper, Iterator, Handler, DataSource...)}. Either way, there is
+ * one result for each input Xref, in the order of the input. Xrefs that could not be mapped
+ * get an empty set.
+ * <p>
+ * Because the iterator interface can't throw checked exceptions, an IDMapperException
+ * during iteration is wrapped in a {@link MappingException}.
+ */
+public class MappingStream implements Iterator<Map.Entry<Xref, Set<Xref>>>
+{
+	/** default number of Xrefs that are mapped at a time */
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	/** Receives mapping results, one input Xref at a time. */
+	public interface Handler
+	{
+		/**
+		 * Called for each input Xref.
+		 * @param src the input Xref
+		 * @param result the Xrefs it maps to, empty if there are none.
+		 * @throws IDMapperException to stop the mapping.
+		 */
+		public void mapped(Xref src, Set<Xref> result) throws IDMapperException;
+	}
+
+	/** Unchecked wrapper for IDMapperException, thrown during iteration. */
+	public static class MappingException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * @param cause the IDMapperException thrown by the IDMapper
+		 */
+		public MappingException(IDMapperException cause)
+		{
+			super(cause);
+		}
+
+		/** @return the IDMapperException thrown by the IDMapper */
+		@Override
+		public IDMapperException getCause()
+		{
+			return (IDMapperException)super.getCause();
+		}
+	}
+
+	private final IDMapper mapper;
+	private final Iterator<Xref> input;
+	private final DataSource[] tgtDataSources;
+	private final int chunkSize;
+
+	private List<Xref> chunk = Collections.emptyList();
+	private Map<Xref, Set<Xref>> chunkResult = Collections.emptyMap();
+	private int pos = 0;
+
+	/**
+	 * Stream with the default chunk size.
+	 * @param mapper IDMapper to do the mapping with
+	 * @param input Xrefs to map. These are read as the stream is consumed.
+	 * @param tgtDataSources target DataSources, optional.
+	 */
+	public MappingStream(IDMapper mapper, Iterator<Xref> input, DataSource... tgtDataSources)
+	{
+		this (mapper, input, DEFAULT_CHUNK_SIZE, tgtDataSources);
+	}
+
+	/**
+	 * @param mapper IDMapper to do the mapping with
+	 * @param input Xrefs to map. These are read as the stream is consumed.
+	 * @param chunkSize maximum number of Xrefs to map with a single call to the IDMapper
+	 * @param tgtDataSources target DataSources, optional.
+	 */
+	public MappingStream(IDMapper mapper, Iterator<Xref> input, int chunkSize, DataSource... tgtDataSources)
+	{
+		if (chunkSize < 1) throw new IllegalArgumentException("Chunk size must be at least 1");
+		this.mapper = mapper;
+		this.input = input;
+		this.chunkSize = chunkSize;
+		this.tgtDataSources = tgtDataSources;
+	}
+
+	/**
+	 * Map all Xrefs from the input, and pass the results to a handler as they become available.
+	 * @param mapper IDMapper to do the mapping with
+	 * @param input Xrefs to map
+	 * @param handler receives the results, in the order of the input
+	 * @param tgtDataSources target DataSources, optional.
+	 * @throws IDMapperException if the IDMapper or the handler failed.
+	 */
+	public static void mapAll(IDMapper mapper, Iterator<Xref> input, Handler handler,
+			DataSource... tgtDataSources) throws IDMapperException
+	{
+		mapAll (mapper, input, DEFAULT_CHUNK_SIZE, handler, tgtDataSources);
+	}
+
+	/**
+	 * Map all Xrefs from the input, and pass the results to a handler as they become available.
+	 * @param mapper IDMapper to do the mapping with
+	 * @param input Xrefs to map
+	 * @param chunkSize maximum number of Xrefs to map with a single call to the IDMapper
+	 * @param handler receives the results, in the order of the input
+	 * @param tgtDataSources target DataSources, optional.
+	 * @throws IDMapperException if the IDMapper or the handler failed.
+	 */
+	public static void mapAll(IDMapper mapper, Iterator<Xref> input, int chunkSize, Handler handler,
+			DataSource... tgtDataSources) throws IDMapperException
+	{
+		MappingStream stream = new MappingStream(mapper, input, chunkSize, tgtDataSources);
+		while (stream.fill())
+		{
+			for (Xref src : stream.chunk)
+			{
+				handler.mapped(src, stream.resultFor(src));
+			}
+			stream.pos = stream.chunk.size();
+		}
+	}
+
+	/**
+	 * Read and map the next chunk if the current one is used up.
+	 * @return false if the input is exhausted
+	 * @throws IDMapperException if the IDMapper failed
+	 */
+	private boolean fill() throws IDMapperException
+	{
+		if (pos < chunk.size()) return true;
+		chunk = new ArrayList<Xref>(chunkSize);
+		chunkResult = Collections.emptyMap(); // let the previous results be garbage collected
+		pos = 0;
+		while (chunk.size() < chunkSize && input.hasNext())
+		{
+			chunk.add (input.next());
+		}
+		if (chunk.isEmpty()) return false;
+		chunkResult = mapper.mapID(chunk, tgtDataSources);
+		return true;
+	}
+
+	/** @return result for an Xref from the current chunk, never null */
+	private Set<Xref> resultFor(Xref src)
+	{
+		Set<Xref> result = chunkResult.get(src);
+		if (result == null) return Collections.emptySet();
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * May map the next chunk of input.
+	 * @throws MappingException if the IDMapper failed
+	 */
+	public boolean hasNext()
+	{
+		try
+		{
+			return fill();
+		}
+		catch (IDMapperException ex)
+		{
+			throw new MappingException(ex);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @return the next input Xref, with the Xrefs it maps to.
+	 * @throws MappingException if the IDMapper failed
+	 */
+	public Map.Entry<Xref, Set<Xref>> next()
+	{
+		if (!hasNext()) throw new NoSuchElementException();
+		Xref src = chunk.get(pos++);
+		return new AbstractMap.SimpleImmutableEntry<Xref, Set<Xref>>(src, resultFor(src));
+	}
+
+	/** Not supported. */
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+}
@@ -30,8 +30,11 @@ public class Xref implements Comparable<Xref>
 	final private String id;
 	final private DataSource ds;
 	
-	// String representation of this xref
-	final private String rep;
+	// hash of id and the ordinal of ds, precalculated because Xrefs are mostly used as keys
+	final private int hash;
+	
+	// String representation of this xref, only created when needed
+	private String rep = null;
 	
 	/**
 	 * @param id the Id part of this Xref
@@ -40,7 +43,7 @@ public class Xref implements Comparable<Xref>
 	public Xref(String id, DataSource ds) {
 		this.id = id;
 		this.ds = ds;
-		rep = (ds == null ? "" : (ds.getSystemCode() == null ? ds.getFullName() : ds.getSystemCode())) + ":" + id; 
+		hash = 31 * (id == null ? 0 : id.hashCode()) + (ds == null ? 0 : ds.getOrdinal() + 1);
 	}
 	
 	/**
@@ -53,12 +56,28 @@ public class Xref implements Comparable<Xref>
 	 */
 	public String getId() { return id; }
 	
+	/** @return the part of the string representation before the colon */
+	private String prefix()
+	{
+		return (ds == null ? "" : (ds.getSystemCode() == null ? ds.getFullName() : ds.getSystemCode()));
+	}
+	
 	/**
 	 * @return short string representation for this Xref, for example En:ENSG000001 or X:1004_at
 	 *   This string representation is not meant to be stored or parsed, it is there mostly for
 	 *   debugging purposes.
 	 */
-	public String toString() { return rep;  }
+	public String toString() 
+	{
+		// racy, but harmless: at worst the String is created more than once.
+		String result = rep;
+		if (result == null)
+		{
+			result = prefix() + ":" + id;
+			rep = result;
+		}
+		return result;
+	}
 	
 	/**
 	 * hashCode calculated from id and datasource combined.
@@ -66,7 +85,7 @@ public class Xref implements Comparable<Xref>
 	 */
 	public int hashCode() 
 	{
-		return rep.hashCode();
+		return hash;
 	}
 	
 	/**
@@ -75,12 +94,14 @@ public class Xref implements Comparable<Xref>
 	 */
 	public boolean equals(Object o) 
 	{
+		if (o == this) return true;
 		if (o == null) return false;
 		if(!(o instanceof Xref)) return false;
 		Xref ref = (Xref)o;
-		return 
-			(id == null ? ref.id == null : id.equals(ref.id)) && 
-			(ds == null ? ref.ds == null : ds.equals(ref.ds));
+		return hash == ref.hash &&
+			// DataSources are unique, so they can be compared by identity
+			ds == ref.ds &&
+			(id == null ? ref.id == null : id.equals(ref.id));
 	}
 	
 	/**
@@ -90,7 +111,12 @@ public class Xref implements Comparable<Xref>
 	 */
 	public int compareTo (Xref idc) 
 	{
-		return rep.compareTo(idc.rep);
+		if (ds == idc.ds) 
+		{
+			// same prefix, so only the ids matter
+			return String.valueOf(id).compareTo(String.valueOf(idc.id));
+		}
+		return toString().compareTo(idc.toString());
 	}
 	
 	/**
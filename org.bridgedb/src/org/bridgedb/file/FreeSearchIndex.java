@@ -0,0 +1,203 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.file;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.Xref;
+
+/**
+ * In-memory index for free search on the identifiers of a mapping,
+ * with the same semantics as free search on a database: case-insensitive substring
+ * matching of identifiers.
+ * <p>
+ * Identifiers are sorted, and for each trigram (sequence of three characters) the
+ * index keeps the list of identifiers that contain it. A query only needs to check
+ * the identifiers on the shortest list among its trigrams, and stops as soon as
+ * the limit has been reached. Queries shorter than three characters
+ * return prefix matches first, followed by other matches from a scan
+ * that stops at the limit.
+ * <p>
+ * The index is immutable and thus thread safe.
+ */
+final class FreeSearchIndex {
+    /** the mapping this index was built for */
+    private final Map<Xref, Set<Xref>> source;
+    /** Xrefs, sorted by their lower case id */
+    private final Xref[] xrefs;
+    /** lower case ids of xrefs, sorted */
+    private final String[] keys;
+    /** for each trigram, the sorted indexes of the keys that contain it */
+    private final Map<Long, int[]> trigrams;
+
+    /** growable list of indexes, only used while building */
+    private static final class Posting {
+        private int[] ids = new int[2];
+        private int size = 0;
+
+        void add(final int id) {
+            if (size>0 && ids[size-1]==id) {
+                return; // trigram occurs more than once in the same key
+            }
+            if (size==ids.length) {
+                ids = Arrays.copyOf(ids, size*2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    /**
+     * Build an index of all Xrefs in a mapping.
+     * @param source the mapping, from IDMappingReader.getIDMappings()
+     */
+    FreeSearchIndex(final Map<Xref, Set<Xref>> source) {
+        this.source = source;
+
+        int n = source.size();
+        final String[] lower = new String[n];
+        Integer[] order = new Integer[n];
+        Xref[] unsorted = source.keySet().toArray(new Xref[n]);
+        for (int i=0; i<n; i++) {
+            lower[i] = unsorted[i].getId()==null ? "" : unsorted[i].getId().toLowerCase();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return lower[a].compareTo(lower[b]);
+            }
+        });
+
+        xrefs = new Xref[n];
+        keys = new String[n];
+        for (int i=0; i<n; i++) {
+            xrefs[i] = unsorted[order[i]];
+            keys[i] = lower[order[i]];
+        }
+
+        Map<Long, Posting> postings = new HashMap<Long, Posting>();
+        for (int i=0; i<n; i++) {
+            String key = keys[i];
+            for (int j=0; j+3<=key.length(); j++) {
+                Long trigram = trigram(key, j);
+                Posting posting = postings.get(trigram);
+                if (posting==null) {
+                    posting = new Posting();
+                    postings.put(trigram, posting);
+                }
+                posting.add(i);
+            }
+        }
+
+        trigrams = new HashMap<Long, int[]>(postings.size()*4/3+1);
+        for (Map.Entry<Long, Posting> entry : postings.entrySet()) {
+            Posting posting = entry.getValue();
+            trigrams.put(entry.getKey(), Arrays.copyOf(posting.ids, posting.size));
+        }
+    }
+
+    private static Long trigram(final String s, final int pos) {
+        return ((long)s.charAt(pos) << 32) | ((long)s.charAt(pos+1) << 16) | s.charAt(pos+2);
+    }
+
+    /**
+     * @return the mapping this index was built for
+     */
+    Map<Xref, Set<Xref>> getSource() {
+        return source;
+    }
+
+    /**
+     * Find Xrefs whose id contains a text, ignoring case.
+     * @param text text to search for
+     * @param maxResults maximum number of results, or 0 or less for no limit
+     * @return matching Xrefs, at most maxResults.
+     */
+    Set<Xref> search(final String text, final int maxResults) {
+        Set<Xref> result = new HashSet<Xref>();
+        if (text==null) {
+            return result;
+        }
+        final int limit = maxResults<=0 ? Integer.MAX_VALUE : maxResults;
+
+        String query = text.toLowerCase();
+        if (query.length()<3) {
+            searchShort(query, limit, result);
+            return result;
+        }
+
+        // only check the keys on the shortest posting list
+        int[] candidates = null;
+        for (int j=0; j+3<=query.length(); j++) {
+            int[] posting = trigrams.get(trigram(query, j));
+            if (posting==null) {
+                return result;
+            }
+            if (candidates==null || posting.length<candidates.length) {
+                candidates = posting;
+            }
+        }
+
+        for (int i : candidates) {
+            if (keys[i].contains(query)) {
+                result.add(xrefs[i]);
+                if (result.size()>=limit) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Search for a query that is too short for trigrams: prefix matches first,
+     * then a scan for other matches.
+     */
+    private void searchShort(final String query, final int limit, final Set<Xref> result) {
+        int start = Arrays.binarySearch(keys, query);
+        if (start<0) {
+            start = -start-1;
+        }
+        int i = start;
+        for (; i<keys.length && keys[i].startsWith(query) && result.size()<limit; i++) {
+            result.add(xrefs[i]);
+        }
+        if (result.size()>=limit || query.length()==0) {
+            return;
+        }
+
+        // keys in [start, i) were prefix matches, skip them
+        for (int k=0; k<keys.length && result.size()<limit; k++) {
+            if (k==start && i>start) {
+                k = i-1;
+                continue;
+            }
+            if (keys[k].contains(query)) {
+                result.add(xrefs[k]);
+            }
+        }
+    }
+
+    /** @return number of distinct trigrams in the index */
+    int getTrigramCount() {
+        return trigrams.size();
+    }
+}
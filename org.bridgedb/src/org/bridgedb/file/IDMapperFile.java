@@ -18,6 +18,7 @@ package org.bridgedb.file;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -36,9 +37,13 @@ import org.bridgedb.impl.InternalUtils;
  * 
  */ 
 public abstract class IDMapperFile implements IDMapper {
-    protected final IDMapperFileCapabilities cap;
+    /** capabilities for the current DataSources of the reader, replaced by {@link #updateCapabilities()} */
+    protected volatile IDMapperFileCapabilities cap;
     protected final IDMappingReader reader;
 
+    /** index for free search, built for the current mapping of the reader */
+    private volatile FreeSearchIndex searchIndex = null;
+
     /**
      * Constructor from a {@link IDMappingReader}. transitivity is unsupported
      * by default.
@@ -52,7 +57,8 @@ public abstract class IDMapperFile implements IDMapper {
 
     /**
      * Constructor from a {@link IDMappingReader} and user-defined free search
-     * capacity.
+     * capacity. With free search, an index of all identifiers is built
+     * in memory after the mappings have been read.
      * @param reader ID mapping reader
      * @param freeSearch if this IDMapper supports free search
      * @throws IDMapperException when failed to read
@@ -81,10 +87,11 @@ public abstract class IDMapperFile implements IDMapper {
         Map<Xref, Set<Xref>> result = new HashMap();
 
         // remove unsupported target datasources
-        Set<DataSource> supportedTgtDatasources = cap.getSupportedTgtDataSources();
+        final IDMapperCapabilities capas = cap;
+        Set<DataSource> supportedTgtDatasources = capas.getSupportedTgtDataSources();
         Set<DataSource> tgtDss;
         if (tgtDataSources.length == 0) {
-            tgtDss = new HashSet<DataSource>(cap.getSupportedTgtDataSources());
+            tgtDss = new HashSet<DataSource>(supportedTgtDatasources);
         } else {
             tgtDss = new HashSet<DataSource>(Arrays.asList(tgtDataSources));
             tgtDss.retainAll(supportedTgtDatasources);
@@ -99,7 +106,7 @@ public abstract class IDMapperFile implements IDMapper {
             return result;
         }
 
-        Set<DataSource> supportedSrcDatasources = cap.getSupportedSrcDataSources();
+        Set<DataSource> supportedSrcDatasources = capas.getSupportedSrcDataSources();
         for (Xref srcXref : srcXrefs) {
             if (!supportedSrcDatasources.contains(srcXref.getDataSource())) {
                 continue;
@@ -173,6 +180,67 @@ public abstract class IDMapperFile implements IDMapper {
         return cap;
     }
 
+    /**
+     * Search for identifiers that contain a text, ignoring case.
+     * Only supported if this IDMapper was created with free search,
+     * otherwise this will throw UnsupportedOperationException.
+     * The first search builds an index of the identifiers, which is
+     * kept until the reader returns a new mapping.
+     * @param text text to search for
+     * @param limit maximum number of results, or 0 or less for no limit
+     * @return matching Xrefs
+     * @throws IDMapperException if the mappings could not be read
+     */
+    public Set<Xref> freeSearch(final String text, final int limit) throws IDMapperException {
+        if (!cap.isFreeSearchSupported()) {
+            throw new UnsupportedOperationException();
+        }
+        return getSearchIndex().search(text, limit);
+    }
+
+    /**
+     * Build the index for free search if it doesn't exist yet, or if the mappings
+     * have changed since it was built. Does nothing if free search is not supported.
+     * Call this after reading the mappings again to build the index up front.
+     * @throws IDMapperException if the mappings could not be read
+     */
+    protected void prepareFreeSearch() throws IDMapperException {
+        if (cap.isFreeSearchSupported()) {
+            getSearchIndex();
+        }
+    }
+
+    /**
+     * Read the supported DataSources from the reader again. 
+     * Call this after the reader has read new mappings, which may have other columns.
+     * @throws IDMapperException if the DataSources could not be read
+     */
+    protected void updateCapabilities() throws IDMapperException {
+        cap = new IDMapperFileCapabilities(cap.isFreeSearchSupported());
+    }
+
+    /** stands in for a missing mapping, so that the index for it is only built once */
+    private static final Map<Xref, Set<Xref>> NO_MAPPINGS = Collections.emptyMap();
+
+    /** @return index for free search on the current mapping */
+    private FreeSearchIndex getSearchIndex() throws IDMapperException {
+        Map<Xref, Set<Xref>> mapXrefs = reader.getIDMappings();
+        if (mapXrefs==null) {
+            mapXrefs = NO_MAPPINGS;
+        }
+        FreeSearchIndex index = searchIndex;
+        if (index==null || index.getSource()!=mapXrefs) {
+            synchronized (this) {
+                index = searchIndex;
+                if (index==null || index.getSource()!=mapXrefs) {
+                    index = new FreeSearchIndex(mapXrefs);
+                    searchIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
     protected IDMappingReader getIDMappingReader() {
         return reader;
     }
@@ -181,7 +249,7 @@ public abstract class IDMapperFile implements IDMapper {
 
         public IDMapperFileCapabilities(final boolean freeSearch) throws IDMapperException
         {
-            super (IDMapperFile.this.reader.getDataSources(), false, null);
+            super (IDMapperFile.this.reader.getDataSources(), freeSearch, null);
         }
 
     }
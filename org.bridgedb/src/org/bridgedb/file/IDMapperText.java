@@ -16,19 +16,28 @@
 //
 package org.bridgedb.file;
 
+import java.io.File;
+
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.bridgedb.BridgeDb;
 import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
-import org.bridgedb.Xref;
 
 /**
  * Class for mapping ID from delimited text file.
@@ -51,12 +60,15 @@ public class IDMapperText extends IDMapperFile
             public IDMapper connect(String location) throws IDMapperException
             {
                 // parse arguments to determine idsep and dssep
-                // sample: dssep=\t,idsep=;,idsep=,,transitivity=false@file:/localfile.txt
+                // sample: dssep=\t,idsep=;,idsep=,,transitivity=false,threads=4,watch=60,freesearch=true@file:/localfile.txt
                 // \t represents tab, \@ represents @
                 String  path = null;
                 char[] dssep = null;
                 char[] idsep = null;
                 boolean transitivity = false;
+                int threads = 1;
+                int watch = 0;
+                boolean freeSearch = false;
 
                 int idx = location.indexOf("@");
                 if (idx<=0) {
@@ -86,25 +98,54 @@ public class IDMapperText extends IDMapperFile
                         String config = location.substring(0, idx)+",";
                         String prefixTran = "transitivity=";
                         idx = config.indexOf(prefixTran);
-                        String tran = config.substring(idx+prefixTran.length());
-                        if (tran.toLowerCase().startsWith("true")) {
-                            transitivity = true;
-                        } else if (tran.toLowerCase().startsWith("false")) {
-                            transitivity = false;
-                        } else {
-                            throw new IDMapperException(
-                                    "transivity can only be true or false");
+                        if (idx>=0) {
+                            String tran = config.substring(idx+prefixTran.length());
+                            if (tran.toLowerCase().startsWith("true")) {
+                                transitivity = true;
+                            } else if (tran.toLowerCase().startsWith("false")) {
+                                transitivity = false;
+                            } else {
+                                throw new IDMapperException(
+                                        "transivity can only be true or false");
+                            }
+                        }
+
+                        Matcher m = Pattern.compile("threads=(\\d+),",
+                                Pattern.CASE_INSENSITIVE).matcher(config);
+                        if (m.find()) {
+                            threads = Integer.parseInt(m.group(1));
+                            if (threads<1) {
+                                throw new IDMapperException(
+                                        "threads must be at least 1");
+                            }
+                        }
+
+                        m = Pattern.compile("watch=(\\d+),",
+                                Pattern.CASE_INSENSITIVE).matcher(config);
+                        if (m.find()) {
+                            watch = Integer.parseInt(m.group(1));
                         }
 
+                        freeSearch = Pattern.compile("freesearch=true,",
+                                Pattern.CASE_INSENSITIVE).matcher(config).find();
+
                         dssep = parseConfig(config, "dssep");
                         idsep = parseConfig(config, "idsep");
+                        if (dssep==null) {
+                            dssep = new char[] { '\t' }; // same default as without options
+                        }
                     }
                 }
 
                 try
                 {
-                        return new IDMapperText(new URL(path), dssep, idsep,
-                                transitivity);
+                        IDMapperText result = new IDMapperText(new URL(path), dssep, idsep,
+                                transitivity, freeSearch);
+                        result.setParallelism(threads);
+                        if (watch>0) {
+                            result.startWatching(watch, TimeUnit.SECONDS);
+                        }
+                        return result;
                 }
                 catch (MalformedURLException ex)
                 {
@@ -151,11 +192,37 @@ public class IDMapperText extends IDMapperFile
         
 	}
 
+    /**
+     * Notified when a watched file has been read again.
+     * Called on the thread that watches the file.
+     */
+    public interface ReloadListener {
+        /**
+         * The file was read again, and the new mappings are in use.
+         * @param mapper the IDMapperText that was reloaded
+         * @param rows number of rows read, not counting the header
+         * @param millis time it took to read the file, in milliseconds
+         */
+        public void reloaded(IDMapperText mapper, int rows, long millis);
+
+        /**
+         * The file has changed, but could not be read. The previous mappings are still in use.
+         * @param mapper the IDMapperText that failed to reload
+         * @param ex the reason
+         */
+        public void reloadFailed(IDMapperText mapper, IDMapperException ex);
+    }
+
     private final URL url;
     private char[] dataSourceDelimiters;
     private char[] idDelimiters;
     private boolean transitivity;
 
+    private final List<ReloadListener> listeners = new CopyOnWriteArrayList<ReloadListener>();
+    private ScheduledExecutorService watcher = null;
+    /** modification time and size of the file when it was last read, or when it was last seen changing */
+    private long loadedModified, loadedLength, seenModified, seenLength;
+
     /**
      * Constructor from the {@link URL} of a tab-delimited text file.
      * @param url {@link URL} of the file
@@ -203,25 +270,35 @@ public class IDMapperText extends IDMapperFile
             final char[] dataSourceDelimiters,
             final char[] idDelimiters,
             final boolean transitivity) throws IDMapperException {
+        this(url, dataSourceDelimiters, idDelimiters, transitivity, false);
+    }
+
+    /**
+     * Constructor from the {@link URL} of a tab-delimited text file,
+     * delimiters to separate between different data sources and IDs,
+     * transitivity support and free search support.
+     * @param url url {@link URL} of the file
+     * @param dataSourceDelimiters delimiters between data sources
+     * @param idDelimiters delimiters between IDs
+     * @param transitivity support transitivity if true
+     * @param freeSearch support free search on identifiers if true. This
+     *        keeps an index of all identifiers in memory, and reads the
+     *        file right away to build it.
+     * @throws IDMapperException if failed to read file
+     */
+    public IDMapperText(final URL url,
+            final char[] dataSourceDelimiters,
+            final char[] idDelimiters,
+            final boolean transitivity,
+            final boolean freeSearch) throws IDMapperException {
         super(new IDMappingReaderFromText(url,
                 dataSourceDelimiters,
-                idDelimiters));
+                idDelimiters), freeSearch);
         this.url = url;
         this.dataSourceDelimiters = dataSourceDelimiters;
         this.idDelimiters = idDelimiters;
         setTransitivity(transitivity);
-    }
-
-    /**
-     * Free search is not supported for delimiter-text file.
-     * This will throw UnsupportedOperationException
-     * @param text ignored
-     * @param limit ignored
-     * @return does not return
-     * @throws IDMapperException will not be thrown
-     */
-    public Set<Xref> freeSearch (String text, int limit) throws IDMapperException {
-        throw new UnsupportedOperationException();
+        prepareFreeSearch();
     }
 
     /**
@@ -241,6 +318,160 @@ public class IDMapperText extends IDMapperFile
         return transitivity;
     }
 
+    /**
+     * Set the number of threads to read the file with. Large local files
+     * are split in chunks, which are parsed in parallel.
+     * @param parallelism number of threads, 1 to read on the calling thread.
+     */
+    public void setParallelism(final int parallelism) {
+        ((IDMappingReaderFromText) reader).setParallelism(parallelism);
+    }
+
+    /**
+     * Get the number of threads to read the file with.
+     * @return number of threads
+     */
+    public int getParallelism() {
+        return ((IDMappingReaderFromText) reader).getParallelism();
+    }
+
+    /**
+     * Watch the file for changes, and read it again in the background when it has changed.
+     * A change is only picked up once the modification time and size of the file have been
+     * stable for one interval, so that a file that is still being written is not read.
+     * While the file is read again, mapping requests are answered with the previous mappings,
+     * and the new mappings replace them at once. The supported DataSources are updated 
+     * right after that, so columns that were added to the file can be mapped as well.
+     * @param interval time between checks for changes
+     * @param unit unit of interval
+     * @throws IDMapperException if the URL does not refer to a local file
+     */
+    public synchronized void startWatching(final long interval, final TimeUnit unit) throws IDMapperException {
+        final File file = getFile();
+        if (file==null) {
+            throw new IDMapperException("Only local files can be watched: " + url);
+        }
+
+        stopWatching();
+        loadedModified = seenModified = file.lastModified();
+        loadedLength = seenLength = file.length();
+        watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "IDMapperText watcher " + file.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        watcher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                checkForChanges(file);
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Stop watching the file for changes. Does nothing if the file is not watched.
+     */
+    public synchronized void stopWatching() {
+        if (watcher!=null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+
+    /**
+     * @return true if the file is watched for changes
+     */
+    public synchronized boolean isWatching() {
+        return watcher!=null;
+    }
+
+    /**
+     * @param listener notified when a watched file has been read again
+     */
+    public void addReloadListener(final ReloadListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener listener to remove
+     */
+    public void removeReloadListener(final ReloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Read the file again, if it has changed and has been stable since the previous check.
+     * Called on the watcher thread.
+     */
+    private void checkForChanges(final File file) {
+        long modified = file.lastModified();
+        long length = file.length();
+        if (modified==loadedModified && length==loadedLength) {
+            return;
+        }
+        if (modified!=seenModified || length!=seenLength) {
+            // still changing, check again later
+            seenModified = modified;
+            seenLength = length;
+            return;
+        }
+
+        loadedModified = modified;
+        loadedLength = length;
+        IDMappingReaderFromText textReader = (IDMappingReaderFromText) reader;
+        try {
+            textReader.reload();
+            updateCapabilities();
+            prepareFreeSearch();
+        } catch (IDMapperException ex) {
+            for (ReloadListener listener : listeners) {
+                listener.reloadFailed(this, ex);
+            }
+            return;
+        }
+        for (ReloadListener listener : listeners) {
+            listener.reloaded(this, textReader.getRowCount(), textReader.getLoadTime());
+        }
+    }
+
+    /**
+     * Read the file again now, whether it has changed or not.
+     * Mapping requests are answered with the previous mappings until this is done.
+     * @throws IDMapperException if the file could not be read. The previous mappings are kept in that case.
+     */
+    public void reload() throws IDMapperException {
+        ((IDMappingReaderFromText) reader).reload();
+        updateCapabilities();
+        prepareFreeSearch();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Stops watching the file.
+     */
+    @Override
+    public void close() throws IDMapperException {
+        stopWatching();
+        super.close();
+    }
+
+    /**
+     * @return the local file this IDMapper reads from, or null if the URL does not refer to a local file.
+     */
+    private File getFile() {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException ex) {
+            return null;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
     /**
      * Get {@link URL} of the file.
      * @return {@link URL} of the file
@@ -0,0 +1,423 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.AbstractIDMapperCapabilities;
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.impl.InternalUtils;
+import org.bridgedb.impl.MappedDictionary;
+
+/**
+ * ID mapper that serves mappings from a precompiled, memory-mapped index file.
+ * <p>
+ * Parsing a large text file with {@link IDMapperText} on every start is slow and
+ * keeps the whole mapping on the heap. Instead, the mapping can be compiled once with
+ * {@link #compile(IDMapperFile, File)}. The index contains a dictionary of
+ * identifiers, sorted by DataSource and identifier, with for each identifier
+ * a list of the identifiers it maps to. Opening an index only maps the
+ * file into memory, and lookups are done directly on the mapped file with a binary search.
+ * <p>
+ * Mappings are the same as those of the IDMapperFile that the index was compiled from.
+ * An index file can be at most 2 GB.
+ * <p>
+ * Connection string: <code>idmapper-textindex:file:/path/to/file.idx</code>
+ */
+public class IDMapperTextIndex implements IDMapper {
+
+    static {
+        BridgeDb.register ("idmapper-textindex", new Driver());
+    }
+
+    /** Knows how to instantiate IDMapperTextIndex. */
+    private static final class Driver implements org.bridgedb.Driver {
+        /** prevent outside instantiation. */
+        private Driver() {}
+
+        /** {@inheritDoc} */
+        public IDMapper connect(String location) throws IDMapperException {
+            File file = new File(location);
+            if (!file.exists() && location.startsWith("file:")) {
+                try {
+                    file = new File(new URL(location).toURI());
+                } catch (IOException ex) {
+                    throw new IDMapperException(ex);
+                } catch (URISyntaxException ex) {
+                    throw new IDMapperException(ex);
+                }
+            }
+            return new IDMapperTextIndex(file);
+        }
+    }
+
+    /** "BDBI" */
+    private static final int MAGIC = 0x42444249;
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final DataSource[] dataSources;
+    private final MappedDictionary dictionary;
+    private final IDMapperCapabilities cap;
+
+    // positions of the sections of the index
+    private final int nEntries;
+    private final int adjOffsetPos;
+    private final int adjLengthPos;
+    private final int adjPos;
+
+    /** only accessed with absolute get methods, so that it can be shared between threads */
+    private volatile ByteBuffer buffer;
+
+    /**
+     * Open an index file that was created with {@link #compile(IDMappingReader, File)}.
+     * @param file index file
+     * @throws IDMapperException if the file could not be read or is not an index file
+     */
+    public IDMapperTextIndex(File file) throws IDMapperException {
+        this.file = file;
+        try {
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                FileChannel channel = fis.getChannel();
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IDMapperException("Index file is too large: " + file);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                fis.close();
+            }
+
+            ByteBuffer header = buffer.duplicate();
+            if (header.remaining() < 8 || header.getInt() != MAGIC) {
+                throw new IDMapperException("Not an index file: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IDMapperException("Unsupported index version " + version + " in " + file);
+            }
+
+            int nds = header.getInt();
+            dataSources = new DataSource[nds];
+            for (int i = 0; i < nds; i++) {
+                String sysCode = MappedDictionary.readString(header);
+                String fullName = MappedDictionary.readString(header);
+                dataSources[i] = InternalUtils.findOrRegisterDataSource(sysCode, fullName);
+            }
+
+            nEntries = header.getInt();
+            int dsStartPos = header.position();
+            adjOffsetPos = dsStartPos + 4 * (nds + 1);
+            adjLengthPos = adjOffsetPos + 4 * nEntries;
+            int idStartPos = adjLengthPos + 4 * nEntries;
+            int nAdj = buffer.getInt(idStartPos + 4 * (nEntries + 1));
+            adjPos = idStartPos + 4 * (nEntries + 1) + 4;
+            int idPos = adjPos + 4 * nAdj;
+            dictionary = new MappedDictionary(dataSources, dsStartPos, idStartPos, idPos);
+            if (idPos + dictionary.idLength(buffer, nEntries) > buffer.limit()) {
+                throw new IDMapperException("Index file is truncated: " + file);
+            }
+        } catch (IOException ex) {
+            throw new IDMapperException(ex);
+        } catch (RuntimeException ex) {
+            // BufferUnderflowException or IndexOutOfBoundsException on a corrupt file
+            throw new IDMapperException("Could not read index file " + file, ex);
+        }
+
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("entries", "" + nEntries);
+        cap = new IDMapperTextIndexCapabilities(
+                Collections.unmodifiableSet(new HashSet<DataSource>(Arrays.asList(dataSources))), props);
+    }
+
+    /**
+     * Compile the mappings of an IDMapperFile, such as an {@link IDMapperText}, to an index file.
+     * @param source IDMapperFile to compile
+     * @param index file to write the index to, will be overwritten
+     * @throws IDMapperException if the source could not be read or the index could not be written
+     */
+    public static void compile(IDMapperFile source, File index) throws IDMapperException {
+        compile(source.getIDMappingReader(), index);
+    }
+
+    /**
+     * Compile the mappings read by an IDMappingReader to an index file.
+     * Every target of a mapping must also be a source, as is the case for
+     * the readers of delimited text.
+     * @param reader IDMappingReader to compile
+     * @param index file to write the index to, will be overwritten
+     * @throws IDMapperException if the source could not be read or the index could not be written,
+     *     or if a target is not a source itself
+     */
+    public static void compile(IDMappingReader reader, File index) throws IDMapperException {
+        Map<Xref, Set<Xref>> mappings = reader.getIDMappings();
+
+        // collect DataSources, in a stable order
+        final Map<DataSource, Integer> dsIndex = new HashMap<DataSource, Integer>();
+        List<DataSource> dss = new ArrayList<DataSource>();
+        for (DataSource ds : reader.getDataSources()) {
+            dsIndex.put(ds, dss.size());
+            dss.add(ds);
+        }
+        for (Xref ref : mappings.keySet()) {
+            if (!dsIndex.containsKey(ref.getDataSource())) {
+                dsIndex.put(ref.getDataSource(), dss.size());
+                dss.add(ref.getDataSource());
+            }
+        }
+
+        // sort the dictionary by DataSource, then by the bytes of the id
+        Xref[] xrefs = mappings.keySet().toArray(new Xref[mappings.size()]);
+        int[] xrefDs = new int[xrefs.length];
+        byte[][] idBytes = new byte[xrefs.length][];
+        for (int i = 0; i < xrefs.length; i++) {
+            xrefDs[i] = dsIndex.get(xrefs[i].getDataSource());
+            idBytes[i] = MappedDictionary.encode(xrefs[i].getId());
+        }
+        Integer[] order = MappedDictionary.sort(xrefDs, idBytes);
+        Xref[] entries = new Xref[xrefs.length];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = xrefs[order[i]];
+        }
+        Map<Xref, Integer> entryIndex = new HashMap<Xref, Integer>();
+        for (int i = 0; i < entries.length; i++) {
+            entryIndex.put(entries[i], i);
+        }
+        // the index can only refer to targets that are in the dictionary
+        for (Xref ref : entries) {
+            for (Xref target : mappings.get(ref)) {
+                if (!entryIndex.containsKey(target)) {
+                    throw new IDMapperException("Can't index mapping from " + ref + " to " + target
+                            + ": the target has no mappings of its own");
+                }
+            }
+        }
+
+        // adjacency lists. Sets that are shared between entries, such as transitive groups, are written once.
+        Map<Set<Xref>, Integer> written = new IdentityHashMap<Set<Xref>, Integer>();
+        int[] adjOffset = new int[entries.length];
+        int[] adjLength = new int[entries.length];
+        List<Set<Xref>> adjSets = new ArrayList<Set<Xref>>();
+        long nAdj = 0;
+        for (int i = 0; i < entries.length; i++) {
+            Set<Xref> refs = mappings.get(entries[i]);
+            Integer offset = written.get(refs);
+            if (offset == null) {
+                offset = (int)nAdj;
+                written.put(refs, offset);
+                adjSets.add(refs);
+                nAdj += refs.size();
+            }
+            adjOffset[i] = offset;
+            adjLength[i] = refs.size();
+        }
+
+        long idLength = 0;
+        for (byte[] bytes : idBytes) {
+            idLength += bytes.length;
+        }
+        if (4L * (3L * entries.length + nAdj) + idLength > Integer.MAX_VALUE) {
+            throw new IDMapperException("Mapping is too large for a single index file");
+        }
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(dss.size());
+                for (DataSource ds : dss) {
+                    MappedDictionary.writeString(out, ds.getSystemCode() == null ? "" : ds.getSystemCode());
+                    MappedDictionary.writeString(out, ds.getFullName() == null ? "" : ds.getFullName());
+                }
+                out.writeInt(entries.length);
+
+                MappedDictionary.writeDataSourceStarts(out, dss.size(), xrefDs, order);
+
+                for (int offset : adjOffset) out.writeInt(offset);
+                for (int length : adjLength) out.writeInt(length);
+
+                MappedDictionary.writeIdStarts(out, idBytes, order);
+
+                out.writeInt((int)nAdj);
+                for (Set<Xref> refs : adjSets) {
+                    for (Xref ref : refs) {
+                        out.writeInt(entryIndex.get(ref));
+                    }
+                }
+
+                MappedDictionary.writeIds(out, idBytes, order);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ex) {
+            throw new IDMapperException(ex);
+        }
+    }
+
+    /** @return the mapped index file, or throws if this IDMapper was closed */
+    private ByteBuffer buffer() throws IDMapperException {
+        ByteBuffer result = buffer;
+        if (result == null) {
+            throw new IDMapperException("IDMapper is closed");
+        }
+        return result;
+    }
+
+    /**
+     * Look up the mappings of a single Xref.
+     * @param tgt indexes of the target DataSources, or null for all
+     */
+    private Set<Xref> lookup(ByteBuffer buf, Xref srcXref, boolean[] tgt) throws IDMapperException {
+        Set<Xref> result = new HashSet<Xref>();
+        int entry = dictionary.find(buf, srcXref);
+        if (entry < 0) return result;
+
+        int offset = buf.getInt(adjOffsetPos + 4 * entry);
+        int length = buf.getInt(adjLengthPos + 4 * entry);
+        for (int i = 0; i < length; i++) {
+            int target = buf.getInt(adjPos + 4 * (offset + i));
+            int ds = dictionary.dataSourceOf(buf, target);
+            if (tgt == null || tgt[ds]) {
+                result.add(new Xref(dictionary.idOf(buf, target), dataSources[ds]));
+            }
+        }
+        return result;
+    }
+
+    /** @return a mask of target DataSource indexes, or null if all are requested */
+    private boolean[] targets(DataSource... tgtDataSources) {
+        if (tgtDataSources == null || tgtDataSources.length == 0) return null;
+        boolean[] result = new boolean[dataSources.length];
+        for (DataSource ds : tgtDataSources) {
+            int i = dictionary.indexOf(ds);
+            if (i >= 0) result[i] = true;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs,
+            DataSource... tgtDataSources) throws IDMapperException {
+        if (srcXrefs == null) {
+            throw new NullPointerException("argument srcXrefs cannot be null");
+        }
+
+        ByteBuffer buf = buffer();
+        boolean[] tgt = targets(tgtDataSources);
+        Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+        for (Xref srcXref : srcXrefs) {
+            Set<Xref> refs = lookup(buf, srcXref, tgt);
+            if (!refs.isEmpty()) {
+                result.put(srcXref, refs);
+            }
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public Set<Xref> mapID(Xref srcXref, DataSource... tgtDataSources) throws IDMapperException {
+        return lookup(buffer(), srcXref, targets(tgtDataSources));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean xrefExists(final Xref xref) throws IDMapperException {
+        if (xref == null) {
+            throw new NullPointerException();
+        }
+        return dictionary.find(buffer(), xref) >= 0;
+    }
+
+    /**
+     * Free search is not supported for index files.
+     * This will throw UnsupportedOperationException
+     * @param text ignored
+     * @param limit ignored
+     * @return does not return
+     * @throws IDMapperException will not be thrown
+     */
+    public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The mapped file is released when it is garbage collected.
+     */
+    public void close() throws IDMapperException {
+        buffer = null;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isConnected() {
+        return buffer != null;
+    }
+
+    /**
+     *
+     * @return capacities of the ID mapper
+     */
+    public IDMapperCapabilities getCapabilities() {
+        return cap;
+    }
+
+    /**
+     * Get the index file.
+     * @return the index file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public String toString() {
+        return file.toString();
+    }
+
+    private static class IDMapperTextIndexCapabilities extends AbstractIDMapperCapabilities {
+        public IDMapperTextIndexCapabilities(Set<DataSource> dataSources, Map<String, String> props) {
+            super (dataSources, false, props);
+        }
+    }
+}
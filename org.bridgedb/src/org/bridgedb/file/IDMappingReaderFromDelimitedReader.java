@@ -16,8 +16,8 @@
 //
 package org.bridgedb.file;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 
 import java.util.ArrayList;
@@ -26,25 +26,58 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapperException;
 import org.bridgedb.Xref;
 import org.bridgedb.impl.InternalUtils;
+import org.bridgedb.impl.XrefUnionFind;
 
 /**
  * Class for reading ID mapping data from delimited reader.
+ * <p>
+ * The data is parsed in a single pass, line by line, and only the resulting
+ * mapping is kept in memory. Delimiters that consist of one or more single
+ * characters (such as those created by {@link IDMappingReaderFromText}) are
+ * matched with a simple scanner, other regular expressions fall back to
+ * {@link Pattern#split(CharSequence)}.
  * @author gjj
  */
 public class IDMappingReaderFromDelimitedReader implements IDMappingReader {
     private boolean transitivity;
     private List<DataSource> dataSources;
-    private Map<Xref,Set<Xref>> mapXrefs;
-    private List<String> data;
+    /** the current mapping, replaced at once when it is read again */
+    private volatile Map<Xref,Set<Xref>> mapXrefs;
+    /** mapping that is being read, without transitivity */
+    private Map<Xref,Set<Xref>> loading;
+    /** columns of the mapping that is being read, published together with it */
+    private List<DataSource> loadingDataSources;
+    /** statistics of the last time the mapping was read */
+    private volatile int rowCount = 0;
+    private volatile long loadTime = 0;
+    /** clusters of transitively mapped Xrefs, while reading with transitivity */
+    private XrefUnionFind clusters;
+    /** number of threads to parse with */
+    private int parallelism = 1;
+
+    /** first line of the data, null if not read yet */
+    private String header;
+    /** lines after the header, null if not opened yet or already consumed */
+    private LineReader body;
+    /** the reader passed to the constructor, until it is opened */
+    private Reader source;
 
     protected String regExDataSourceDelimiter;
     protected String regExIDDelimiter;
-    protected boolean dsValid, idMappingValid;
+    protected volatile boolean dsValid, idMappingValid;
 
     /**
      *
@@ -73,26 +106,27 @@ public class IDMappingReaderFromDelimitedReader implements IDMappingReader {
     }
 
     /**
-     * Read data.
+     * Prepare to read data. The reader is not consumed until the data sources or
+     * the ID mappings are requested, and is closed after the ID mappings have been read.
      * @param reader to read data from
      * @throws IDMapperException when file can't be read
      */
     protected void readData(final Reader reader) throws IDMapperException {
-        data = new ArrayList<String>();
-        BufferedReader bfdrd = new BufferedReader(reader);
-        try {
-            String line = bfdrd.readLine();
+        closeBody();
+        source = reader;
+        header = null;
+    }
 
-            while (line!=null) {
-                data.add(line);
-                line = bfdrd.readLine();
-            }
-            
-            bfdrd.close();
-            reader.close();
-        } catch(IOException e) {
-            throw new IDMapperException(e);
-        }
+    /**
+     * Open the data again, after the reader passed to the constructor has been consumed.
+     * This is needed when the ID mappings are read a second time, for example
+     * after changing the delimiters. The base implementation can't do this, subclasses that
+     * know where the data came from may override it.
+     * @return a new {@link Reader} positioned at the start of the data
+     * @throws IOException if the data can't be read again
+     */
+    protected Reader reopen() throws IOException {
+        throw new IOException("The ID mapping data has already been read");
     }
 
     /**
@@ -124,7 +158,7 @@ public class IDMappingReaderFromDelimitedReader implements IDMappingReader {
     /**
      * {@inheritDoc}
      */
-    public Set<DataSource> getDataSources() throws IDMapperException {
+    public synchronized Set<DataSource> getDataSources() throws IDMapperException {
         if (!dsValid) {
             try {
                 readDataSources();
@@ -140,15 +174,108 @@ public class IDMappingReaderFromDelimitedReader implements IDMappingReader {
      * {@inheritDoc}
      */
     public Map<Xref,Set<Xref>> getIDMappings() throws IDMapperException {
-        if (!idMappingValid) {
-            try {
+        // once read, the mapping is returned without locking, even while it is being reloaded
+        Map<Xref,Set<Xref>> result = mapXrefs;
+        if (idMappingValid && result!=null) {
+            return result;
+        }
+
+        synchronized (this) {
+            if (!idMappingValid) {
+                try {
+                    readIDMappings();
+                } catch(IOException ex) {
+                    throw new IDMapperException(ex);
+                }
+            }
+
+            return mapXrefs;
+        }
+    }
+
+    /**
+     * Read the data again, for example because the file has changed. The data sources
+     * are read again as well, unless they were set with {@link #setDataSources(List)}.
+     * Until the new mapping is complete, {@link #getIDMappings()} and {@link #getDataSources()}
+     * keep returning the previous ones.
+     * This requires that the data can be opened again with {@link #reopen()}.
+     * @throws IDMapperException if the data could not be read. The previous mapping is kept in that case.
+     */
+    public synchronized void reload() throws IDMapperException {
+        closeBody();
+        source = null;
+        header = null;
+        try {
+            if (dsValid) {
+                // keep the current data sources until the new mapping is complete
+                List<DataSource> dss = new ArrayList<DataSource>();
+                boolean complete = parseDataSources(dss);
+                readIDMappings(dss);
+                dsValid = complete;
+            } else {
                 readIDMappings();
-            } catch(IOException ex) {
-                throw new IDMapperException(ex);
             }
+        } catch(IOException ex) {
+            throw new IDMapperException(ex);
         }
+    }
+
+    /**
+     * Get the number of rows in the data, the last time the ID mappings were read.
+     * @return number of rows, not counting the header, or 0 if the mappings weren't read yet.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
 
-        return mapXrefs;
+    /**
+     * Get the time it took to read the ID mappings, the last time they were read.
+     * @return time in milliseconds, or 0 if the mappings weren't read yet.
+     */
+    public long getLoadTime() {
+        return loadTime;
+    }
+
+    /**
+     * Read the header line, if that hasn't happened yet. Afterwards, {@link #body} is
+     * positioned after the header, unless the data has been consumed before.
+     * @throws IOException on failing to read file
+     */
+    private void readHeader() throws IOException {
+        if (header!=null) {
+            return;
+        }
+
+        openBody();
+        header = body.readLine() ? body.toString() : "";
+    }
+
+    /**
+     * Open the data, skipping the header line if it was read before.
+     * @throws IOException on failing to read file
+     */
+    private void openBody() throws IOException {
+        if (body!=null) {
+            return;
+        }
+
+        Reader reader = source;
+        source = null;
+        if (reader==null) {
+            reader = reopen();
+        }
+        body = new LineReader(reader);
+        if (header!=null) {
+            body.readLine();
+        }
+    }
+
+    /** Close the data, if it is open. */
+    private void closeBody() {
+        if (body!=null) {
+            body.close();
+            body = null;
+        }
     }
 
     /**
@@ -156,76 +283,324 @@ public class IDMappingReaderFromDelimitedReader implements IDMappingReader {
      * @throws IOException on failing to read file
      */
     protected void readDataSources() throws IOException {
-        dataSources = new ArrayList<DataSource>();
+        List<DataSource> dss = new ArrayList<DataSource>();
+        boolean complete = parseDataSources(dss);
+        dataSources = dss;
+        dsValid = complete;
+    }
+
+    /**
+     * Parse {@link DataSource}s from the header line.
+     * @param dss list to add the data sources to
+     * @return false if the header was empty or incomplete
+     * @throws IOException on failing to read file
+     */
+    private boolean parseDataSources(final List<DataSource> dss) throws IOException {
+        readHeader();
 
         // add data sources
-        if (data.isEmpty()) {
+        if (header.length()==0) {
                 System.err.println("Empty file");
-                return;
+                return false;
         }
 
-        String[] types = data.get(0).split(regExDataSourceDelimiter);
-        int nds = types.length;
-        DataSource[] dss = new DataSource[nds];
-        for (int ids=0; ids<nds; ids++) {
-            String type = types[ids];
+        Splitter dsSplitter = new Splitter(regExDataSourceDelimiter);
+        for (String type : dsSplitter.split(header)) {
             if (type.length()==0) {//TODO: how to deal with consecutive Delimiters
-                return;
+                return false;
             }
 
-            dss[ids] = DataSource.getByFullName(type);
-            dataSources.add(dss[ids]);
+            dss.add(DataSource.getByFullName(type));
         }
 
-        dsValid = true;
+        return true;
     }
     
     /**
-     * Read ID mappings from the reader.
+     * Read ID mappings from the reader, in a single pass.
+     * If the parallelism is larger than one, and the data can be split
+     * with {@link #openChunks(int)}, the chunks are parsed in parallel instead.
+     * <p>
+     * The new mapping replaces the previous one at once, when it is complete.
      * @throws IOException on file read error
      */
     protected void readIDMappings() throws IOException {
-        mapXrefs = new HashMap<Xref, Set<Xref>>();
+        if (dataSources==null) {
+            readDataSources();
+        }
+        readIDMappings(dataSources);
+    }
+
+    /**
+     * Read ID mappings, with the given data sources as columns.
+     * The data sources are published together with the new mapping.
+     * @param dss data sources of the columns
+     * @throws IOException on file read error
+     */
+    private void readIDMappings(final List<DataSource> dss) throws IOException {
+        long start = System.currentTimeMillis();
 
-        int nline = data.size();
-        if (nline<2) {
+        int rows;
+        loading = new HashMap<Xref, Set<Xref>>();
+        loadingDataSources = dss;
+        try {
+            List<Reader> chunks = parallelism>1 ? openChunks(parallelism) : null;
+            if (chunks!=null) {
+                closeBody(); // the chunks are read instead
+                rows = readIDMappingsParallel(chunks);
+            } else {
+                rows = readIDMappingsSequential();
+            }
+
+            // publish the complete mapping at once
+            dataSources = dss;
+            mapXrefs = loading;
+        } finally {
+            loading = null;
+            loadingDataSources = null;
+            clusters = null;
+        }
+
+        rowCount = rows;
+        loadTime = System.currentTimeMillis() - start;
+        idMappingValid = true;
+    }
+
+    /**
+     * Parse the data on the calling thread, into {@link #loading}.
+     * @return number of rows read, not counting the header
+     * @throws IOException on file read error
+     */
+    private int readIDMappingsSequential() throws IOException {
+        try {
+            readHeader();
+            openBody();
+
+            // share a single instance between all lines an Xref occurs on.
+            // With transitivity, the clusters take care of that.
+            RowParser parser = new RowParser(transitivity ? null : new HashMap<Xref, Xref>());
+
+            // read each ID mapping (line)
+            int iline = 0;
+            while (body.readLine()) {
+                iline++;
+                Set<Xref> xrefs = parser.parse(body, iline);
+                if (!xrefs.isEmpty()) {
+                    addIDMapping(xrefs);
+                }
+            }
+
+            if (iline==0) {
                 System.err.println("No ID mapping data");
-                return;
+            }
+
+            if (clusters!=null) {
+                // every member of a cluster shares the same group
+                loading = clusters.toMap();
+            }
+            return iline;
+        } finally {
+            closeBody();
         }
+    }
 
-        // read each ID mapping (line)
-        for (int iline=1; iline<nline; iline++) {
-            String line = data.get(iline);
-            String[] strs = line.split(regExDataSourceDelimiter);
-            if (strs.length>dataSources.size()) {
-                    System.err.println("The number of ID is larger than the number of types at row "+iline);
-                    //continue;
+    /**
+     * Parse chunks of the data on a thread pool, each into a partial mapping,
+     * and merge the partial mappings into {@link #loading}. With transitivity,
+     * clusters are merged across chunks as well.
+     * @param chunks line-aligned chunks of the data, the first one starting with the header.
+     * @return number of rows read, not counting the header
+     * @throws IOException on file read error
+     */
+    private int readIDMappingsParallel(final List<Reader> chunks) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, chunks.size()));
+        // without transitivity, all chunks share a single instance of each Xref
+        final Map<Xref, Xref> canonical = transitivity ? null : new ConcurrentHashMap<Xref, Xref>();
+        try {
+            List<Future<Partial>> partials = new ArrayList<Future<Partial>>();
+            for (int i=0; i<chunks.size(); i++) {
+                final Reader chunk = chunks.get(i);
+                final boolean first = i==0;
+                partials.add(executor.submit(new Callable<Partial>() {
+                    public Partial call() throws IOException {
+                        return parseChunk(chunk, first, canonical);
+                    }
+                }));
             }
 
-            int n = Math.min(strs.length, dataSources.size());
+            // merge in the order of the chunks, so the result doesn't depend on timing
+            int rows = 0;
+            if (transitivity) {
+                XrefUnionFind merged = new XrefUnionFind();
+                for (Future<Partial> future : partials) {
+                    Partial partial = getPartial(future);
+                    rows += partial.rows;
+                    for (Set<Xref> cluster : partial.clusters.getClusters()) {
+                        merged.union(cluster);
+                    }
+                }
+                loading = merged.toMap();
+            } else {
+                // the chunks share their canonical Xrefs, so sets can be merged as they are
+                for (Future<Partial> future : partials) {
+                    Partial partial = getPartial(future);
+                    rows += partial.rows;
+                    if (loading.isEmpty()) {
+                        loading = partial.map;
+                        continue;
+                    }
+                    for (Map.Entry<Xref, Set<Xref>> entry : partial.map.entrySet()) {
+                        Set<Xref> refs = loading.get(entry.getKey());
+                        if (refs==null) {
+                            loading.put(entry.getKey(), entry.getValue());
+                        } else {
+                            refs.addAll(entry.getValue());
+                        }
+                    }
+                    partial.map.clear();
+                }
+            }
+            return rows;
+        } finally {
+            executor.shutdownNow();
+            for (Reader chunk : chunks) {
+                try {
+                    chunk.close();
+                } catch (IOException ex) {
+                    // already parsed or failed, ignore
+                }
+            }
+        }
+    }
 
-            Set<Xref> xrefs = new HashSet<Xref>();
+    /**
+     * Look up the canonical instance of an Xref, so that an Xref that occurs on
+     * several lines is stored once. The map is only needed while reading.
+     */
+    private static Xref canonical(final Map<Xref, Xref> canonical, final Xref ref) {
+        if (canonical instanceof ConcurrentMap) {
+            Xref result = ((ConcurrentMap<Xref, Xref>)canonical).putIfAbsent(ref, ref);
+            return result==null ? ref : result;
+        }
+        Xref result = canonical.get(ref);
+        if (result==null) {
+            canonical.put(ref, ref);
+            result = ref;
+        }
+        return result;
+    }
 
-            for (int i=0; i<n; i++) {
-                String str = strs[i];
-                if (regExIDDelimiter==null) {
-                    xrefs.add(new Xref(str, dataSources.get(i)));
+    /** @return result of a chunk that was parsed in parallel */
+    private static Partial getPartial(final Future<Partial> partial) throws IOException {
+        try {
+            return partial.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading ID mappings");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException)ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /** Partial mapping of a chunk of the data */
+    private static final class Partial {
+        /** number of rows in the chunk */
+        int rows;
+        /** clusters in the chunk, with transitivity */
+        XrefUnionFind clusters;
+        /** mapping of the chunk, without transitivity */
+        Map<Xref, Set<Xref>> map;
+    }
+
+    /**
+     * Parse a chunk of the data. Called on a worker thread.
+     * @param chunk chunk to parse
+     * @param first true if this is the first chunk, which starts with the header
+     * @param canonical canonical Xrefs, shared by all chunks, or null with transitivity
+     * @return the partial mapping of the chunk
+     * @throws IOException on read error
+     */
+    private Partial parseChunk(final Reader chunk, final boolean first,
+            final Map<Xref, Xref> canonical) throws IOException {
+        LineReader lines = new LineReader(chunk);
+        try {
+            RowParser parser = new RowParser(canonical);
+            Partial result = new Partial();
+            if (transitivity) {
+                result.clusters = new XrefUnionFind();
+            } else {
+                result.map = new HashMap<Xref, Set<Xref>>();
+            }
+
+            if (first) {
+                lines.readLine(); // header
+            }
+            while (lines.readLine()) {
+                result.rows++;
+                Set<Xref> xrefs = parser.parse(lines, result.rows);
+                if (xrefs.isEmpty()) {
+                    continue;
+                }
+                if (transitivity) {
+                    result.clusters.union(xrefs);
                 } else {
-                    String[] ids = str.split(regExIDDelimiter);
-                    for (String id : ids) {
-                        xrefs.add(new Xref(id, dataSources.get(i)));
+                    for (Xref ref : xrefs) {
+                        InternalUtils.multiMapPutAll(result.map, ref, xrefs);
                     }
                 }
             }
+            return result;
+        } finally {
+            lines.close();
+        }
+    }
+
+    /**
+     * Split the data in line-aligned chunks, that can be parsed in parallel.
+     * The base implementation can't do that, subclasses that know where the data
+     * came from may override it.
+     * @param n the preferred number of chunks
+     * @return readers for consecutive chunks of the data, the first
+     *         starting with the header. Null if the data can't be split.
+     * @throws IOException if the data can't be read
+     */
+    protected List<Reader> openChunks(final int n) throws IOException {
+        return null;
+    }
 
-            addIDMapping(xrefs);
+    /**
+     * Set the number of threads to parse the ID mappings with.
+     * Only has an effect if the data can be split in chunks, see {@link #openChunks(int)}.
+     * @param parallelism number of threads, 1 to parse on the calling thread.
+     */
+    public void setParallelism(final int parallelism) {
+        if (parallelism<1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
         }
+        this.parallelism = parallelism;
+    }
 
-        idMappingValid = true;
+    /**
+     * Get the number of threads to parse the ID mappings with.
+     * @return number of threads
+     */
+    public int getParallelism() {
+        return parallelism;
     }
-    
+
+    private static Xref newXref(final Map<Xref, Xref> canonical, final String id, final DataSource ds) {
+        Xref ref = new Xref(id, ds);
+        return canonical==null ? ref : canonical(canonical, ref);
+    }
+
     /**
      * Add matched references.
+     * <p>
+     * With transitivity, the references are merged into clusters,
+     * which are only turned into the ID mapping at the end of {@link #readIDMappings()}.
      * @param xrefs matched references
      */
     protected void addIDMapping(final Set<Xref> xrefs) {
@@ -234,22 +609,311 @@ public class IDMappingReaderFromDelimitedReader implements IDMappingReader {
         }
 
         if (transitivity) {
-            Set<Xref> newXrefs = new HashSet<Xref>(xrefs);
+            if (clusters==null) {
+                clusters = new XrefUnionFind();
+            }
+            clusters.union(xrefs);
+        } else {
+            for (Xref ref : xrefs) 
+            {
+        		InternalUtils.multiMapPutAll(loading, ref, xrefs);
+            }
+        }
+    }
 
-            for (Xref xref : xrefs) {
-                Set<Xref> oldXrefs = mapXrefs.get(xref);
-                if (oldXrefs!=null) {
-                    newXrefs.addAll(oldXrefs); // merge
+    /**
+     * Find the characters matched by a regular expression that matches a single
+     * character from a fixed set, such as <code>\t</code>, <code>,</code> or
+     * <code>[\011;]</code>.
+     * @param regex regular expression
+     * @return the characters matched by regex, or null if regex is more
+     *         complex than that.
+     */
+    static char[] delimiterChars(final String regex) {
+        if (regex==null || regex.length()==0) {
+            return null;
+        }
+
+        StringBuilder chars = new StringBuilder();
+        int end = regex.length();
+        int pos = 0;
+        boolean charClass = regex.charAt(0)=='[';
+        if (charClass) {
+            if (regex.charAt(end-1)!=']' || end<3) {
+                return null;
+            }
+            pos = 1;
+            end--;
+        }
+
+        while (pos<end) {
+            char ch = regex.charAt(pos++);
+            if (ch=='\\') {
+                if (pos>=end) {
+                    return null;
                 }
+                ch = regex.charAt(pos++);
+                if (ch=='t') {
+                    chars.append('\t');
+                } else if (ch=='0') {
+                    // octal escape, as created by IDMappingReaderFromText
+                    int value = 0;
+                    int ndigits = 0;
+                    while (pos<end && ndigits<3 && regex.charAt(pos)>='0' && regex.charAt(pos)<='7') {
+                        value = value*8 + (regex.charAt(pos++)-'0');
+                        ndigits++;
+                    }
+                    if (ndigits==0) {
+                        return null;
+                    }
+                    chars.append((char)value);
+                } else if (Character.isLetterOrDigit(ch)) {
+                    return null; // character classes such as \s, or back references
+                } else {
+                    chars.append(ch);
+                }
+            } else if ((charClass ? "[]^-&" : ".$|()[]{}^?*+").indexOf(ch)>=0) {
+                return null;
+            } else {
+                chars.append(ch);
+            }
+        }
+
+        if (!charClass && chars.length()!=1) {
+            return null;
+        }
+        return chars.toString().toCharArray();
+    }
+
+    /**
+     * Turns rows of the data into sets of Xrefs. Not thread safe,
+     * each thread needs its own.
+     */
+    private final class RowParser {
+        private final DataSource[] dss;
+        private final Splitter dsSplitter;
+        private final Splitter idSplitter;
+        private final Map<Xref, Xref> canonical;
+
+        /**
+         * @param canonical map of canonical Xrefs, so that there is a single instance of each Xref.
+         *        May be null, if Xrefs are interned elsewhere.
+         */
+        RowParser(final Map<Xref, Xref> canonical) {
+            dss = loadingDataSources.toArray(new DataSource[loadingDataSources.size()]);
+            dsSplitter = new Splitter(regExDataSourceDelimiter);
+            idSplitter = regExIDDelimiter==null ? null : new Splitter(regExIDDelimiter);
+            this.canonical = canonical;
+        }
+
+        /**
+         * @param line the current line
+         * @param iline line number, for warnings
+         * @return Xrefs on the line, may be empty
+         */
+        Set<Xref> parse(final LineReader line, final int iline) {
+            int nds = dss.length;
+            List<String> strs = dsSplitter.split(line.chars(), line.length());
+            if (strs.size()>nds) {
+                    System.err.println("The number of ID is larger than the number of types at row "+iline);
+                    //continue;
             }
 
-            for (Xref xref : newXrefs) {
-                mapXrefs.put(xref, newXrefs);
+            int n = Math.min(strs.size(), nds);
+
+            Set<Xref> xrefs = new HashSet<Xref>();
+
+            for (int i=0; i<n; i++) {
+                String str = strs.get(i);
+                if (idSplitter==null) {
+                    if (str.length()>0) {
+                        xrefs.add(newXref(canonical, str, dss[i]));
+                    }
+                } else {
+                    for (String id : idSplitter.split(str)) {
+                        if (id.length()>0) {
+                            xrefs.add(newXref(canonical, id, dss[i]));
+                        }
+                    }
+                }
             }
-        } else {
-            for (Xref ref : xrefs) 
-            {
-        		InternalUtils.multiMapPutAll(mapXrefs, ref, xrefs);
+            return xrefs;
+        }
+    }
+
+    /**
+     * Splits text on a delimiter, with the same result as {@link String#split(String)}.
+     * Single-character delimiters are matched by scanning the text,
+     * other regular expressions are compiled once.
+     */
+    private static final class Splitter {
+        private final char[] delimiters;
+        private final Pattern pattern;
+        private final List<String> result = new ArrayList<String>();
+
+        Splitter(final String regex) {
+            delimiters = delimiterChars(regex);
+            pattern = delimiters==null ? Pattern.compile(regex) : null;
+        }
+
+        private boolean isDelimiter(final char ch) {
+            for (char d : delimiters) {
+                if (d==ch) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Split a String. The returned list is reused by the next call.
+         * @param text text to split
+         * @return the fields, without trailing empty fields
+         */
+        List<String> split(final String text) {
+            if (pattern!=null) {
+                result.clear();
+                for (String str : pattern.split(text)) {
+                    result.add(str);
+                }
+                return result;
+            }
+
+            result.clear();
+            int fieldStart = 0;
+            int nonEmpty = 0;
+            int end = text.length();
+            for (int i=0; i<=end; i++) {
+                if (i==end || isDelimiter(text.charAt(i))) {
+                    result.add(text.substring(fieldStart, i));
+                    if (i>fieldStart) {
+                        nonEmpty = result.size();
+                    }
+                    fieldStart = i+1;
+                }
+            }
+            return trim(nonEmpty);
+        }
+
+        /**
+         * Split the start of a character array. The returned list is reused by the next call.
+         * @param text text to split
+         * @param end end of the text, exclusive
+         * @return the fields, without trailing empty fields
+         */
+        List<String> split(final char[] text, final int end) {
+            if (pattern!=null) {
+                return split(new String(text, 0, end));
+            }
+
+            result.clear();
+            int fieldStart = 0;
+            int nonEmpty = 0;
+            for (int i=0; i<=end; i++) {
+                if (i==end || isDelimiter(text[i])) {
+                    if (i>fieldStart) {
+                        result.add(new String(text, fieldStart, i-fieldStart));
+                        nonEmpty = result.size();
+                    } else {
+                        result.add("");
+                    }
+                    fieldStart = i+1;
+                }
+            }
+            return trim(nonEmpty);
+        }
+
+        /** remove trailing empty fields, like String.split does */
+        private List<String> trim(final int nonEmpty) {
+            while (result.size()>nonEmpty) {
+                result.remove(result.size()-1);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Reads lines into a reused buffer, so that no String is created for a whole line.
+     * Lines end with \n, \r or \r\n.
+     */
+    private static final class LineReader {
+        private static final int BUFFER_SIZE = 8192;
+
+        private final Reader reader;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int bufferPos = 0;
+        private int bufferEnd = 0;
+
+        private char[] line = new char[256];
+        private int length = 0;
+        private boolean skipLineFeed = false;
+
+        LineReader(final Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Read the next line.
+         * @return false at the end of the data
+         * @throws IOException on read error
+         */
+        boolean readLine() throws IOException {
+            length = 0;
+            boolean any = false;
+            while (true) {
+                if (bufferPos>=bufferEnd) {
+                    bufferEnd = reader.read(buffer, 0, BUFFER_SIZE);
+                    bufferPos = 0;
+                    if (bufferEnd<=0) {
+                        bufferEnd = 0;
+                        return any;
+                    }
+                }
+
+                char ch = buffer[bufferPos++];
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (ch=='\n') {
+                        continue;
+                    }
+                }
+
+                if (ch=='\n' || ch=='\r') {
+                    skipLineFeed = ch=='\r';
+                    return true;
+                }
+
+                any = true;
+                if (length==line.length) {
+                    char[] grown = new char[line.length*2];
+                    System.arraycopy(line, 0, grown, 0, length);
+                    line = grown;
+                }
+                line[length++] = ch;
+            }
+        }
+
+        /** @return characters of the current line, valid up to {@link #length()} */
+        char[] chars() {
+            return line;
+        }
+
+        /** @return length of the current line */
+        int length() {
+            return length;
+        }
+
+        /** @return the current line */
+        @Override
+        public String toString() {
+            return new String(line, 0, length);
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException ex) {
+                // nothing left to read, ignore
             }
         }
     }
@@ -16,14 +16,22 @@
 //
 package org.bridgedb.file;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.bridgedb.IDMapperException;
 import org.bridgedb.impl.InternalUtils;
 
@@ -34,6 +42,9 @@ import org.bridgedb.impl.InternalUtils;
  */
 public class IDMappingReaderFromText extends IDMappingReaderFromDelimitedReader {
     
+    /** minimum size in bytes of a chunk that is parsed in parallel */
+    public static final long MIN_CHUNK_SIZE = 1024*1024;
+
     protected final URL url;
 
     /**
@@ -141,6 +152,144 @@ public class IDMappingReaderFromText extends IDMappingReaderFromDelimitedReader
         regExIDDelimiter = strs2regex(idDelimiters);
     }
 
+    /**
+     * Open the file again, for reading the ID mappings a second time.
+     * @return a new {@link Reader} for the file
+     * @throws IOException if the file can't be read
+     */
+    @Override
+    protected Reader reopen() throws IOException {
+        return new InputStreamReader(InternalUtils.getInputStream(url));
+    }
+
+    /**
+     * Split a local file in line-aligned chunks of at least {@link #MIN_CHUNK_SIZE} bytes.
+     * Only files on the local file system in a character set where a line feed is a single
+     * byte can be split.
+     * @param n the preferred number of chunks
+     * @return readers for the chunks, or null if the file can't be split.
+     * @throws IOException if the file can't be read
+     */
+    @Override
+    protected List<Reader> openChunks(final int n) throws IOException {
+        if (!"file".equals(url.getProtocol()) || "\n".getBytes().length!=1) {
+            return null;
+        }
+
+        File file;
+        try {
+            file = new File(url.toURI());
+        } catch (URISyntaxException ex) {
+            return null;
+        }
+
+        long size = file.length();
+        int nchunks = (int)Math.min(n, size/MIN_CHUNK_SIZE);
+        if (nchunks<2) {
+            return null;
+        }
+
+        // move each boundary to just after the next line feed
+        List<Long> starts = new ArrayList<Long>();
+        starts.add(0L);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] buf = new byte[4096];
+            for (int i=1; i<nchunks; i++) {
+                long pos = Math.max(size*i/nchunks, starts.get(starts.size()-1));
+                raf.seek(pos);
+                boolean found = false;
+                int read;
+                while (!found && (read = raf.read(buf))>0) {
+                    for (int j=0; j<read; j++) {
+                        if (buf[j]=='\n') {
+                            pos += j+1;
+                            found = true;
+                            break;
+                        }
+                    }
+                    if (!found) {
+                        pos += read;
+                    }
+                }
+                if (!found || pos>=size) {
+                    break;
+                }
+                if (pos>starts.get(starts.size()-1)) {
+                    starts.add(pos);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+        if (starts.size()<2) {
+            return null;
+        }
+        starts.add(size);
+
+        List<Reader> chunks = new ArrayList<Reader>();
+        for (int i=0; i<starts.size()-1; i++) {
+            chunks.add(new InputStreamReader(new FileRangeInputStream(
+                    file, starts.get(i), starts.get(i+1))));
+        }
+        return chunks;
+    }
+
+    /** Reads a range of bytes from a file. The file is opened on the first read. */
+    private static final class FileRangeInputStream extends InputStream {
+        private final File file;
+        private final long start;
+        private long remaining;
+        private InputStream in = null;
+
+        FileRangeInputStream(final File file, final long start, final long end) {
+            this.file = file;
+            this.start = start;
+            this.remaining = end-start;
+        }
+
+        private InputStream open() throws IOException {
+            if (in==null) {
+                FileInputStream fis = new FileInputStream(file);
+                fis.getChannel().position(start);
+                in = new BufferedInputStream(fis);
+            }
+            return in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining<=0) {
+                return -1;
+            }
+            int result = open().read();
+            if (result>=0) {
+                remaining--;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining<=0) {
+                return -1;
+            }
+            int result = open().read(b, off, (int)Math.min(len, remaining));
+            if (result>0) {
+                remaining -= result;
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            remaining = 0;
+            if (in!=null) {
+                in.close();
+            }
+        }
+    }
+
     protected static String strs2regex(final char[] chs) {
         if (chs==null || chs.length==0) {
             return null;
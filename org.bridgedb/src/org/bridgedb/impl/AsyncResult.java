@@ -0,0 +1,209 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2013 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.bridgedb.AsyncIDMapper;
+import org.bridgedb.IDMapperException;
+
+/**
+ * Result of an asynchronous query, that is completed by whoever runs the query.
+ * Notifies an optional callback when it is completed. Cancelling only
+ * marks the result as cancelled, it does not interrupt the query.
+ * <p>
+ * <b>Warning!</b> This class is not part of the public API of BridgeDb. Methods in this class
+ * may disappear or change in backwards-incompatible ways. <b>This class should not be used by applications!</b>
+ * @param <T> type of the result
+ */
+public final class AsyncResult<T> implements Future<T>
+{
+	private static final int PENDING = 0;
+	private static final int COMPLETED = 1;
+	private static final int FAILED = 2;
+	private static final int CANCELLED = 3;
+
+	private final AsyncIDMapper.Callback<T> callback;
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private int state = PENDING;
+	private T value = null;
+	private IDMapperException error = null;
+
+	/**
+	 * @param callback notified when this is completed or fails, may be null
+	 */
+	public AsyncResult(AsyncIDMapper.Callback<T> callback)
+	{
+		this.callback = callback;
+	}
+
+	/**
+	 * Run a blocking query on an executor.
+	 * @param executor executor to run the query on, or null to run it in the calling thread.
+	 * @param query the query
+	 * @param callback notified when the query is done, may be null
+	 * @return pending result of the query
+	 */
+	public static <T> AsyncResult<T> submit(Executor executor, final Callable<T> query, AsyncIDMapper.Callback<T> callback)
+	{
+		final AsyncResult<T> result = new AsyncResult<T>(callback);
+		Runnable task = new Runnable()
+		{
+			public void run()
+			{
+				result.run(query);
+			}
+		};
+		if (executor == null)
+		{
+			task.run();
+		}
+		else
+		{
+			try
+			{
+				executor.execute(task);
+			}
+			catch (RejectedExecutionException ex)
+			{
+				result.fail(new IDMapperException ("Could not start query", ex));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Run a query in the calling thread, and complete this with its result.
+	 * Anything the query throws, including an Error, makes this fail, so that
+	 * a waiting caller is never left hanging.
+	 * @param query the query
+	 */
+	public void run(Callable<T> query)
+	{
+		if (isDone()) return;
+		try
+		{
+			complete(query.call());
+		}
+		catch (IDMapperException ex)
+		{
+			fail(ex);
+		}
+		catch (Throwable ex)
+		{
+			fail(new IDMapperException(ex));
+		}
+	}
+
+	/**
+	 * Set the result, unless this is already done.
+	 * @param result result of the query
+	 * @return true if the result was set
+	 */
+	public boolean complete(T result)
+	{
+		synchronized (this)
+		{
+			if (state != PENDING) return false;
+			value = result;
+			state = COMPLETED;
+		}
+		done.countDown();
+		if (callback != null) callback.completed(result);
+		return true;
+	}
+
+	/**
+	 * Mark the query as failed, unless this is already done.
+	 * @param ex reason of the failure
+	 * @return true if the failure was set
+	 */
+	public boolean fail(IDMapperException ex)
+	{
+		synchronized (this)
+		{
+			if (state != PENDING) return false;
+			error = ex;
+			state = FAILED;
+		}
+		done.countDown();
+		if (callback != null) callback.failed(ex);
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		synchronized (this)
+		{
+			if (state != PENDING) return false;
+			state = CANCELLED;
+		}
+		done.countDown();
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	public synchronized boolean isCancelled()
+	{
+		return state == CANCELLED;
+	}
+
+	/** {@inheritDoc} */
+	public synchronized boolean isDone()
+	{
+		return state != PENDING;
+	}
+
+	/** {@inheritDoc} */
+	public T get() throws InterruptedException, ExecutionException
+	{
+		done.await();
+		return report();
+	}
+
+	/** {@inheritDoc} */
+	public T get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException
+	{
+		if (!done.await(timeout, unit)) throw new TimeoutException();
+		return report();
+	}
+
+	/** @return the result of a query that is done */
+	private synchronized T report() throws ExecutionException
+	{
+		switch (state)
+		{
+		case COMPLETED:
+			return value;
+		case FAILED:
+			throw new ExecutionException(error);
+		default:
+			throw new CancellationException();
+		}
+	}
+}
@@ -298,6 +298,32 @@ public final class InternalUtils
 		return result;
 	}
 	
+	/**
+	 * Look up a DataSource that was stored by system code and full name, 
+	 * for example in an index file or a database. 
+	 * The system code is looked up first. Only when the lookup misses, 
+	 * a new DataSource is registered.
+	 * @param sysCode system code, null or empty if not known
+	 * @param fullName full name, null or empty if not known
+	 * @return the DataSource, or null if neither the system code nor the full name is known.
+	 */
+	@SuppressWarnings("deprecation") // only to create DataSources that have just one of the two keys
+	public static DataSource findOrRegisterDataSource(String sysCode, String fullName)
+	{
+		boolean hasName = fullName != null && fullName.length() > 0;
+		if (sysCode != null && sysCode.length() > 0)
+		{
+			DataSource result = DataSource.findBySystemCode(sysCode);
+			if (result != null) return result;
+			if (hasName && !DataSource.fullNameExists(fullName))
+				return DataSource.register(sysCode, fullName).asDataSource();
+			return DataSource.getBySystemCode(sysCode);
+		}
+		if (!hasName) return null;
+		if (DataSource.fullNameExists(fullName)) return DataSource.getExistingByFullName(fullName);
+		return DataSource.getByFullName(fullName);
+	}
+	
 	/**
 	 * Join the ID part of a collection of Xrefs with a custom separator.
 	 * @param refs Xrefs from which the ids will be concatenated
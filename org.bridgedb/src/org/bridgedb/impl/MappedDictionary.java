@@ -0,0 +1,296 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2013 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.impl;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Dictionary of identifiers in a memory-mapped file, shared by the file formats
+ * of IDMapperTextIndex and IDMapperMmap.
+ * <p>
+ * Entries are grouped by DataSource, and sorted within each DataSource by the UTF-8 bytes
+ * of their identifier, so that the entry number of an Xref is found with a binary search.
+ * The dictionary is stored in three sections, at positions that are given by the file format:
+ * <ul>
+ * <li>for each DataSource the number of its first entry, followed by the number of entries.
+ * <li>for each entry the offset of its identifier, followed by the total length of the identifiers.
+ * <li>the identifiers, without separators.
+ * </ul>
+ * The buffer is passed to each method, so that the file format can release it when it is closed.
+ * Only absolute get methods are used, so the buffer can be shared between threads.
+ * <p>
+ * <b>Warning!</b> This class is not part of the public API of BridgeDb. Methods in this class
+ * may disappear or change in backwards-incompatible ways. <b>This class should not be used by applications!</b>
+ */
+public final class MappedDictionary
+{
+	private static final String ENCODING = "UTF-8";
+
+	private final DataSource[] dataSources;
+	private final Map<DataSource, Integer> dsIndex = new HashMap<DataSource, Integer>();
+	private final int dsStartPos;
+	private final int idStartPos;
+	private final int idPos;
+
+	/**
+	 * @param dataSources DataSources in the order of the file
+	 * @param dsStartPos position of the first entry number of each DataSource
+	 * @param idStartPos position of the identifier offset of each entry
+	 * @param idPos position of the identifiers
+	 */
+	public MappedDictionary(DataSource[] dataSources, int dsStartPos, int idStartPos, int idPos)
+	{
+		this.dataSources = dataSources;
+		for (int i = 0; i < dataSources.length; ++i) dsIndex.put (dataSources[i], i);
+		this.dsStartPos = dsStartPos;
+		this.idStartPos = idStartPos;
+		this.idPos = idPos;
+	}
+
+	/** @return the DataSources, in the order of the file. Do not modify. */
+	public DataSource[] getDataSources()
+	{
+		return dataSources;
+	}
+
+	/** @return index of a DataSource, or -1 if it is not in the dictionary */
+	public int indexOf(DataSource ds)
+	{
+		Integer result = dsIndex.get(ds);
+		return result == null ? -1 : result;
+	}
+
+	/** @return number of the first entry of a DataSource */
+	public int start(ByteBuffer buf, int ds)
+	{
+		return buf.getInt(dsStartPos + 4 * ds);
+	}
+
+	/** @return one past the number of the last entry of a DataSource */
+	public int end(ByteBuffer buf, int ds)
+	{
+		return buf.getInt(dsStartPos + 4 * (ds + 1));
+	}
+
+	/** @return total length of the identifiers in bytes, to find the section after them */
+	public int idLength(ByteBuffer buf, int entries)
+	{
+		return buf.getInt(idStartPos + 4 * entries);
+	}
+
+	/**
+	 * Binary search for an Xref in the dictionary.
+	 * @return entry number, or -1 if the Xref is not in the dictionary
+	 */
+	public int find(ByteBuffer buf, Xref ref)
+	{
+		if (ref.getId() == null) return -1;
+		int ds = indexOf(ref.getDataSource());
+		if (ds < 0) return -1;
+
+		byte[] key = encode(ref.getId());
+		int lo = start(buf, ds);
+		int hi = end(buf, ds) - 1;
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int start = idPos + buf.getInt(idStartPos + 4 * mid);
+			int end = idPos + buf.getInt(idStartPos + 4 * (mid + 1));
+			int result = 0;
+			int len = Math.min(end - start, key.length);
+			for (int i = 0; i < len && result == 0; ++i)
+			{
+				result = (buf.get(start + i) & 0xff) - (key[i] & 0xff);
+			}
+			if (result == 0) result = (end - start) - key.length;
+
+			if (result < 0) lo = mid + 1;
+			else if (result > 0) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/** @return index of the DataSource of an entry */
+	public int dataSourceOf(ByteBuffer buf, int entry)
+	{
+		int lo = 0;
+		int hi = dataSources.length - 1;
+		// find the last DataSource that starts at or before the entry
+		while (lo < hi)
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			if (start(buf, mid) <= entry) lo = mid;
+			else hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/** @return identifier of an entry */
+	public String idOf(ByteBuffer buf, int entry) throws IDMapperException
+	{
+		return decode(buf, idPos + buf.getInt(idStartPos + 4 * entry), idPos + buf.getInt(idStartPos + 4 * (entry + 1)));
+	}
+
+	/** @return the Xref of an entry */
+	public Xref xrefOf(ByteBuffer buf, int entry) throws IDMapperException
+	{
+		return new Xref (idOf(buf, entry), dataSources[dataSourceOf(buf, entry)]);
+	}
+
+	/**
+	 * Sort entries by DataSource, then by the bytes of their identifier, the order that {@link #find} expects.
+	 * @param ds index of the DataSource of each entry
+	 * @param ids encoded identifier of each entry
+	 * @return entry numbers in sorted order
+	 */
+	public static Integer[] sort(final int[] ds, final byte[][] ids)
+	{
+		Integer[] order = new Integer[ds.length];
+		for (int i = 0; i < order.length; ++i) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				int result = ds[a] - ds[b];
+				if (result != 0) return result;
+				return compareBytes(ids[a], ids[b]);
+			}
+		});
+		return order;
+	}
+
+	/**
+	 * Write the first entry number of each DataSource, followed by the number of entries.
+	 * @param out stream to write to
+	 * @param nds number of DataSources
+	 * @param ds index of the DataSource of each entry
+	 * @param order entry numbers in sorted order
+	 * @throws IOException if the file could not be written
+	 */
+	public static void writeDataSourceStarts(DataOutputStream out, int nds, int[] ds, Integer[] order) throws IOException
+	{
+		int current = 0;
+		out.writeInt(0);
+		for (int i = 0; i < order.length; ++i)
+		{
+			while (ds[order[i]] > current)
+			{
+				out.writeInt(i);
+				current++;
+			}
+		}
+		for (; current < nds; ++current) out.writeInt(order.length);
+	}
+
+	/**
+	 * Write the offset of the identifier of each entry, followed by the total length.
+	 * @param out stream to write to
+	 * @param ids encoded identifier of each entry
+	 * @param order entry numbers in sorted order
+	 * @throws IOException if the file could not be written
+	 */
+	public static void writeIdStarts(DataOutputStream out, byte[][] ids, Integer[] order) throws IOException
+	{
+		int idStart = 0;
+		for (int i = 0; i < order.length; ++i)
+		{
+			out.writeInt(idStart);
+			idStart += ids[order[i]].length;
+		}
+		out.writeInt(idStart);
+	}
+
+	/**
+	 * Write the identifiers of the entries.
+	 * @param out stream to write to
+	 * @param ids encoded identifier of each entry
+	 * @param order entry numbers in sorted order
+	 * @throws IOException if the file could not be written
+	 */
+	public static void writeIds(DataOutputStream out, byte[][] ids, Integer[] order) throws IOException
+	{
+		for (int i = 0; i < order.length; ++i) out.write(ids[order[i]]);
+	}
+
+	/** @return UTF-8 bytes of a string */
+	public static byte[] encode(String s)
+	{
+		try
+		{
+			return s.getBytes(ENCODING);
+		}
+		catch (UnsupportedEncodingException ex)
+		{
+			throw new IllegalStateException(ex); // UTF-8 is always supported
+		}
+	}
+
+	/** @return string stored as UTF-8 in the given range of the buffer */
+	public static String decode(ByteBuffer buf, int start, int end) throws IDMapperException
+	{
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; ++i) bytes[i] = buf.get(start + i);
+		try
+		{
+			return new String(bytes, ENCODING);
+		}
+		catch (UnsupportedEncodingException ex)
+		{
+			throw new IDMapperException (ex);
+		}
+	}
+
+	/** Write a string, preceded by its length in bytes. */
+	public static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] bytes = encode(s);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/** Read a string written with {@link #writeString}, at the position of the buffer. */
+	public static String readString(ByteBuffer in) throws IOException
+	{
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, ENCODING);
+	}
+
+	/** compare byte arrays as unsigned bytes, the same order as {@link #find} uses */
+	public static int compareBytes(byte[] a, byte[] b)
+	{
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; ++i)
+		{
+			int result = (a[i] & 0xff) - (b[i] & 0xff);
+			if (result != 0) return result;
+		}
+		return a.length - b.length;
+	}
+}
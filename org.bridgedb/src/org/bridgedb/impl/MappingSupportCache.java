@@ -0,0 +1,110 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2013 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.impl;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+
+/**
+ * Capabilities of a single IDMapper, with lazily memoized answers to isMappingSupported.
+ * <p>
+ * The supported source and target DataSources are read once, when this is created.
+ * A combination of source and target is only passed on to the IDMapper the first time it is
+ * asked for, because for web services each isMappingSupported call may be a network request.
+ * Pairs that the IDMapper could not answer because of an exception are not remembered,
+ * so they are asked again next time.
+ * <p>
+ * Thread safe.
+ * <p>
+ * <b>Warning!</b> This class is not part of the public API of BridgeDb. Methods in this class
+ * may disappear or change in backwards-incompatible ways. <b>This class should not be used by applications!</b>
+ */
+public final class MappingSupportCache
+{
+	private final IDMapperCapabilities capas;
+	private final Set<DataSource> srcDataSources;
+	private final Set<DataSource> tgtDataSources;
+	/** answers that are known so far, by {@link #key(DataSource, DataSource)} */
+	private final ConcurrentMap<Long, Boolean> pairs = new ConcurrentHashMap<Long, Boolean>();
+
+	/**
+	 * Read the supported DataSources of an IDMapper.
+	 * @param idm IDMapper to ask
+	 * @throws IDMapperException if the capabilities of the IDMapper could not be determined
+	 */
+	public MappingSupportCache(IDMapper idm) throws IDMapperException
+	{
+		capas = idm.getCapabilities();
+		srcDataSources = nonNull(capas.getSupportedSrcDataSources());
+		tgtDataSources = nonNull(capas.getSupportedTgtDataSources());
+	}
+
+	private static Set<DataSource> nonNull(Set<DataSource> dss)
+	{
+		if (dss == null) return Collections.emptySet();
+		return dss;
+	}
+
+	/**
+	 * @param src source DataSource
+	 * @param tgt target DataSource
+	 * @return key of a pair in the memo
+	 */
+	public static Long key(DataSource src, DataSource tgt)
+	{
+		return ((long)src.getOrdinal() << 32) | tgt.getOrdinal();
+	}
+
+	/** @return supported source DataSources of the IDMapper, never null */
+	public Set<DataSource> getSupportedSrcDataSources()
+	{
+		return srcDataSources;
+	}
+
+	/** @return supported target DataSources of the IDMapper, never null */
+	public Set<DataSource> getSupportedTgtDataSources()
+	{
+		return tgtDataSources;
+	}
+
+	/**
+	 * Ask the IDMapper if it supports a mapping, unless the answer is already known.
+	 * @param src source DataSource
+	 * @param tgt target DataSource
+	 * @return true if the IDMapper supports mapping from src to tgt
+	 * @throws IDMapperException if the IDMapper could not answer
+	 */
+	public boolean isMappingSupported(DataSource src, DataSource tgt) throws IDMapperException
+	{
+		if (!srcDataSources.contains(src) || !tgtDataSources.contains(tgt)) return false;
+		Long key = key(src, tgt);
+		Boolean result = pairs.get(key);
+		if (result == null)
+		{
+			result = capas.isMappingSupported(src, tgt);
+			pairs.put (key, result);
+		}
+		return result;
+	}
+}
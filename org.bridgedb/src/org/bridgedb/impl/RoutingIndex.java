@@ -0,0 +1,123 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2013 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.IDMapperStack;
+
+/**
+ * Helper for routing requests in {@link IDMapperStack} in non-transitive mode.
+ * <p>
+ * Records for each IDMapper which source and target DataSources it supports, 
+ * according to its capabilities, so that requests are only sent to IDMappers 
+ * that can answer them. Whether an IDMapper supports a particular combination
+ * of source and target is only asked when a request needs it, and then remembered, 
+ * see {@link MappingSupportCache}.
+ * IDMappers whose capabilities could not be determined are assumed to
+ * support everything.
+ * <p>
+ * A RoutingIndex is thread safe. Build a new one when the list of IDMappers 
+ * or their supported DataSources change.
+ */
+public class RoutingIndex
+{
+	/** supported DataSources of each IDMapper */
+	private final Map<IDMapper, MappingSupportCache> capabilities = new HashMap<IDMapper, MappingSupportCache>();
+
+	/** IDMappers whose capabilities could not be determined */
+	private final Set<IDMapper> unknown = new HashSet<IDMapper>();
+
+	/**
+	 * Query the supported DataSources of all IDMappers. 
+	 * This doesn't ask for any combinations of source and target yet.
+	 * @param gdbs IDMappers to index
+	 */
+	public RoutingIndex(List<IDMapper> gdbs)
+	{
+		for (IDMapper idm : gdbs)
+		{
+			if (idm == null) continue;
+			try
+			{
+				capabilities.put (idm, new MappingSupportCache(idm));
+			}
+			catch (IDMapperException ex)
+			{
+				unknown.add (idm);
+			}
+		}
+	}
+
+	/**
+	 * Check if an IDMapper may be able to map from one of the sources to one of the targets.
+	 * @param idm IDMapper to check
+	 * @param srcs source DataSources of a request
+	 * @param tgts target DataSources of a request. If there are none, any target will do.
+	 * @return false if idm supports none of the combinations of source and target
+	 */
+	public boolean isEligible(IDMapper idm, Collection<DataSource> srcs, DataSource... tgts)
+	{
+		if (unknown.contains(idm)) return true;
+		MappingSupportCache capas = capabilities.get(idm);
+		if (capas == null) return false;
+		for (DataSource src : srcs)
+		{
+			if (!capas.getSupportedSrcDataSources().contains(src)) continue;
+			if (tgts == null || tgts.length == 0) return true;
+			for (DataSource tgt : tgts)
+			{
+				try
+				{
+					if (capas.isMappingSupported(src, tgt)) return true;
+				}
+				catch (IDMapperException ex)
+				{
+					// can't tell, let the IDMapper decide
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Select the IDMappers that may be able to answer a request.
+	 * @param candidates IDMappers to choose from
+	 * @param srcs source DataSources of the request
+	 * @param tgts target DataSources of the request. If there are none, any target will do.
+	 * @return the eligible candidates, in the same order.
+	 */
+	public List<IDMapper> route(List<IDMapper> candidates, Collection<DataSource> srcs, DataSource... tgts)
+	{
+		List<IDMapper> result = new ArrayList<IDMapper>();
+		for (IDMapper idm : candidates)
+		{
+			if (isEligible(idm, srcs, tgts)) result.add (idm);
+		}
+		return result;
+	}
+}
@@ -17,9 +17,11 @@
 package org.bridgedb.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,106 +34,265 @@ import org.bridgedb.Xref;
 
 /**
  * Helper for calculating paths in {@link IDMapperStack} in transitive mode.
+ * <p>
+ * All loop free paths are stored in a prefix trie: there is one root per 
+ * source DataSource, and each node below it represents the path of edges from the root
+ * to that node. Paths that start with the same edges share the nodes for those edges. 
+ * When mapping, each node is evaluated only once per request, 
+ * and the result is reused for all longer paths below it.
+ * <p>
+ * A TransitiveGraph is immutable, and thus thread safe. 
+ * Use {@link #withMapper(IDMapper)} and {@link #withoutMapper(IDMapper)} to derive 
+ * an updated graph: only the affected paths are recalculated, and parts of the trie
+ * that don't change are shared with the original graph.
  */
 public class TransitiveGraph
 {
-	/** all possible paths indexed by their source (starting node) */
-	private Map<DataSource, Set<Path> > sourceMap = new HashMap<DataSource, Set<Path>>();
+	/** Use this as maximum path length to allow paths of any length. */
+	public static final int UNLIMITED_PATH_LENGTH = Integer.MAX_VALUE;
 	
-	/** all possible paths indexed by their target (end node) */
-	private Map<DataSource, Set<Path> > targetMap = new HashMap<DataSource, Set<Path>>(); 
+	/** roots of the path trie, indexed by source DataSource */
+	private final Map<DataSource, Node> roots;
 	
-	/** Constructor: immediately starts calculating paths. */
+	/** direct (one step) edges of each IDMapper */
+	private final Map<IDMapper, List<Edge>> edgesByMapper;
+	
+	/** direct (one step) edges, indexed by their source */
+	private final Map<DataSource, List<Edge>> edgesBySource = new HashMap<DataSource, List<Edge>>();
+	
+	private final int maxPathLength;
+	
+	/** Constructor: immediately starts calculating paths, without limiting the path length. */
 	public TransitiveGraph(List<IDMapper> gdbs) throws IDMapperException
 	{
-		Set<Path> openSet = getDirectPaths(gdbs); // initialize map
-		indexPaths(openSet);
-		while (openSet.size() > 0)
-		{ // keep adding paths while there are new Edges for the
-							// graph
-			openSet = getPathExtensions(openSet);
-		}		
+		this(gdbs, UNLIMITED_PATH_LENGTH);
 	}
 	
 	/** 
-	 * Calculates a new set of paths that consists of non-cyclic extensions 
-	 * of the input set.
-	 * @param openSet input set to extend
-	 * @returns all valid extensions of the input set. Returns an empty set if there are no valid extensions.
+	 * Constructor: immediately starts calculating paths.
+	 * @param gdbs IDMappers that make up the edges of the graph.
+	 * @param maxPathLength maximum number of edges in a path. Use this to 
+	 * 	bound the size of the graph when there are many IDMappers.
+	 * @throws IDMapperException if the capabilities of one of the IDMappers could not be determined.
 	 */
-	private Set<Path> getPathExtensions(Set<Path> openSet) 
-	{		
-		Set<Path> result = new HashSet<Path>();
-
-		// create extended paths for every DataSource
-		Iterator<Path> i = openSet.iterator();
-
-		// take items one by one from the open set ...
-		while (i.hasNext())
-		{			
-			Path path = i.next();
-			i.remove();
-			
-			// ... and find valid extensions for it
-			Set<Path> extensions = findValidExtensions(path);			
-			result.addAll(extensions);
+	public TransitiveGraph(List<IDMapper> gdbs, int maxPathLength) throws IDMapperException
+	{
+		this(getDirectEdges(gdbs), maxPathLength);
+	}
+	
+	/** 
+	 * Calculate all paths from scratch.
+	 * @param edgesByMapper direct edges of each IDMapper. 
+	 * @param maxPathLength maximum number of edges in a path.
+	 */
+	private TransitiveGraph(Map<IDMapper, List<Edge>> edgesByMapper, int maxPathLength)
+	{
+		this(edgesByMapper, maxPathLength, new HashMap<DataSource, Node>());
+		for (DataSource src : edgesBySource.keySet())
+		{
+			roots.put(src, new Node(src, 0, null, buildChildren(src, 0, new HashSet<IDMapper>())));
 		}
-
-		// index the new paths by source and target
-		indexPaths(result);
-		
-		// return the newly created extensions
-		return result; 
 	}
-
+	
 	/**
-	 * Update the target and source maps with the given set of new, valid paths.
+	 * Create a graph from an existing trie. 
+	 * @param edgesByMapper direct edges of each IDMapper. 
+	 * @param maxPathLength maximum number of edges in a path.
+	 * @param roots roots of the trie.
 	 */
-	private void indexPaths(Set<Path> set)
+	private TransitiveGraph(Map<IDMapper, List<Edge>> edgesByMapper, int maxPathLength, Map<DataSource, Node> roots)
 	{
-		for (Path p : set)
+		if (maxPathLength < 1) throw new IllegalArgumentException("Maximum path length must be at least 1");
+		this.maxPathLength = maxPathLength;
+		this.edgesByMapper = edgesByMapper;
+		this.roots = roots;
+		for (List<Edge> edges : edgesByMapper.values())
 		{
-			DataSource source = p.getSource();
-			DataSource target = p.getTarget();
-			
-			InternalUtils.multiMapPut(sourceMap, source, p);
-			InternalUtils.multiMapPut(targetMap, target, p);
+			for (Edge edge : edges)
+			{
+				InternalUtils.multiMapAdd(edgesBySource, edge.source, edge);
+			}
 		}
 	}
-
+	
 	/**
-	 * Find valid extensions of a given path. This looks up 
-	 * all paths that have a source that matches the current target,
-	 * and filters out the ones that introduce a cycle. 
+	 * Recursively create all loop free extensions of a path.
+	 * @param target the DataSource at the end of the path
+	 * @param depth the number of edges in the path 
+	 * @param used the IDMappers that label the edges in the path. 
+	 * 	Modified during the recursion, but restored before returning.
+	 * @return nodes that extend the path with one edge, with all their extensions below them.
 	 */
-	private Set<Path> findValidExtensions(Path path)
+	private List<Node> buildChildren(DataSource target, int depth, Set<IDMapper> used)
 	{
-		Set<Path> result = new HashSet<Path>();
-		DataSource lastElement = path.getTarget();
+		List<Node> result = new ArrayList<Node>();
+		if (depth >= maxPathLength) return result;
+		List<Edge> edges = edgesBySource.get(target);
+		if (edges == null) return result;
+		for (Edge e : edges)
+		{
+			if (used.contains(e.label)) continue;
+			used.add(e.label);
+			result.add(new Node(e.target, depth + 1, e, buildChildren(e.target, depth + 1, used)));
+			used.remove(e.label);
+		}
+		return result;
+	}
+	
+	/**
+	 * Derive a graph that includes the paths that go through an additional IDMapper.
+	 * Only the capabilities of the new IDMapper are queried.
+	 * @param idm IDMapper to add
+	 * @return a new graph, or this graph if idm is already part of it.
+	 * @throws IDMapperException if the capabilities of idm could not be determined.
+	 */
+	public TransitiveGraph withMapper(IDMapper idm) throws IDMapperException
+	{
+		if (edgesByMapper.containsKey(idm)) return this;
+		
+		Map<IDMapper, List<Edge>> newEdges = getDirectEdges(Collections.singletonList(idm));
+		Map<IDMapper, List<Edge>> edges = new LinkedHashMap<IDMapper, List<Edge>>(edgesByMapper);
+		edges.putAll(newEdges);
+		
+		Map<DataSource, List<Edge>> addedBySource = new HashMap<DataSource, List<Edge>>();
+		for (Edge e : newEdges.get(idm))
+		{
+			InternalUtils.multiMapAdd(addedBySource, e.source, e);
+		}
 		
-		for( Path extension : sourceMap.get(lastElement) ) {
-			if (extension.isLoopFreeExtension(path) ) {
-				Path newPath = new Path( path, extension );
-				result.add(newPath);
+		TransitiveGraph result = new TransitiveGraph(edges, maxPathLength, new HashMap<DataSource, Node>());
+		for (Node root : roots.values())
+		{
+			result.roots.put(root.target, result.addExtensions(root, addedBySource, new HashSet<IDMapper>()));
+		}
+		for (DataSource src : addedBySource.keySet())
+		{
+			if (!result.roots.containsKey(src))
+			{
+				result.roots.put(src, new Node(src, 0, null, result.buildChildren(src, 0, new HashSet<IDMapper>())));
 			}
 		}
+		return result;
+	}
+	
+	/**
+	 * Copy a node of another graph, adding the paths that branch off with one of the added edges.
+	 * Subtrees that can't be extended by the added edges are shared, not copied.
+	 * @param node node of the original graph
+	 * @param added new edges, indexed by source. All have the same label.
+	 * @param used the IDMappers that label the edges in the path to node.
+	 * @return node for this graph
+	 */
+	private Node addExtensions(Node node, Map<DataSource, List<Edge>> added, Set<IDMapper> used)
+	{
+		if (!added.containsKey(node.target) && Collections.disjoint(node.subtreeTargets, added.keySet()))
+			return node;
 		
+		List<Node> children = new ArrayList<Node>();
+		for (Node child : node.children)
+		{
+			used.add(child.edge.label);
+			children.add(addExtensions(child, added, used));
+			used.remove(child.edge.label);
+		}
+		if (node.depth < maxPathLength && added.containsKey(node.target))
+		{
+			for (Edge e : added.get(node.target))
+			{
+				used.add(e.label);
+				children.add(new Node(e.target, node.depth + 1, e, buildChildren(e.target, node.depth + 1, used)));
+				used.remove(e.label);
+			}
+		}
+		return new Node(node.target, node.depth, node.edge, children);
+	}
+	
+	/**
+	 * Derive a graph without the paths that go through an IDMapper.
+	 * @param idm IDMapper to remove
+	 * @return a new graph, or this graph if idm is not part of it.
+	 */
+	public TransitiveGraph withoutMapper(IDMapper idm)
+	{
+		if (!edgesByMapper.containsKey(idm)) return this;
+		
+		Map<IDMapper, List<Edge>> edges = new LinkedHashMap<IDMapper, List<Edge>>(edgesByMapper);
+		edges.remove(idm);
+		TransitiveGraph result = new TransitiveGraph(edges, maxPathLength, new HashMap<DataSource, Node>());
+		for (Node root : roots.values())
+		{
+			Node newRoot = removeLabel(root, idm);
+			if (newRoot.children.size() > 0) result.roots.put(root.target, newRoot);
+		}
 		return result;
 	}
-
+	
+	/**
+	 * Copy a node, leaving out all paths that contain an edge labelled with idm.
+	 * Subtrees without such edges are shared, not copied.
+	 * @param node node to copy
+	 * @param idm IDMapper to remove
+	 * @return node without edges labelled idm below it.
+	 */
+	private static Node removeLabel(Node node, IDMapper idm)
+	{
+		if (!node.subtreeMappers.contains(idm)) return node;
+		
+		List<Node> children = new ArrayList<Node>();
+		for (Node child : node.children)
+		{
+			if (child.edge.label != idm) children.add(removeLabel(child, idm));
+		}
+		return new Node(node.target, node.depth, node.edge, children);
+	}
+	
+	/**
+	 * Derive a graph with a different maximum path length. 
+	 * This re-uses the known capabilities of the IDMappers.
+	 * @param value new maximum number of edges in a path
+	 * @return a new graph
+	 */
+	public TransitiveGraph withMaxPathLength(int value)
+	{
+		if (value == maxPathLength) return this;
+		return new TransitiveGraph(edgesByMapper, value);
+	}
+	
+	/** @return the number of loop free paths in this graph */
+	public int getPathCount()
+	{
+		int result = 0;
+		for (Node root : roots.values()) result += root.subtreeSize;
+		return result;
+	}
+	
+	/** @return the maximum number of edges in a path */
+	public int getMaxPathLength()
+	{
+		return maxPathLength;
+	}
 
 	/** 
 	 * This is for testing. May be removed in the future.
 	 */
-	public void printMap(Map<DataSource, Set<Path> > map) 
+	public void printPaths() 
 	{
-		for( DataSource ds : map.keySet() ) {
-			Set<Path> collection = map.get(ds);
-			System.out.println("DataSource: " + ds);
-			System.out.println(" - " + collection + "\n");
+		for (Node root : roots.values())
+		{
+			printPaths(root, "" + root.target);
 		}
-		System.out.println();		
-	}	
+		System.out.println();
+	}
+	
+	private void printPaths(Node node, String prefix)
+	{
+		for (Node child : node.children) 
+		{
+			String path = prefix + child.edge;
+			System.out.println(path);
+			printPaths(child, path);
+		}
+	}
 
 	/* An Edge is an edge in the graph that represents all possible,
 	 * transitive (and loop free) mappings supported by the IDMapper Stack.
@@ -141,7 +302,7 @@ public class TransitiveGraph
 	 * if they connect the same DataSources irrespective of the direction
 	 * of the Edge. 
 	 */
-	private class Edge 
+	private static class Edge 
 	{
 		public DataSource source;
 		public DataSource target;
@@ -183,245 +344,222 @@ public class TransitiveGraph
 	}
 	
 	/**
-	 *  A Path is a vector of {@link Edge}s in the graph that describe the relationships between the
-	 *  (transitive) maps supported by the IDMapperStack. 
+	 *  An immutable node in the trie of paths. The path that a node represents consists of the 
+	 *  edges of all nodes from the root down to this node. Roots have no edge. 
+	 *  Nodes don't refer to their parent, so that unchanged subtrees can be shared 
+	 *  between graphs.
 	 */
-	private class Path
-	{	
-		private final List<Edge> delegate = new ArrayList<Edge>();
-		private final Set<IDMapper> mappers = new HashSet<IDMapper>();
-		
-		Path (Edge first) 
-		{	
-			delegate.add(first); 
-			mappers.add(first.label);
-		}
-		
-		Path (Path p, Path q) 
-		{
-			delegate.addAll(p.delegate);
-			delegate.addAll(q.delegate);
-			for (Edge e : p.delegate)
-				mappers.add(e.label);
-			for (Edge e : q.delegate)
-				mappers.add(e.label);
-		}
+	private static class Node
+	{
+		private final Edge edge;
+		private final DataSource target;
+		private final int depth;
+		private final List<Node> children;
+		/** targets of all the nodes below this one, used to skip subtrees during targetted mapping */
+		private final Set<DataSource> subtreeTargets = new HashSet<DataSource>();
+		/** labels of all the edges below this one, used to skip subtrees when removing an IDMapper */
+		private final Set<IDMapper> subtreeMappers = new HashSet<IDMapper>();
+		/** number of nodes below this one */
+		private final int subtreeSize;
 		
-		public DataSource getSource() { return delegate.get(0).source; }
-		public DataSource getTarget() { return delegate.get(delegate.size()-1).target; }
-
 		/**
-		 * @param other Some other path
-		 * @return true if this path is a non-cyclic extension of the other path.
-		 *   a path is considered "cyclic" when it uses the same IDMapper twice.
-		 *   (note that this is not the only possible definition of cyclic. But it is
-		 *   a convenient definition as it culls the number of paths, and thus
-		 *   reduces combinatorial problems)
+		 * @param target DataSource at the end of the path. For roots, this is the source DataSource.
+		 * @param depth number of edges in the path
+		 * @param edge last edge of the path, or null for roots
+		 * @param children nodes that extend the path by one edge.
 		 */
-		protected boolean isLoopFreeExtension( Path other ) 
+		Node (DataSource target, int depth, Edge edge, List<Node> children)
 		{
-			/*
-			 // see the commented code here for another possible definition of cyclic: 
-			for (Edge e : other.delegate)
+			this.target = target;
+			this.depth = depth;
+			this.edge = edge;
+			this.children = Collections.unmodifiableList(children);
+			int size = 0;
+			for (Node child : children)
 			{
-				if (delegate.contains(e)) 
-					return false;
-			}
-			return true;
-			 * 
-			 */
-			for (IDMapper m : other.mappers)
-				if (mappers.contains(m)) return false;
-			return true;
-		}
-		
-		public String toString()
-		{
-			String returnValue = "";
-			if(!delegate.isEmpty()){
-				returnValue += this.get(0).source;
+				subtreeTargets.add(child.target);
+				subtreeTargets.addAll(child.subtreeTargets);
+				subtreeMappers.add(child.edge.label);
+				subtreeMappers.addAll(child.subtreeMappers);
+				size += 1 + child.subtreeSize;
 			}
-			for ( Edge e : delegate ) {
-					returnValue += e;
-			}
-			return returnValue;
+			subtreeSize = size;
 		}
-		
-		@Override
-		public int hashCode()
-		{
-			int[] primes = new int[] { 2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31 };
-			int result = 0;
-			for (int i = 0; i < size(); ++i)
-				result += primes[i % primes.length] * get(i).hashCode();
-			return result;
-		}
-			
-		/**
-		 *  @param other Other path to be compared to.
-		 *  @return true if this path is equal to the other path.
-		 *  	Two paths are equal, if they have the same number of edges,
-		 *  	each edge has the same source, target and label, and 
-		 *  	the edges occur in the same order.
-		 */
-		public boolean equals( Object other ) 
-		{
-			if (this == other) return true; 
-			if (!(other instanceof Path)) return false;
-			Path path = (Path) other;
-			if( this.size() != path.size() ) {
-				return false;
-			}
-			
-			boolean returnValue = true;
-			for (int i = 0; i < size(); i++) {
-				Edge myEdge = get(i);
-				Edge otherEdge = path.get(i);
-				if (myEdge.source != otherEdge.source
-						|| myEdge.target != otherEdge.target
-						|| myEdge.label != otherEdge.label) {
-					returnValue = false;
-					break;
-				}
-			}
-			return returnValue;
-		}
-
-		private Edge get(int i)
-		{
-			return delegate.get(i);
-		}
-
-		private int size()
-		{
-			return delegate.size();
-		}
-
 	}
 
 	/**
-	 * Create a list of all direct (i.e. one-step) paths. 
+	 * Create a list of all direct (i.e. one-step) edges. 
 	 * 
-	 * @return Hash that contains all relevant information on maps between
-	 *         DataSources of all IDMappers in this IDMapperStack. Reflexive
-	 *         maps (DataSourced X -> DataSource X) are ignored. The map will
-	 *         contain only DataSources that are connected.
+	 * @return all relevant information on maps between
+	 *         DataSources of all IDMappers in this IDMapperStack, grouped by IDMapper. Reflexive
+	 *         maps (DataSourced X -> DataSource X) are ignored. IDMappers that are not connected
+	 *         have no edges.
 	 *         
 	 * @throws IDMapperException
 	 */
-	private Set<Path> getDirectPaths(List<IDMapper> gdbs)
+	private static Map<IDMapper, List<Edge>> getDirectEdges(List<IDMapper> gdbs)
 			throws IDMapperException {
 
-		Set<Path> result = new HashSet<Path>();
+		Map<IDMapper, List<Edge>> result = new LinkedHashMap<IDMapper, List<Edge>>();
 		
-		// add each DataSource to a PathCollection
 		for (IDMapper idm : gdbs) {
-			if (idm != null && idm.isConnected()) {
+			if (idm == null || result.containsKey(idm)) continue;
+			List<Edge> edges = new ArrayList<Edge>();
+			if (idm.isConnected()) {
 				IDMapperCapabilities capas = idm.getCapabilities();
 				for (DataSource src : capas.getSupportedSrcDataSources()) {
 					for (DataSource tgt : capas.getSupportedTgtDataSources()) {
 						if (capas.isMappingSupported(src, tgt) && src != tgt) {
-							Edge edge = new Edge(src, tgt, idm);
-							Path path = new Path(edge);
-							result.add(path);
+							edges.add(new Edge(src, tgt, idm));
 						}
 					}
 				}
 			}
+			result.put(idm, edges);
 		}
 		return result;
 	}
 
 	public boolean isTransitiveMappingSupported(DataSource src, DataSource tgt) throws IDMapperException
 	{
-		if (!(sourceMap.containsKey(src) && targetMap.containsKey(tgt))) 
-			return false; 
-		
-		for (Path path : sourceMap.get(src)) 
-		{
-			if (path.getTarget() == tgt)
-				return true;
-		}
-		
-		return false;
+		Node root = roots.get(src);
+		return root != null && root.subtreeTargets.contains(tgt);
 	}
 
 	public Set<Xref> mapIDtransitiveTargetted(Xref ref, Set<DataSource> dsFilter)
 			throws IDMapperException
 	{
-		DataSource srcDs = ref.getDataSource();
+		return mapIDtransitive(Collections.singleton(ref), dsFilter).get(ref);
+	}
 
-		Set<Xref> result = new HashSet<Xref>();
-		for (DataSource tgtDs : targetMap.keySet()) {
-			for (Path path : targetMap.get(tgtDs)) {
-				DataSource pathSource = path.getSource();
-				DataSource pathTarget = path.getTarget();
-				if ( pathSource == srcDs && tgtDs == pathTarget && 
-						dsFilter.contains(pathTarget)) 
-				{
-					for (Xref j : mapID(ref, path))
-					{
-						if (dsFilter.contains(j.getDataSource())) 
-							result.add(j);
-					}
-				}
+	public Set<Xref> mapIDtransitiveUntargetted(Xref ref) throws IDMapperException
+	{
+		return mapIDtransitive(Collections.singleton(ref), null).get(ref);
+	}
+
+	/**
+	 * Map a collection of Xrefs transitively to the given target DataSources.
+	 * Gives the same result as calling mapIDtransitiveTargetted(Xref, Set) for each Xref,
+	 * but calls each child IDMapper only once per edge.
+	 * @param refs Xrefs to map
+	 * @param dsFilter target DataSources
+	 * @return map with a (possibly empty) result set for each input Xref.
+	 * @throws IDMapperException if one of the child IDMappers fails
+	 */
+	public Map<Xref, Set<Xref>> mapIDtransitiveTargetted(Collection<Xref> refs, Set<DataSource> dsFilter)
+			throws IDMapperException
+	{
+		return mapIDtransitive(refs, dsFilter);
+	}
+
+	/**
+	 * Map a collection of Xrefs transitively to all reachable DataSources.
+	 * Gives the same result as calling mapIDtransitiveUntargetted(Xref) for each Xref,
+	 * but calls each child IDMapper only once per edge.
+	 * @param refs Xrefs to map
+	 * @return map with a (possibly empty) result set for each input Xref.
+	 * @throws IDMapperException if one of the child IDMappers fails
+	 */
+	public Map<Xref, Set<Xref>> mapIDtransitiveUntargetted(Collection<Xref> refs) 
+			throws IDMapperException
+	{
+		return mapIDtransitive(refs, null);
+	}
+	
+	/**
+	 * Helper for collection-level transitive mapping. 
+	 * All Xrefs with the same source DataSource are advanced together through 
+	 * the trie, one edge at a time. 
+	 * @param refs Xrefs to map
+	 * @param dsFilter target DataSources, or null for untargetted mapping
+	 * @return map with a (possibly empty) result set for each input Xref.
+	 */
+	private Map<Xref, Set<Xref>> mapIDtransitive(Collection<Xref> refs, Set<DataSource> dsFilter) 
+			throws IDMapperException
+	{
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for (Xref ref : refs) result.put (ref, new HashSet<Xref>());
+		
+		for (Map.Entry<DataSource, Set<Xref>> group : InternalUtils.groupByDataSource(refs).entrySet())
+		{
+			Node root = roots.get(group.getKey());
+			if (root == null) continue;
+			
+			Map<Xref, Set<Xref>> start = new HashMap<Xref, Set<Xref>>();
+			for (Xref ref : group.getValue()) 
+			{
+				start.put (ref, Collections.singleton(ref));
 			}
+			mapID(root, start, dsFilter, result);
 		}
 		return result;
 	}
-
-	public Set<Xref> mapIDtransitiveUntargetted(Xref ref) throws IDMapperException
+	
+	/**
+	 * Evaluate the children of a node, and recursively the nodes below them. 
+	 * Each node is evaluated once.
+	 * @param node node that has been evaluated
+	 * @param current result of the node: for each input Xref, the Xrefs at the end of its path 
+	 * @param dsFilter target DataSources, or null for untargetted mapping
+	 * @param result map to add the results of each node to
+	 */
+	private void mapID(Node node, Map<Xref, Set<Xref>> current, Set<DataSource> dsFilter, 
+			Map<Xref, Set<Xref>> result) throws IDMapperException
 	{
-		Set<Xref> result = new HashSet<Xref>();
-		DataSource dataSource = ref.getDataSource();
-		if (!sourceMap.containsKey(dataSource)) return result;
-		for (Path path : sourceMap.get(dataSource)) 
+		for (Node child : node.children)
 		{
-			if (path.size() > 0) {
-				for (Xref j : mapID(ref, path))
+			Edge e = child.edge;
+			boolean isTarget = dsFilter == null || dsFilter.contains(e.target);
+			if (!isTarget && Collections.disjoint(child.subtreeTargets, dsFilter)) continue;
+			
+			if (child.depth > 1 && !e.label.isConnected()) continue;
+			Map<Xref, Set<Xref>> next = mapHop(current, e);
+			// nothing reached, so all paths below will be empty as well
+			if (next.isEmpty()) continue;
+			
+			if (isTarget)
+			{
+				for (Map.Entry<Xref, Set<Xref>> entry : next.entrySet())
 				{
-					result.add(j);
+					Set<Xref> resultSet = result.get(entry.getKey());
+					for (Xref j : entry.getValue())
+					{
+						if (dsFilter == null || dsFilter.contains(j.getDataSource()))
+							resultSet.add(j);
+					}
 				}
 			}
+			mapID(child, next, dsFilter, result);
 		}
-		return result;
 	}
-
+	
 	/**
-	 * 
-	 * Map ID transitively using specified sequence of DataSources given by path.
-	 * 
-	 * @param Xref
-	 *            Xref to be mapped
-	 * @param path
-	 *            Sequence of DataSources to be mapped, given as a Path.
+	 * Advance all intermediate results along a single edge, with a single call to the 
+	 * IDMapper of that edge.
+	 * @param current intermediate results, from input Xref to the Xrefs reached so far
+	 * @param e edge to follow
+	 * @return new intermediate results, from input Xref to the Xrefs at the target of e
 	 */
-	private Set<Xref> mapID(Xref xref, Path path) throws IDMapperException {
-		Set<Xref> result = new HashSet<Xref>();
+	private Map<Xref, Set<Xref>> mapHop(Map<Xref, Set<Xref>> current, Edge e) throws IDMapperException
+	{
+		Set<Xref> reached = new HashSet<Xref>();
+		for (Set<Xref> refs : current.values()) reached.addAll (refs);
 		
-		if (path == null || path.size() <= 0) {
-			return result;
-		}
+		Map<Xref, Set<Xref>> next = new HashMap<Xref, Set<Xref>>();
+		if (reached.isEmpty()) return next;
 		
-		Edge e = path.get(0);
-		result = e.label.mapID(xref, e.target);
-
-		for (int i = 1; i < path.size(); i++) {
-			e = path.get(i);
-			if( e == null || e.source == null || e.target == null || e.label == null ) {
-				throw new IDMapperException();
-			}
-			if( ! e.label.isConnected() ) {
-				return new HashSet<Xref>();
-			}
-			Map<Xref, Set<Xref>> tmp = e.label.mapID(result, e.target);
-			result.clear();
-			for (Xref key : tmp.keySet()) {				
-				result.addAll(tmp.get(key));
+		Map<Xref, Set<Xref>> tmp = e.label.mapID(reached, e.target);
+		for (Map.Entry<Xref, Set<Xref>> entry : current.entrySet())
+		{
+			Set<Xref> resultSet = new HashSet<Xref>();
+			for (Xref ref : entry.getValue())
+			{
+				Set<Xref> mapped = tmp.get(ref);
+				if (mapped != null) resultSet.addAll (mapped);
 			}
+			if (resultSet.size() > 0) next.put (entry.getKey(), resultSet);
 		}
-		
-		return result;
+		return next;
 	}
 
 }
@@ -0,0 +1,143 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2013 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.impl;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.bridgedb.Xref;
+
+/**
+ * Compact, immutable set of Xrefs, for example a cluster of Xrefs that all map to each other.
+ * <p>
+ * The Xrefs are kept in a single array sorted by hash code, so a group
+ * needs far less memory than a HashSet, while contains() still takes logarithmic time.
+ * A single group can be shared by all its members in a mapping.
+ * <p>
+ * <b>Warning!</b> This class is not part of the public API of BridgeDb. Methods in this class
+ * may disappear or change in backwards-incompatible ways. <b>This class should not be used by applications!</b>
+ */
+public final class XrefGroup extends AbstractSet<Xref>
+{
+	private static final Comparator<Xref> BY_HASH = new Comparator<Xref>()
+	{
+		public int compare(Xref a, Xref b)
+		{
+			int ha = a.hashCode();
+			int hb = b.hashCode();
+			return ha < hb ? -1 : (ha == hb ? 0 : 1);
+		}
+	};
+
+	private final Xref[] members;
+
+	/**
+	 * @param members distinct Xrefs. The array is sorted and kept, so it should not be modified afterwards.
+	 */
+	XrefGroup(Xref[] members)
+	{
+		Arrays.sort(members, BY_HASH);
+		this.members = members;
+	}
+
+	/**
+	 * @param xrefs Xrefs to put in the group. Duplicates are removed.
+	 * @return a group with the given Xrefs
+	 */
+	public static XrefGroup of(Collection<Xref> xrefs)
+	{
+		XrefGroup group = new XrefGroup(xrefs.toArray(new Xref[xrefs.size()]));
+		int n = 0;
+		for (int i = 0; i < group.members.length; i++)
+		{
+			if (!group.contains(group.members, n, group.members[i]))
+				group.members[n++] = group.members[i];
+		}
+		if (n == group.members.length) return group;
+		return new XrefGroup(Arrays.copyOf(group.members, n));
+	}
+
+	/** @return true if ref is among the first n members, which are sorted by hash code */
+	private boolean contains(Xref[] sorted, int n, Xref ref)
+	{
+		int hash = ref.hashCode();
+		int lo = 0;
+		int hi = n - 1;
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int h = sorted[mid].hashCode();
+			if (h < hash) lo = mid + 1;
+			else if (h > hash) hi = mid - 1;
+			else
+			{
+				// scan all members with an equal hash code
+				for (int i = mid; i >= 0 && sorted[i].hashCode() == hash; i--)
+					if (sorted[i].equals(ref)) return true;
+				for (int i = mid + 1; i < n && sorted[i].hashCode() == hash; i++)
+					if (sorted[i].equals(ref)) return true;
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean contains(Object o)
+	{
+		if (!(o instanceof Xref)) return false;
+		return contains(members, members.length, (Xref)o);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int size()
+	{
+		return members.length;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Iterator<Xref> iterator()
+	{
+		return new Iterator<Xref>()
+		{
+			private int pos = 0;
+
+			public boolean hasNext()
+			{
+				return pos < members.length;
+			}
+
+			public Xref next()
+			{
+				if (pos >= members.length) throw new NoSuchElementException();
+				return members[pos++];
+			}
+
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,218 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2013 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.Xref;
+
+/**
+ * Disjoint-set (union-find) structure over Xrefs, for building transitive mappings.
+ * <p>
+ * Each distinct Xref gets an index the first time it is seen, which also serves to intern it.
+ * Merging clusters takes nearly constant time, regardless of their size,
+ * so that a mapping with large connected components can be loaded in near-linear time.
+ * When all merges are done, {@link #toMap()} materializes a single
+ * {@link XrefGroup} for each cluster, which is shared by all its members.
+ * <p>
+ * Not thread safe.
+ * <p>
+ * <b>Warning!</b> This class is not part of the public API of BridgeDb. Methods in this class
+ * may disappear or change in backwards-incompatible ways. <b>This class should not be used by applications!</b>
+ */
+public final class XrefUnionFind
+{
+	private final Map<Xref, Integer> index = new HashMap<Xref, Integer>();
+	private Xref[] xrefs = new Xref[16];
+	private int[] parent = new int[16];
+	private int[] rank = new int[16];
+	private int count = 0;
+
+	/** @return number of distinct Xrefs added so far */
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * Add an Xref as a cluster of its own, if it wasn't added before.
+	 * @param ref Xref to add
+	 * @return the index of the Xref
+	 */
+	public int add(Xref ref)
+	{
+		Integer i = index.get(ref);
+		if (i != null) return i;
+
+		if (count == xrefs.length)
+		{
+			int capacity = count * 2;
+			xrefs = Arrays.copyOf(xrefs, capacity);
+			parent = Arrays.copyOf(parent, capacity);
+			rank = Arrays.copyOf(rank, capacity);
+		}
+		xrefs[count] = ref;
+		parent[count] = count;
+		index.put(ref, count);
+		return count++;
+	}
+
+	/**
+	 * @param ref an Xref
+	 * @return the instance of an Xref equal to ref that was added first, or null if there is none.
+	 */
+	public Xref get(Xref ref)
+	{
+		Integer i = index.get(ref);
+		return i == null ? null : xrefs[i];
+	}
+
+	/** @return the index of the representative of the cluster of element i */
+	private int find(int i)
+	{
+		while (parent[i] != i)
+		{
+			// path halving
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Merge the clusters of two elements.
+	 * @return the representative of the merged cluster
+	 */
+	private int union(int a, int b)
+	{
+		int ra = find(a);
+		int rb = find(b);
+		if (ra == rb) return ra;
+		if (rank[ra] < rank[rb])
+		{
+			int tmp = ra; ra = rb; rb = tmp;
+		}
+		parent[rb] = ra;
+		if (rank[ra] == rank[rb]) rank[ra]++;
+		return ra;
+	}
+
+	/**
+	 * Add Xrefs and merge them, and the clusters they already belong to, into a single cluster.
+	 * @param refs Xrefs that map to each other
+	 */
+	public void union(Collection<Xref> refs)
+	{
+		Iterator<Xref> it = refs.iterator();
+		if (!it.hasNext()) return;
+		int root = add(it.next());
+		while (it.hasNext())
+		{
+			root = union(root, add(it.next()));
+		}
+	}
+
+	/**
+	 * @param a an Xref
+	 * @param b another Xref
+	 * @return true if both Xrefs were added and belong to the same cluster.
+	 */
+	public boolean connected(Xref a, Xref b)
+	{
+		Integer ia = index.get(a);
+		Integer ib = index.get(b);
+		return ia != null && ib != null && find(ia) == find(ib);
+	}
+
+	/**
+	 * Materialize the clusters.
+	 * @return a group for each Xref, indexed like {@link #xrefs}. All members of a cluster
+	 * 	share the same group.
+	 */
+	private XrefGroup[] buildGroups()
+	{
+		// count the members of each cluster, then fill the groups in one pass
+		int[] root = new int[count];
+		int[] groupSize = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			root[i] = find(i);
+			groupSize[root[i]]++;
+		}
+
+		Xref[][] members = new Xref[count][];
+		int[] filled = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			int r = root[i];
+			if (members[r] == null) members[r] = new Xref[groupSize[r]];
+			members[r][filled[r]++] = xrefs[i];
+		}
+
+		XrefGroup[] groups = new XrefGroup[count];
+		for (int i = 0; i < count; i++)
+		{
+			int r = root[i];
+			if (groups[r] == null)
+			{
+				groups[r] = new XrefGroup(members[r]);
+				members[r] = null;
+			}
+			groups[i] = groups[r];
+		}
+		return groups;
+	}
+
+	/**
+	 * Materialize the clusters.
+	 * @return a map from each Xref to its cluster. All members of a cluster
+	 * 	share the same immutable {@link XrefGroup}, which includes the member itself.
+	 */
+	public Map<Xref, Set<Xref>> toMap()
+	{
+		XrefGroup[] groups = buildGroups();
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>(count * 4 / 3 + 1);
+		for (int i = 0; i < count; i++)
+		{
+			result.put(xrefs[i], groups[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Materialize the clusters, for example to merge them into another XrefUnionFind.
+	 * @return one immutable {@link XrefGroup} for each cluster.
+	 */
+	public List<Set<Xref>> getClusters()
+	{
+		XrefGroup[] groups = buildGroups();
+		List<Set<Xref>> result = new ArrayList<Set<Xref>>();
+		for (int i = 0; i < count; i++)
+		{
+			// one group for each representative
+			if (parent[i] == i) result.add(groups[i]);
+		}
+		return result;
+	}
+}
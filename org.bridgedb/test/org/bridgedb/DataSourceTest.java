@@ -18,6 +18,7 @@
 //
 package org.bridgedb;
 
+import org.bridgedb.impl.InternalUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -202,4 +203,63 @@ public class DataSourceTest {
 		Assert.assertEquals("MetaboLoci description", source.getDescription());
 	}
 
+	@Test
+	public void testOrdinal() {
+		DataSource source = DataSource.register("Ord1", "Ordinal test 1").asDataSource();
+		DataSource other = DataSource.register("Ord2", "Ordinal test 2").asDataSource();
+		Assert.assertTrue(source.getOrdinal() != other.getOrdinal());
+		Assert.assertSame(source, DataSource.getByOrdinal(source.getOrdinal()));
+		Assert.assertSame(other, DataSource.getByOrdinal(other.getOrdinal()));
+		Assert.assertTrue(other.getOrdinal() < DataSource.getOrdinalCount());
+	}
+
+	@Test
+	public void testFindBySystemCode() {
+		DataSource source = DataSource.register("Fbs", "Find by system code test").asDataSource();
+		Assert.assertSame(source, DataSource.findBySystemCode(new StringBuilder("Fbs")));
+		Assert.assertSame(source, DataSource.findBySystemCode("Fbs"));
+		Assert.assertNull(DataSource.findBySystemCode("Fb"));
+		Assert.assertNull(DataSource.findBySystemCode("Fbs "));
+		Assert.assertNull(DataSource.findBySystemCode(""));
+		
+		// longer codes can't be packed, but are still found
+		DataSource longCode = DataSource.register("LongCode", "Long system code test").asDataSource();
+		Assert.assertSame(longCode, DataSource.findBySystemCode(new StringBuilder("LongCode")));
+	}
+
+	@Test
+	public void testFindOrRegister() {
+		DataSource source = DataSource.register("For1", "Find or register test").asDataSource();
+		Assert.assertSame(source, InternalUtils.findOrRegisterDataSource("For1", "Other name"));
+		Assert.assertSame(source, InternalUtils.findOrRegisterDataSource("", "Find or register test"));
+		
+		// unknown DataSources are registered with the keys that are known
+		DataSource created = InternalUtils.findOrRegisterDataSource("For2", "Find or register test 2");
+		Assert.assertEquals("Find or register test 2", created.getFullName());
+		Assert.assertSame(created, DataSource.findBySystemCode("For2"));
+		Assert.assertNull(InternalUtils.findOrRegisterDataSource("", null));
+	}
+
+	@Test
+	public void testConcurrentRegistration() throws InterruptedException {
+		final DataSource[] results = new DataSource[8];
+		Thread[] threads = new Thread[results.length];
+		for (int i = 0; i < threads.length; ++i)
+		{
+			final int index = i;
+			threads[i] = new Thread() {
+				public void run() {
+					results[index] = DataSource.register("Conc", "Concurrent registration test").asDataSource();
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) t.join();
+		for (DataSource ds : results)
+		{
+			Assert.assertSame(results[0], ds);
+		}
+		Assert.assertSame(results[0], DataSource.getExistingBySystemCode("Conc"));
+	}
+
 }
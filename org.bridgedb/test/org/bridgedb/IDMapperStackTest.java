@@ -18,12 +18,26 @@ package org.bridgedb;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
+import org.bridgedb.impl.AsyncResult;
+import org.bridgedb.impl.TransitiveGraph;
+
 public class IDMapperStackTest extends TestCase 
 {
 	public static Map<String, IDMapper> mappers;
@@ -122,4 +136,389 @@ public class IDMapperStackTest extends TestCase
 		assertTrue (results.contains (new Xref("w2", dsW )));
 	}
 
+	/** mapping a collection transitively should give the same result as mapping one by one */
+	public void testMapIDtransitiveCollection() throws IDMapperException
+	{
+		List<Xref> srcRefs = new ArrayList<Xref>();
+		for (String id : new String[] { "1", "2", "3" })
+		{
+			for (DataSource ds : new DataSource[] { dsA, dsB, dsC, dsD, dsE, dsW, dsX, dsY, dsZ })
+			{
+				srcRefs.add (new Xref (ds.getFullName().toLowerCase() + id, ds));
+			}
+		}
+		DataSource[][] targets = { {}, { dsE }, { dsW, dsZ }, { dsA, dsY } };
+		for (DataSource[] tgt : targets)
+		{
+			Map<Xref, Set<Xref>> result = stack.mapID(srcRefs, tgt);
+			assertEquals (srcRefs.size(), result.size());
+			for (Xref ref : srcRefs)
+			{
+				assertEquals (stack.mapID(ref, tgt), result.get(ref));
+			}
+		}
+	}
+	
+	/** paths that are longer than the maximum path length should not be used */
+	public void testMaxPathLength() throws IDMapperException
+	{
+		Xref src = new Xref ("e1", dsE );
+		try
+		{
+			stack.setMaxPathLength(2);
+			Set<Xref> results = stack.mapID(src);
+			assertEquals (2, results.size());
+			assertTrue (results.contains (new Xref("c1", dsC)));
+			assertTrue (results.contains (new Xref("d1", dsD)));
+			assertFalse (stack.getCapabilities().isMappingSupported(dsE, dsA));
+		}
+		finally
+		{
+			stack.setMaxPathLength(TransitiveGraph.UNLIMITED_PATH_LENGTH);
+		}
+		assertEquals (4, stack.mapID(src).size());
+		assertTrue (stack.getCapabilities().isMappingSupported(dsE, dsA));
+	}
+	
+	/** removing and adding IDMappers should update the mapping graph incrementally */
+	public void testIncrementalGraph() throws IDMapperException
+	{
+		Xref src = new Xref ("e1", dsE );
+		assertEquals (4, stack.mapID(src).size());
+		
+		stack.removeIDMapper(mappers.get("BC"));
+		Set<Xref> results = stack.mapID(src);
+		assertEquals (2, results.size());
+		assertTrue (results.contains (new Xref("c1", dsC)));
+		assertTrue (results.contains (new Xref("d1", dsD)));
+		assertFalse (stack.getCapabilities().isMappingSupported(dsE, dsA));
+		
+		stack.addIDMapper(mappers.get("BC"));
+		assertEquals (4, stack.mapID(src).size());
+		assertTrue (stack.getCapabilities().isMappingSupported(dsE, dsA));
+		
+		// a stack built from scratch should give the same results
+		IDMapperStack fresh = new IDMapperStack();
+		fresh.setTransitive(true);
+		for (String fileName : FILENAMES) fresh.addIDMapper(mappers.get(fileName));
+		for (DataSource ds : new DataSource[] { dsA, dsB, dsC, dsD, dsE, dsW, dsX, dsY, dsZ })
+		{
+			Xref ref = new Xref (ds.getFullName().toLowerCase() + "1", ds);
+			assertEquals (fresh.mapID(ref), stack.mapID(ref));
+		}
+	}
+	
+	/** asynchronous queries should give the same results as blocking queries */
+	public void testAsync() throws Exception
+	{
+		Xref src = new Xref ("x2", dsX );
+		List<Xref> srcRefs = Arrays.asList(src, new Xref ("a1", dsA));
+		for (boolean transitive : new boolean[] { false, true })
+		{
+			stack.setTransitive(transitive);
+			assertEquals (stack.mapID(src), stack.mapIDAsync(src, null).get());
+			assertEquals (stack.mapID(src, dsW), stack.mapIDAsync(src, null, dsW).get());
+			assertEquals (stack.mapID(srcRefs), stack.mapIDAsync(srcRefs, null).get());
+		}
+		
+		// children are wrapped, so the stack can't tell they are not asynchronous themselves
+		IDMapperStack asyncStack = new IDMapperStack();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try
+		{
+			for (String fileName : FILENAMES)
+			{
+				asyncStack.addIDMapper(new AsyncIDMapperAdapter(mappers.get(fileName), executor));
+			}
+			stack.setTransitive(false);
+			assertEquals (stack.mapID(srcRefs, dsY), asyncStack.mapIDAsync(srcRefs, null, dsY).get());
+			assertTrue (asyncStack.xrefExistsAsync(new Xref ("w2", dsW), null).get());
+			assertFalse (asyncStack.xrefExistsAsync(new Xref ("nonexistent", dsW), null).get());
+			
+			final Set<Xref> received = new HashSet<Xref>();
+			final CountDownLatch done = new CountDownLatch(1);
+			asyncStack.mapIDAsync(src, new AsyncIDMapper.Callback<Set<Xref>>() {
+				public void completed(Set<Xref> result)
+				{
+					received.addAll(result);
+					done.countDown();
+				}
+				
+				public void failed(IDMapperException ex)
+				{
+					done.countDown();
+				}
+			}, dsY);
+			assertTrue (done.await(10, TimeUnit.SECONDS));
+			assertEquals (stack.mapID(src, dsY), received);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	/** a query that throws an Error must fail the result instead of leaving it pending */
+	public void testAsyncError() throws Exception
+	{
+		final CountDownLatch failed = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			AsyncResult<Boolean> result = AsyncResult.submit(executor, new Callable<Boolean>() {
+				public Boolean call()
+				{
+					throw new NoClassDefFoundError("org/example/Missing");
+				}
+			}, new AsyncIDMapper.Callback<Boolean>() {
+				public void completed(Boolean value) {}
+				
+				public void failed(IDMapperException ex)
+				{
+					failed.countDown();
+				}
+			});
+			try
+			{
+				result.get(10, TimeUnit.SECONDS);
+				fail ("Expected ExecutionException");
+			}
+			catch (ExecutionException expected)
+			{
+				assertTrue (expected.getCause().getCause() instanceof NoClassDefFoundError);
+			}
+			assertTrue (failed.await(10, TimeUnit.SECONDS));
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	/** in non-transitive mode, requests should only go to children that can answer them */
+	public void testRouting() throws IDMapperException
+	{
+		IDMapperStack routed = new IDMapperStack();
+		CachingIDMapper ab = new CachingIDMapper(mappers.get("AB"));
+		CachingIDMapper xy = new CachingIDMapper(mappers.get("XY"));
+		routed.addIDMapper(ab);
+		routed.addIDMapper(xy);
+		
+		Xref src = new Xref ("x1", dsX);
+		assertEquals (mappers.get("XY").mapID(src, dsY), routed.mapID(src, dsY));
+		assertEquals (0, ab.getMissCount());
+		assertEquals (1, xy.getMissCount());
+		
+		// untargetted
+		routed.mapID(new Xref ("a1", dsA));
+		assertEquals (1, ab.getMissCount());
+		assertEquals (1, xy.getMissCount());
+		
+		// unsupported target
+		assertEquals (0, routed.mapID(src, dsA).size());
+		assertEquals (1, ab.getMissCount());
+		assertEquals (1, xy.getMissCount());
+		
+		// index is rebuilt after the child list changes
+		CachingIDMapper xz = new CachingIDMapper(mappers.get("XZ"));
+		routed.addIDMapper(xz);
+		routed.mapID(Arrays.asList(src), dsZ);
+		assertEquals (1, xz.getMissCount());
+		assertEquals (1, xy.getMissCount());
+	}
+	
+	/** the routing index must notice a change of the children of a nested stack */
+	public void testRoutingNested() throws IDMapperException
+	{
+		IDMapperStack inner = new IDMapperStack();
+		inner.addIDMapper(mappers.get("AB"));
+		IDMapperStack outer = new IDMapperStack();
+		outer.addIDMapper(inner);
+		
+		Xref src = new Xref ("x1", dsX);
+		assertEquals (0, outer.mapID(src, dsY).size());
+		inner.addIDMapper(mappers.get("XY"));
+		assertEquals (mappers.get("XY").mapID(src, dsY), outer.mapID(src, dsY));
+		inner.removeIDMapper(mappers.get("XY"));
+		assertEquals (0, outer.mapID(src, dsY).size());
+	}
+	
+	/** the combined capabilities must notice a change of the children of a nested stack */
+	public void testCapabilitiesNested() throws IDMapperException
+	{
+		IDMapperStack inner = new IDMapperStack();
+		inner.addIDMapper(mappers.get("AB"));
+		IDMapperStack outer = new IDMapperStack();
+		outer.addIDMapper(inner);
+		
+		IDMapperCapabilities capas = outer.getCapabilities();
+		assertFalse (capas.getSupportedSrcDataSources().contains(dsX));
+		assertFalse (capas.isMappingSupported(dsX, dsY));
+		inner.addIDMapper(mappers.get("XY"));
+		assertTrue (capas.getSupportedSrcDataSources().contains(dsX));
+		assertTrue (capas.getSupportedTgtDataSources().contains(dsY));
+		assertTrue (capas.isMappingSupported(dsX, dsY));
+	}
+	
+	/** routing should only ask children about the pairs that are actually requested */
+	public void testRoutingPairsLazy() throws IDMapperException
+	{
+		IDMapperStack routed = new IDMapperStack();
+		CountingIDMapper ab = new CountingIDMapper(mappers.get("AB"));
+		CountingIDMapper xy = new CountingIDMapper(mappers.get("XY"));
+		routed.addIDMapper(ab);
+		routed.addIDMapper(xy);
+		
+		Xref src = new Xref ("x1", dsX);
+		routed.mapID(src, dsY);
+		routed.mapID(src, dsY);
+		assertEquals (0, ab.pairCount);
+		assertEquals (1, xy.pairCount);
+	}
+	
+	/** IDMapper that counts calls to isMappingSupported */
+	private static class CountingIDMapper implements IDMapper
+	{
+		private final IDMapper parent;
+		private int pairCount = 0;
+		
+		CountingIDMapper (IDMapper parent)
+		{
+			this.parent = parent;
+		}
+		
+		public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException
+		{
+			return parent.mapID(srcXrefs, tgtDataSources);
+		}
+		
+		public Set<Xref> mapID (Xref ref, DataSource... tgtDataSources) throws IDMapperException
+		{
+			return parent.mapID(ref, tgtDataSources);
+		}
+		
+		public boolean xrefExists(Xref xref) throws IDMapperException
+		{
+			return parent.xrefExists(xref);
+		}
+		
+		public Set<Xref> freeSearch (String text, int limit) throws IDMapperException
+		{
+			return parent.freeSearch(text, limit);
+		}
+		
+		public IDMapperCapabilities getCapabilities()
+		{
+			final IDMapperCapabilities capas = parent.getCapabilities();
+			return new IDMapperCapabilities()
+			{
+				public boolean isFreeSearchSupported()
+				{
+					return capas.isFreeSearchSupported();
+				}
+				
+				public Set<DataSource> getSupportedSrcDataSources() throws IDMapperException
+				{
+					return capas.getSupportedSrcDataSources();
+				}
+				
+				public Set<DataSource> getSupportedTgtDataSources() throws IDMapperException
+				{
+					return capas.getSupportedTgtDataSources();
+				}
+				
+				public boolean isMappingSupported(DataSource src, DataSource tgt) throws IDMapperException
+				{
+					pairCount++;
+					return capas.isMappingSupported(src, tgt);
+				}
+				
+				public String getProperty(String key)
+				{
+					return capas.getProperty(key);
+				}
+				
+				public Set<String> getKeys()
+				{
+					return capas.getKeys();
+				}
+			};
+		}
+		
+		public void close() throws IDMapperException
+		{
+			parent.close();
+		}
+		
+		public boolean isConnected()
+		{
+			return parent.isConnected();
+		}
+	}
+	
+	/** capabilities should be cached until the child list changes */
+	public void testCapabilityCache() throws IDMapperException
+	{
+		stack.setTransitive(false);
+		IDMapperCapabilities caps = stack.getCapabilities();
+		Set<DataSource> srcs = caps.getSupportedSrcDataSources();
+		assertSame (srcs, caps.getSupportedSrcDataSources());
+		assertTrue (srcs.contains(dsA));
+		assertTrue (caps.isMappingSupported(dsA, dsB));
+		assertTrue (caps.isMappingSupported(dsX, dsY));
+		assertFalse (caps.isMappingSupported(dsA, dsE));
+		
+		stack.removeIDMapper(mappers.get("AB"));
+		assertFalse (caps.getSupportedSrcDataSources().contains(dsA));
+		assertFalse (caps.isMappingSupported(dsA, dsB));
+		assertTrue (caps.isMappingSupported(dsX, dsY));
+	}
+	
+	/** supported DataSources should not require asking about pairs, and pairs are only asked once */
+	public void testCapabilityPairsLazy() throws IDMapperException
+	{
+		IDMapperStack lazy = new IDMapperStack();
+		CountingIDMapper ab = new CountingIDMapper(mappers.get("AB"));
+		CountingIDMapper xy = new CountingIDMapper(mappers.get("XY"));
+		lazy.addIDMapper(ab);
+		lazy.addIDMapper(xy);
+		
+		IDMapperCapabilities caps = lazy.getCapabilities();
+		assertTrue (caps.getSupportedSrcDataSources().contains(dsX));
+		assertTrue (caps.getSupportedTgtDataSources().contains(dsB));
+		assertEquals (0, ab.pairCount + xy.pairCount);
+		
+		assertTrue (caps.isMappingSupported(dsX, dsY));
+		assertTrue (caps.isMappingSupported(dsX, dsY));
+		assertEquals (0, ab.pairCount);
+		assertEquals (1, xy.pairCount);
+		
+		// outside the unions, no child needs to be asked
+		assertFalse (caps.isMappingSupported(dsE, dsY));
+		assertEquals (1, ab.pairCount + xy.pairCount);
+	}
+	
+	/** parallel mode should give the same results as sequential mode */
+	public void testParallel() throws IDMapperException
+	{
+		stack.setTransitive(false);
+		Xref src = new Xref ("x2", dsX );
+		Set<Xref> expected = stack.mapID(src);
+		Map<Xref, Set<Xref>> expectedMulti = stack.mapID(Arrays.asList(src, new Xref ("a1", dsA)));
+		
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			stack.setExecutor(executor);
+			assertEquals (expected, stack.mapID(src));
+			assertEquals (expectedMulti, stack.mapID(Arrays.asList(src, new Xref ("a1", dsA))));
+			assertTrue (stack.xrefExists(new Xref ("w2", dsW)));
+			assertFalse (stack.xrefExists(new Xref ("nonexistent", dsW)));
+		}
+		finally
+		{
+			stack.setExecutor(null);
+			executor.shutdown();
+		}
+	}
 }
@@ -0,0 +1,129 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2013 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.file.IDMapperText;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test caching of results of another IDMapper.
+ */
+public class TestCachingIDMapper
+{
+	private static final File AB = new File ("test-data/AB.csv");
+
+	private IDMapper text;
+	private DataSource dsA, dsB;
+
+	@Before public void setUp() throws Exception
+	{
+		text = new IDMapperText (AB.toURL());
+		dsA = DataSource.getByFullName("A");
+		dsB = DataSource.getByFullName("B");
+	}
+
+	@Test public void testHitsAndMisses() throws IDMapperException
+	{
+		CachingIDMapper cache = new CachingIDMapper (text);
+		Xref a1 = new Xref ("a1", dsA);
+		Set<Xref> expected = text.mapID(a1, dsB);
+
+		Assert.assertEquals (expected, cache.mapID(a1, dsB));
+		Assert.assertEquals (0, cache.getHitCount());
+		Assert.assertEquals (1, cache.getMissCount());
+		Assert.assertEquals (expected, cache.mapID(a1, dsB));
+		Assert.assertEquals (1, cache.getHitCount());
+
+		// a different target is a different request
+		cache.mapID(a1);
+		Assert.assertEquals (2, cache.getMissCount());
+
+		// collection mapping reuses single results, and only asks the child for the rest
+		Xref a2 = new Xref ("a2", dsA);
+		Map<Xref, Set<Xref>> result = cache.mapID(Arrays.asList(a1, a2), dsB);
+		Assert.assertEquals (expected, result.get(a1));
+		Assert.assertEquals (text.mapID(a2, dsB), result.get(a2));
+		Assert.assertEquals (2, cache.getHitCount());
+		Assert.assertEquals (3, cache.getMissCount());
+		Assert.assertEquals (text.mapID(a2, dsB), cache.mapID(a2, dsB));
+		Assert.assertEquals (3, cache.getHitCount());
+
+		Assert.assertTrue (cache.xrefExists(a1));
+		Assert.assertTrue (cache.xrefExists(a1));
+		Assert.assertEquals (4, cache.getHitCount());
+	}
+
+	@Test public void testEviction() throws IDMapperException
+	{
+		// room for two results of one Xref each
+		CachingIDMapper cache = new CachingIDMapper (text, 4, CachingIDMapper.UNLIMITED_TTL);
+		cache.mapID(new Xref ("a1", dsA), dsB);
+		cache.mapID(new Xref ("a2", dsA), dsB);
+		cache.mapID(new Xref ("a1", dsA), dsB);
+		cache.mapID(new Xref ("a3", dsA), dsB);
+		Assert.assertEquals (4, cache.getCacheSize());
+		Assert.assertEquals (1, cache.getHitCount());
+
+		// a2 was least recently used
+		cache.mapID(new Xref ("a1", dsA), dsB);
+		Assert.assertEquals (2, cache.getHitCount());
+		cache.mapID(new Xref ("a2", dsA), dsB);
+		Assert.assertEquals (2, cache.getHitCount());
+	}
+
+	@Test public void testExpiry() throws IDMapperException, InterruptedException
+	{
+		CachingIDMapper cache = new CachingIDMapper (text, CachingIDMapper.DEFAULT_MAX_SIZE, 50);
+		Xref a1 = new Xref ("a1", dsA);
+		cache.mapID(a1, dsB);
+		Thread.sleep(100);
+		cache.mapID(a1, dsB);
+		Assert.assertEquals (0, cache.getHitCount());
+		Assert.assertEquals (2, cache.getMissCount());
+	}
+
+	@Test public void testClose() throws IDMapperException
+	{
+		CachingIDMapper cache = new CachingIDMapper (text);
+		cache.mapID(new Xref ("a1", dsA), dsB);
+		Assert.assertTrue (cache.getCacheSize() > 0);
+		cache.close();
+		Assert.assertEquals (0, cache.getCacheSize());
+		Assert.assertFalse (text.isConnected());
+	}
+
+	@Test public void testConnect() throws Exception
+	{
+		Class.forName("org.bridgedb.CachingIDMapper");
+		Class.forName("org.bridgedb.file.IDMapperText");
+		IDMapper mapper = BridgeDb.connect("idmapper-cache:maxsize=10,ttl=60@idmapper-text:" + AB.toURL());
+		Assert.assertTrue (mapper instanceof CachingIDMapper);
+		Assert.assertEquals (10, ((CachingIDMapper)mapper).getMaxCacheSize());
+		Assert.assertTrue (((CachingIDMapper)mapper).getChild() instanceof IDMapperText);
+		Assert.assertEquals (text.mapID(new Xref ("a1", dsA)), mapper.mapID(new Xref ("a1", dsA)));
+
+		mapper = BridgeDb.connect("idmapper-cache:idmapper-text:" + AB.toURL());
+		Assert.assertEquals (CachingIDMapper.DEFAULT_MAX_SIZE, ((CachingIDMapper)mapper).getMaxCacheSize());
+	}
+}
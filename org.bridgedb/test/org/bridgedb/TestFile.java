@@ -19,16 +19,27 @@ package org.bridgedb;
 //import buildsystem.Measure;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
 import java.net.MalformedURLException;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.bridgedb.file.IDMapperFile;
 import org.bridgedb.file.IDMapperText;
+import org.bridgedb.file.IDMapperTextIndex;
+import org.bridgedb.file.IDMappingReader;
+import org.bridgedb.file.IDMappingReaderFromDelimitedReader;
+import org.bridgedb.file.IDMappingReaderFromText;
 import org.junit.Before;
 import org.junit.Assert;
 import org.junit.Ignore;
@@ -96,6 +107,269 @@ public class TestFile {
 
 	}
 
+	@Test public void testDelimitedReader() throws IDMapperException
+	{
+		DataSource dsA = DataSource.getByFullName("A");
+		DataSource dsB = DataSource.getByFullName("B");
+		// mixed line endings, a blank line, an empty field and multiple ids per field
+		String data = "A\tB\r\na1\tb1;b2\r\n\na2\t\nb3\rb4\tb5";
+
+		IDMappingReaderFromDelimitedReader reader = new IDMappingReaderFromDelimitedReader(
+				new StringReader(data), "\t", "[\\073,]", false);
+		Assert.assertEquals (new HashSet<DataSource>(Arrays.asList(dsA, dsB)), reader.getDataSources());
+
+		Map<Xref, Set<Xref>> mapping = reader.getIDMappings();
+		Assert.assertEquals (new HashSet<Xref>(Arrays.asList(
+				new Xref("a1", dsA), new Xref("b1", dsB), new Xref("b2", dsB))),
+				mapping.get(new Xref("b2", dsB)));
+		Assert.assertEquals (Collections.singleton(new Xref("a2", dsA)), mapping.get(new Xref("a2", dsA)));
+		Assert.assertEquals (new HashSet<Xref>(Arrays.asList(new Xref("b4", dsA), new Xref("b5", dsB))),
+				mapping.get(new Xref("b4", dsA)));
+		Assert.assertFalse (mapping.containsKey(new Xref("", dsB)));
+		Assert.assertEquals (7, mapping.size());
+
+		// a regular expression that is not a simple delimiter
+		reader = new IDMappingReaderFromDelimitedReader(
+				new StringReader("A::B\na1::b1\n"), "::", null, false);
+		Assert.assertTrue (reader.getIDMappings().get(new Xref("a1", dsA)).contains(new Xref("b1", dsB)));
+	}
+
+	@Test public void testDelimitedReaderTransitive() throws IDMapperException
+	{
+		DataSource dsA = DataSource.getByFullName("A");
+		DataSource dsB = DataSource.getByFullName("B");
+		String data = "A\tB\na1\tb1\na2\tb2\na3\tb3\na2\tb1,b4\n";
+
+		IDMappingReaderFromDelimitedReader reader = new IDMappingReaderFromDelimitedReader(
+				new StringReader(data), "\t", ",", true);
+		Map<Xref, Set<Xref>> mapping = reader.getIDMappings();
+
+		Set<Xref> cluster = mapping.get(new Xref("a1", dsA));
+		Assert.assertEquals (new HashSet<Xref>(Arrays.asList(
+				new Xref("a1", dsA), new Xref("b1", dsB), new Xref("a2", dsA),
+				new Xref("b2", dsB), new Xref("b4", dsB))), cluster);
+		Assert.assertTrue (cluster.contains(new Xref("b4", dsB)));
+		Assert.assertFalse (cluster.contains(new Xref("a3", dsA)));
+		// all members share a single group
+		for (Xref ref : cluster)
+		{
+			Assert.assertSame (cluster, mapping.get(ref));
+		}
+		Assert.assertEquals (new HashSet<Xref>(Arrays.asList(new Xref("a3", dsA), new Xref("b3", dsB))),
+				mapping.get(new Xref("b3", dsB)));
+		Assert.assertEquals (7, mapping.size());
+	}
+
+	@Test public void testTextIndex() throws IDMapperException, IOException, ClassNotFoundException
+	{
+		IDMapperFile text = new IDMapperText (YEAST_IDS.toURL());
+		File index = File.createTempFile("yeast", ".idx");
+		index.deleteOnExit();
+		IDMapperTextIndex.compile(text, index);
+
+		Class.forName("org.bridgedb.file.IDMapperTextIndex");
+		IDMapper idMapper = BridgeDb.connect("idmapper-textindex:" + index.toURI().toURL());
+		Assert.assertEquals (text.getCapabilities().getSupportedSrcDataSources(),
+				idMapper.getCapabilities().getSupportedSrcDataSources());
+
+		// every mapping is the same as from the text file
+		Map<Xref, Set<Xref>> all = new IDMappingReaderFromText(YEAST_IDS.toURL(),
+				new char[] { '\t' }, new char[] { ',' }).getIDMappings();
+		Assert.assertEquals (all, idMapper.mapID(all.keySet()));
+		Assert.assertEquals (text.mapID(XREF1, ENTREZ), idMapper.mapID(XREF1, ENTREZ));
+		Assert.assertTrue (idMapper.xrefExists(XREF1));
+
+		Xref nonsense = new Xref ("Humbug", ENS_YEAST);
+		Assert.assertFalse (idMapper.xrefExists(nonsense));
+		Assert.assertEquals (0, idMapper.mapID(nonsense).size());
+
+		idMapper.close();
+		Assert.assertFalse (idMapper.isConnected());
+	}
+
+	@Test public void testTextIndexMissingTarget() throws IDMapperException, IOException
+	{
+		final Map<Xref, Set<Xref>> mappings = new HashMap<Xref, Set<Xref>>();
+		mappings.put (XREF1, Collections.singleton(new Xref ("856450", ENTREZ)));
+		IDMappingReader reader = new IDMappingReader() {
+			public Set<DataSource> getDataSources() { return new HashSet<DataSource>(Arrays.asList(ENS_YEAST, ENTREZ)); }
+			public Map<Xref, Set<Xref>> getIDMappings() { return mappings; }
+		};
+		File index = File.createTempFile("missing", ".idx");
+		index.deleteOnExit();
+		try
+		{
+			IDMapperTextIndex.compile(reader, index);
+			Assert.fail ("Expected IDMapperException");
+		}
+		catch (IDMapperException expected) {}
+	}
+
+	@Test public void testParallelRead() throws IDMapperException, IOException
+	{
+		// large enough to be split in several chunks
+		File data = File.createTempFile("mapping", ".txt");
+		data.deleteOnExit();
+		PrintWriter writer = new PrintWriter(new FileWriter(data));
+		writer.println ("A\tB");
+		for (int i = 0; i < 120000; i++)
+		{
+			// members of each cluster are spread out over the whole file
+			writer.println ("a" + i + "\tb" + (i % 50000) + ",c" + (i % 70000));
+		}
+		writer.close();
+		Assert.assertTrue (data.length() > 2 * IDMappingReaderFromText.MIN_CHUNK_SIZE);
+
+		for (boolean transitivity : new boolean[] { false, true })
+		{
+			IDMappingReaderFromText sequential = new IDMappingReaderFromText(data.toURI().toURL(),
+					new char[] { '\t' }, new char[] { ',' }, transitivity);
+			IDMappingReaderFromText parallel = new IDMappingReaderFromText(data.toURI().toURL(),
+					new char[] { '\t' }, new char[] { ',' }, transitivity);
+			parallel.setParallelism(4);
+			Assert.assertEquals (sequential.getDataSources(), parallel.getDataSources());
+			Map<Xref, Set<Xref>> expected = sequential.getIDMappings();
+			Assert.assertEquals (expected, parallel.getIDMappings());
+			Assert.assertEquals (120000 + 50000 + 70000, parallel.getIDMappings().size());
+		}
+	}
+
+	@Test public void testReload() throws IDMapperException, IOException, InterruptedException
+	{
+		DataSource dsA = DataSource.getByFullName("A");
+		DataSource dsB = DataSource.getByFullName("B");
+		File data = File.createTempFile("mapping", ".txt");
+		data.deleteOnExit();
+		PrintWriter writer = new PrintWriter(new FileWriter(data));
+		writer.println ("A\tB");
+		writer.println ("a1\tb1");
+		writer.close();
+
+		IDMapperText idMapper = new IDMapperText (data.toURI().toURL());
+		Assert.assertEquals (Collections.singleton(new Xref("b1", dsB)), idMapper.mapID(new Xref("a1", dsA), dsB));
+
+		final CountDownLatch reloaded = new CountDownLatch(1);
+		final int[] rows = new int[1];
+		final IDMapperException[] failure = new IDMapperException[1];
+		idMapper.addReloadListener(new IDMapperText.ReloadListener()
+		{
+			public void reloaded(IDMapperText mapper, int n, long millis)
+			{
+				rows[0] = n;
+				reloaded.countDown();
+			}
+
+			public void reloadFailed(IDMapperText mapper, IDMapperException ex)
+			{
+				failure[0] = ex;
+				reloaded.countDown();
+			}
+		});
+		idMapper.startWatching(20, TimeUnit.MILLISECONDS);
+		Assert.assertTrue (idMapper.isWatching());
+
+		writer = new PrintWriter(new FileWriter(data));
+		writer.println ("A\tB");
+		writer.println ("a1\tb2");
+		writer.println ("a3\tb3");
+		writer.close();
+
+		Assert.assertTrue (reloaded.await(10, TimeUnit.SECONDS));
+		Assert.assertNull (failure[0]);
+		Assert.assertEquals (2, rows[0]);
+		Assert.assertEquals (Collections.singleton(new Xref("b2", dsB)), idMapper.mapID(new Xref("a1", dsA), dsB));
+		Assert.assertTrue (idMapper.xrefExists(new Xref("a3", dsA)));
+
+		idMapper.close();
+		Assert.assertFalse (idMapper.isWatching());
+	}
+
+	@Test public void testReloadNewColumn() throws IDMapperException, IOException
+	{
+		DataSource dsA = DataSource.getByFullName("A");
+		DataSource dsB = DataSource.getByFullName("B");
+		DataSource dsC = DataSource.getByFullName("C");
+		File data = File.createTempFile("mapping", ".txt");
+		data.deleteOnExit();
+		PrintWriter writer = new PrintWriter(new FileWriter(data));
+		writer.println ("A\tB");
+		writer.println ("a1\tb1");
+		writer.close();
+
+		IDMapperText idMapper = new IDMapperText (data.toURI().toURL());
+		Assert.assertFalse (idMapper.getCapabilities().getSupportedTgtDataSources().contains(dsC));
+
+		writer = new PrintWriter(new FileWriter(data));
+		writer.println ("A\tB\tC");
+		writer.println ("a1\tb1\tc1");
+		writer.close();
+		idMapper.reload();
+
+		// the new column can be mapped, also through the collection call that checks the capabilities
+		Xref src = new Xref("a1", dsA);
+		Assert.assertTrue (idMapper.getCapabilities().isMappingSupported(dsA, dsC));
+		Assert.assertEquals (Collections.singleton(new Xref("c1", dsC)), idMapper.mapID(src, dsC));
+		Assert.assertEquals (Collections.singleton(new Xref("c1", dsC)), 
+				idMapper.mapID(Collections.singleton(src), dsC).get(src));
+		idMapper.close();
+	}
+
+	@Test public void testFailedReload() throws IDMapperException, IOException
+	{
+		DataSource dsA = DataSource.getByFullName("A");
+		DataSource dsB = DataSource.getByFullName("B");
+		File data = File.createTempFile("mapping", ".txt");
+		PrintWriter writer = new PrintWriter(new FileWriter(data));
+		writer.println ("A\tB");
+		writer.println ("a1\tb1");
+		writer.close();
+
+		IDMappingReaderFromText reader = new IDMappingReaderFromText(data.toURI().toURL(), new char[] { '\t' }, null);
+		Map<Xref, Set<Xref>> mappings = reader.getIDMappings();
+		Set<DataSource> dss = reader.getDataSources();
+		Assert.assertEquals (new HashSet<DataSource>(Arrays.asList(dsA, dsB)), dss);
+
+		Assert.assertTrue (data.delete());
+		try
+		{
+			reader.reload();
+			Assert.fail ("Expected IDMapperException");
+		}
+		catch (IDMapperException expected) {}
+
+		// the previous data sources and mapping are kept together
+		Assert.assertSame (mappings, reader.getIDMappings());
+		Assert.assertEquals (dss, reader.getDataSources());
+	}
+
+	@Test public void testFreeSearch() throws IDMapperException, IOException, ClassNotFoundException
+	{
+		IDMapperFile plain = new IDMapperText (YEAST_IDS.toURL());
+		Assert.assertFalse (plain.getCapabilities().isFreeSearchSupported());
+
+		Class.forName("org.bridgedb.file.IDMapperText");
+		IDMapper idMapper = BridgeDb.connect("idmapper-text:freesearch=true@" + YEAST_IDS.toURL());
+		Assert.assertTrue (idMapper.getCapabilities().isFreeSearchSupported());
+
+		// case-insensitive substring match
+		Set<Xref> result = idMapper.freeSearch("hr055", 100);
+		Assert.assertTrue (result.contains(XREF1));
+		for (Xref ref : result)
+		{
+			Assert.assertTrue (ref.getId().toLowerCase().contains("hr055"));
+		}
+
+		Assert.assertEquals (5, idMapper.freeSearch("Y", 5).size());
+		Assert.assertEquals (3, idMapper.freeSearch("yhr", 3).size());
+		Assert.assertTrue (idMapper.freeSearch("55C", 1000).contains(XREF1));
+		Assert.assertEquals (0, idMapper.freeSearch("Humbug", 10).size());
+
+		// no limit
+		Assert.assertEquals (result, idMapper.freeSearch("hr055", 0));
+		Assert.assertEquals (idMapper.freeSearch("yhr", Integer.MAX_VALUE), idMapper.freeSearch("yhr", -1));
+		Assert.assertTrue (idMapper.freeSearch("yhr", 0).size() > 3);
+	}
+
 	public void _testTransitive() throws MalformedURLException, IDMapperException
 	{
 		IDMapperFile idMapper = new IDMapperText (YEAST_IDS.toURL(),
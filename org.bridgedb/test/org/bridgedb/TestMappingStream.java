@@ -0,0 +1,93 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2013 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.file.IDMapperText;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test mapping of Xref streams in chunks.
+ */
+public class TestMappingStream
+{
+	private static final File AB = new File ("test-data/AB.csv");
+
+	private IDMapper text;
+	private DataSource dsA, dsB;
+	private List<Xref> input;
+
+	@Before public void setUp() throws Exception
+	{
+		text = new IDMapperText (AB.toURL());
+		dsA = DataSource.getByFullName("A");
+		dsB = DataSource.getByFullName("B");
+		input = new ArrayList<Xref>();
+		for (String id : new String[] { "a1", "a2", "nonexistent", "a3", "a1" })
+		{
+			input.add (new Xref (id, dsA));
+		}
+	}
+
+	@Test public void testIterator() throws IDMapperException
+	{
+		final List<Integer> chunkSizes = new ArrayList<Integer>();
+		IDMapper counting = new IDMapperStack() {
+			@Override
+			public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgt) throws IDMapperException
+			{
+				chunkSizes.add (srcXrefs.size());
+				return text.mapID(srcXrefs, tgt);
+			}
+		};
+
+		MappingStream stream = new MappingStream (counting, input.iterator(), 2, dsB);
+		int i = 0;
+		while (stream.hasNext())
+		{
+			Map.Entry<Xref, Set<Xref>> entry = stream.next();
+			Assert.assertEquals (input.get(i), entry.getKey());
+			Assert.assertEquals (text.mapID(input.get(i), dsB), entry.getValue());
+			i++;
+		}
+		Assert.assertEquals (input.size(), i);
+		Assert.assertEquals ("[2, 2, 1]", chunkSizes.toString());
+	}
+
+	@Test public void testHandler() throws IDMapperException
+	{
+		final List<Xref> seen = new ArrayList<Xref>();
+		IDMapperStack stack = new IDMapperStack();
+		stack.addIDMapper(text);
+		stack.mapIDStream(input.iterator(), new MappingStream.Handler() {
+			public void mapped(Xref src, Set<Xref> result) throws IDMapperException
+			{
+				seen.add (src);
+				Assert.assertEquals (text.mapID(src, dsB), result);
+			}
+		}, dsB);
+		Assert.assertEquals (input, seen);
+	}
+}
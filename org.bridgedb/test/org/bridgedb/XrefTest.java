@@ -87,4 +87,19 @@ public class XrefTest {
 		Assert.assertTrue(xref.equals(xref2));
 		Assert.assertTrue(xref2.equals(xref)); // and symmetric
 	}
+	@Test
+	public void testHashCode() {
+		Xref xref = new Xref("ENSG000001", EN);
+		Xref xref2 = new Xref("ENSG000001", EN);
+		Assert.assertEquals(xref.hashCode(), xref2.hashCode());
+		Assert.assertFalse(xref.equals(new Xref("ENSG000001", UNIPROT)));
+	}
+
+	@Test
+	public void testToString() {
+		Xref xref = new Xref("ENSG000001", EN);
+		Assert.assertEquals("En:ENSG000001", xref.toString());
+		Assert.assertTrue(new Xref("1", EN).compareTo(new Xref("1", UNIPROT)) < 0);
+	}
+
 }